@@ -0,0 +1,52 @@
+package dev.rabauer.voice;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Subscribes to request body publishers the way the HTTP client does and counts the bytes, without a network.
+ */
+final class BodyDrain {
+
+    private BodyDrain() {
+    }
+
+    static long drain(List<HttpRequest.BodyPublisher> publishers) throws Exception {
+        long total = 0;
+        for (HttpRequest.BodyPublisher publisher : publishers) {
+            total += drain(publisher);
+        }
+        return total;
+    }
+
+    static long drain(HttpRequest.BodyPublisher publisher) throws Exception {
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private long bytes = 0;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                bytes += item.remaining();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(bytes);
+            }
+        });
+        return done.get();
+    }
+}
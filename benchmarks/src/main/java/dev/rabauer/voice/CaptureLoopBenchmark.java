@@ -0,0 +1,84 @@
+package dev.rabauer.voice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: the per-buffer work of the capture thread in {@code AudioCaptureService} for a
+ * whole-recording upload, in seconds of audio per second. Each capture period is read into a fresh
+ * buffer that is handed to the recording, the voice activity detector, the STT resampler and the
+ * FLAC encoder, with the service's default settings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureLoopBenchmark {
+    private static final int SECONDS = 10;
+
+    @Param({"true", "false"})
+    boolean flac;
+
+    @Param({"16000", "24000"})
+    int sttSampleRate;
+
+    private byte[] source;
+    private int period;
+
+    @Setup
+    public void setUp() {
+        source = SyntheticPcm.speech(SyntheticPcm.CAPTURE_FORMAT, SECONDS * 1000);
+        period = SyntheticPcm.CAPTURE_PERIOD_BYTES;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SECONDS)
+    public long captureRecording() {
+        AudioFormat format = SyntheticPcm.CAPTURE_FORMAT;
+        boolean resample = sttSampleRate != (int) format.getSampleRate();
+        AudioFormat sttFormat = resample ? new AudioFormat(sttSampleRate, 16, 1, true, false) : format;
+        PcmRecording recordingData = new PcmRecording(format);
+        PcmRecording speech = new PcmRecording(sttFormat);
+        FlacEncoder encoder = flac ? new FlacEncoder(sttFormat) : null;
+        PcmRecording.ChunkConsumer encode = (data, offset, length) -> {
+            speech.append(data, offset, length);
+            if (encoder != null) {
+                encoder.accept(data, offset, length);
+            }
+        };
+        PcmRecording.ChunkConsumer upload = resample
+                ? new PolyphaseResampler((int) format.getSampleRate(), sttSampleRate, PolyphaseResampler.Quality.BALANCED).into(encode)
+                : encode;
+        VoiceActivityDetector vad = new VoiceActivityDetector(format, 500, 0.25, 200, 600, 150, upload);
+
+        byte[] buffer = new byte[period];
+        for (int offset = 0; offset < source.length; offset += period) {
+            int read = Math.min(period, source.length - offset);
+            System.arraycopy(source, offset, buffer, 0, read);
+            recordingData.append(buffer, 0, read);
+            vad.accept(buffer, 0, read);
+            buffer = new byte[buffer.length];
+        }
+        vad.finish();
+        if (encoder != null) {
+            encoder.finish();
+            return encoder.byteLength();
+        }
+        return speech.byteLength();
+    }
+}
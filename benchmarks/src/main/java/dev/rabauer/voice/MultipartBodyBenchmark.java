@@ -0,0 +1,59 @@
+package dev.rabauer.voice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.net.http.HttpRequest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: assembling the Whisper upload body as {@code transcribeWithWhisper} does and
+ * draining it like the HTTP client, per request, for a WAV and a FLAC recording.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartBodyBenchmark {
+
+    @Param({"wav", "flac"})
+    String upload;
+
+    @Param({"5000", "30000"})
+    int durationMs;
+
+    private PcmRecording recording;
+    private FlacEncoder flac;
+
+    @Setup
+    public void setUp() {
+        recording = SyntheticPcm.recording(new AudioFormat(16000f, 16, 1, true, false), durationMs);
+        flac = new FlacEncoder(recording.format());
+        flac.accept(recording);
+        flac.finish();
+    }
+
+    @Benchmark
+    public long buildAndDrain() throws Exception {
+        boolean wav = upload.equals("wav");
+        List<HttpRequest.BodyPublisher> file = wav ? recording.wavPublishers() : flac.publishers();
+        MultipartBodyPublisher multipart = new MultipartBodyPublisher()
+                .addFile("file", wav ? "audio.wav" : "audio.flac", wav ? "audio/wav" : "audio/flac", file)
+                .addField("model", "whisper-1");
+        HttpRequest.BodyPublisher body = multipart.build();
+        return body.contentLength() + BodyDrain.drain(body) + multipart.contentType().length();
+    }
+}
@@ -0,0 +1,60 @@
+package dev.rabauer.voice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: {@link PolyphaseResampler} throughput in input samples per second for each preset,
+ * fed 4096-byte capture buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolyphaseResamplerBenchmark {
+    private static final int CAPTURE_BUFFER = 4096;
+
+    @Param({"FAST", "BALANCED", "HIGH"})
+    PolyphaseResampler.Quality quality;
+
+    @Param({"16000"})
+    int outputRate;
+
+    private PolyphaseResampler resampler;
+    private byte[] input;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        resampler = new PolyphaseResampler(24000, outputRate, quality);
+        input = new byte[CAPTURE_BUFFER];
+        Random random = new Random(1);
+        for (int i = 0; i < input.length; i += 2) {
+            short sample = (short) (8000 * Math.sin(i / 40.0) + random.nextGaussian() * 500);
+            input[i] = (byte) sample;
+            input[i + 1] = (byte) (sample >> 8);
+        }
+        output = new byte[resampler.maxOutputBytes(CAPTURE_BUFFER) * 2];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CAPTURE_BUFFER / 2)
+    public int resampleCaptureBuffer() {
+        return resampler.process(input, 0, input.length, output, 0);
+    }
+}
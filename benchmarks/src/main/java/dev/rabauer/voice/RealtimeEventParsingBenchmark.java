@@ -0,0 +1,106 @@
+package dev.rabauer.voice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: what {@code onText} in {@code RealtimeOpenAIClient} does per message, with the client's
+ * handler registrations. {@code audioDelta} is a 100 ms {@code response.audio.delta} delivered in
+ * WebSocket fragments of {@code fragmentChars}; {@code transcriptDone} builds a tree for its handler and
+ * {@code unhandled} is a frequent type nobody listens to. {@code legacyAudioDelta} is the same delta handled
+ * the way the client did before the parser: fragments joined into a String, a full tree, then Base64.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RealtimeEventParsingBenchmark {
+
+    @Param({"1024", "65536"})
+    int fragmentChars;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final StringBuilder textBuffer = new StringBuilder();
+    private RealtimeEventParser parser;
+    private Blackhole blackhole;
+    private String[] audioFragments;
+    private String transcriptDone;
+    private String unhandled;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        parser = new RealtimeEventParser(mapper)
+                .onAudio("response.audio.delta", "delta", (pcm, offset, length) -> this.blackhole.consume(pcm[offset]))
+                .on("response.audio_transcript.done", (type, event, raw) -> this.blackhole.consume(event))
+                .on("response.done", (type, event, raw) -> this.blackhole.consume(event))
+                .otherwise((type, event, raw) -> this.blackhole.consume(type));
+
+        byte[] pcm = SyntheticPcm.speech(SyntheticPcm.CAPTURE_FORMAT, 100);
+        String audioDelta = "{\"type\":\"response.audio.delta\",\"event_id\":\"event_4711\",\"response_id\":\"resp_001\","
+                + "\"item_id\":\"item_001\",\"output_index\":0,\"content_index\":0,\"delta\":\""
+                + Base64.getEncoder().encodeToString(pcm) + "\"}";
+        int count = (audioDelta.length() + fragmentChars - 1) / fragmentChars;
+        audioFragments = new String[count];
+        for (int i = 0; i < count; i++) {
+            audioFragments[i] = audioDelta.substring(i * fragmentChars, Math.min(audioDelta.length(), (i + 1) * fragmentChars));
+        }
+        transcriptDone = "{\"type\":\"response.audio_transcript.done\",\"event_id\":\"event_4712\",\"response_id\":\"resp_001\","
+                + "\"item_id\":\"item_001\",\"output_index\":0,\"content_index\":0,"
+                + "\"transcript\":\"Sure, the meeting is at three o'clock tomorrow afternoon in the small conference room.\"}";
+        unhandled = "{\"type\":\"rate_limits.updated\",\"event_id\":\"event_4713\",\"rate_limits\":["
+                + "{\"name\":\"requests\",\"limit\":1000,\"remaining\":999,\"reset_seconds\":60},"
+                + "{\"name\":\"tokens\",\"limit\":50000,\"remaining\":49000,\"reset_seconds\":60}]}";
+    }
+
+    @Benchmark
+    public boolean audioDelta() throws IOException {
+        int last = audioFragments.length - 1;
+        for (int i = 0; i < last; i++) {
+            parser.accept(audioFragments[i], false);
+        }
+        return parser.accept(audioFragments[last], true);
+    }
+
+    @Benchmark
+    public byte[] legacyAudioDelta() throws IOException {
+        for (String fragment : audioFragments) {
+            textBuffer.append(fragment);
+        }
+        String json = textBuffer.toString();
+        textBuffer.setLength(0);
+        JsonNode event = mapper.readTree(json);
+        if (!"response.audio.delta".equals(event.get("type").asText())) {
+            throw new IllegalStateException("Unexpected event " + event.get("type"));
+        }
+        return Base64.getDecoder().decode(event.path("delta").asText());
+    }
+
+    @Benchmark
+    public boolean transcriptDone() throws IOException {
+        return parser.accept(transcriptDone, true);
+    }
+
+    @Benchmark
+    public boolean unhandled() throws IOException {
+        return parser.accept(unhandled, true);
+    }
+}
@@ -0,0 +1,150 @@
+package dev.rabauer.voice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: the framing behind {@code RealtimeOpenAIClient.appendPcm16}, which hands captured PCM to
+ * {@link RealtimeUplink}. {@code append} is per capture buffer against a socket that always keeps up;
+ * {@code encodeFrame} is the Base64 encoding of one 100 ms frame on its own. {@code legacyAppend} is the
+ * framing before {@code RealtimeUplink}: one {@code input_audio_buffer.append} message per capture buffer,
+ * built from a copy, a Base64 String and a JSON tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RealtimeFramingBenchmark {
+    private static final int FRAME_BYTES = 4800;
+    private static final int BUFFERS = 100;
+
+    @Param({"4080", "4096"})
+    int captureBytes;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final WebSocket socket = new NullWebSocket();
+    private RealtimeUplink uplink;
+    private byte[] pcm;
+    private char[] encoded;
+
+    @Setup
+    public void setUp() {
+        uplink = new RealtimeUplink(socket, FRAME_BYTES, 20);
+        pcm = SyntheticPcm.speech(SyntheticPcm.CAPTURE_FORMAT, 1000);
+        // Room for the JSON envelope around the Base64 payload
+        encoded = new char[64 + (FRAME_BYTES + 2) / 3 * 4];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BUFFERS)
+    public long append() {
+        int offset = 0;
+        for (int i = 0; i < BUFFERS; i++) {
+            if (offset + captureBytes > pcm.length) {
+                offset = 0;
+            }
+            uplink.append(pcm, offset, captureBytes);
+            offset += captureBytes;
+        }
+        return uplink.sentFrames();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BUFFERS)
+    public int legacyAppend() {
+        int offset = 0;
+        int sent = 0;
+        for (int i = 0; i < BUFFERS; i++) {
+            if (offset + captureBytes > pcm.length) {
+                offset = 0;
+            }
+            byte[] copy = new byte[captureBytes];
+            System.arraycopy(pcm, offset, copy, 0, captureBytes);
+            String message = mapper.createObjectNode()
+                    .put("type", "input_audio_buffer.append")
+                    .put("audio", Base64.getEncoder().encodeToString(copy))
+                    .toString();
+            socket.sendText(message, true);
+            sent += message.length();
+            offset += captureBytes;
+        }
+        return sent;
+    }
+
+    @Benchmark
+    public int encodeFrame() {
+        return RealtimeUplink.encode(pcm, FRAME_BYTES, encoded);
+    }
+
+    // Completes every send immediately, like a socket that always keeps up
+    private static final class NullWebSocket implements WebSocket {
+        private final CompletableFuture<WebSocket> done = CompletableFuture.completedFuture(this);
+
+        @Override
+        public CompletableFuture<WebSocket> sendText(CharSequence data, boolean last) {
+            return done;
+        }
+
+        @Override
+        public CompletableFuture<WebSocket> sendBinary(ByteBuffer data, boolean last) {
+            return done;
+        }
+
+        @Override
+        public CompletableFuture<WebSocket> sendPing(ByteBuffer message) {
+            return done;
+        }
+
+        @Override
+        public CompletableFuture<WebSocket> sendPong(ByteBuffer message) {
+            return done;
+        }
+
+        @Override
+        public CompletableFuture<WebSocket> sendClose(int statusCode, String reason) {
+            return done;
+        }
+
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public String getSubprotocol() {
+            return "";
+        }
+
+        @Override
+        public boolean isOutputClosed() {
+            return false;
+        }
+
+        @Override
+        public boolean isInputClosed() {
+            return false;
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+
+/**
+ * Deterministic 16-bit little-endian test audio shaped like a spoken request: voiced stretches
+ * (a few harmonics plus noise) separated by short pauses, so voice activity detection, FLAC
+ * prediction and Base64 all see realistic rather than silent or random input.
+ */
+final class SyntheticPcm {
+    static final AudioFormat CAPTURE_FORMAT = new AudioFormat(24000f, 16, 1, true, false);
+    // What the capture thread reads per iteration at the default 85 ms period
+    static final int CAPTURE_PERIOD_BYTES = 85 * 48;
+
+    private SyntheticPcm() {
+    }
+
+    static byte[] speech(AudioFormat format, int durationMs) {
+        int rate = Math.round(format.getSampleRate());
+        int channels = format.getChannels();
+        int frames = (int) ((long) rate * durationMs / 1000);
+        byte[] pcm = new byte[frames * channels * 2];
+        Random random = new Random(7);
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / rate;
+            // 1.2 s of speech, then 0.4 s of pause
+            boolean voiced = t % 1.6 < 1.2;
+            double pitch = 120 + 30 * Math.sin(2 * Math.PI * 0.7 * t);
+            phase += 2 * Math.PI * pitch / rate;
+            double sample = voiced
+                    ? 6000 * Math.sin(phase) + 2500 * Math.sin(2 * phase) + 1200 * Math.sin(3 * phase)
+                    : 0;
+            sample += random.nextGaussian() * (voiced ? 400 : 40);
+            short s = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            for (int c = 0; c < channels; c++) {
+                int at = (i * channels + c) * 2;
+                pcm[at] = (byte) s;
+                pcm[at + 1] = (byte) (s >> 8);
+            }
+        }
+        return pcm;
+    }
+
+    /**
+     * A recording made of capture-period sized buffers, as the capture loop stores them.
+     */
+    static PcmRecording recording(AudioFormat format, int durationMs) {
+        PcmRecording recording = new PcmRecording(format);
+        byte[] pcm = speech(format, durationMs);
+        int period = CAPTURE_PERIOD_BYTES - CAPTURE_PERIOD_BYTES % format.getFrameSize();
+        for (int offset = 0; offset < pcm.length; offset += period) {
+            int length = Math.min(period, pcm.length - offset);
+            byte[] buffer = new byte[length];
+            System.arraycopy(pcm, offset, buffer, 0, length);
+            recording.append(buffer, 0, length);
+        }
+        return recording;
+    }
+}
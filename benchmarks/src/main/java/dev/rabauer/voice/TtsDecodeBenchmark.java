@@ -0,0 +1,83 @@
+package dev.rabauer.voice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: decoding a TTS WAV response the way {@code TtsPlayer.playWav} does before writing it to
+ * the output line, per response: parse the header, normalize other sample encodings to 16-bit PCM, read
+ * it through in 4 KB buffers and convert it to a 48 kHz stereo device format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TtsDecodeBenchmark {
+    private static final AudioFormat DEVICE_FORMAT = new AudioFormat(48000f, 16, 2, true, false);
+
+    /** 16: PCM as the TTS API returns it; 8: an encoding Java Sound has to convert first. */
+    @Param({"16", "8"})
+    int sampleSizeBits;
+
+    private byte[] wav;
+    private final byte[] buffer = new byte[4096];
+    private byte[] converted;
+    private PcmFormatConverter converter;
+
+    @Setup
+    public void setUp() throws Exception {
+        PcmRecording speech = SyntheticPcm.recording(TtsPlayer.TTS_PCM_FORMAT, 3000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        speech.writeWav(out);
+        wav = out.toByteArray();
+        if (sampleSizeBits != 16) {
+            AudioFormat format = new AudioFormat(24000f, sampleSizeBits, 1, sampleSizeBits > 8, false);
+            try (AudioInputStream source = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wav));
+                 AudioInputStream narrowed = AudioSystem.getAudioInputStream(format, source)) {
+                out.reset();
+                AudioSystem.write(narrowed, AudioFileFormat.Type.WAVE, out);
+                wav = out.toByteArray();
+            }
+        }
+        converter = new PcmFormatConverter(TtsPlayer.TTS_PCM_FORMAT, DEVICE_FORMAT, PolyphaseResampler.Quality.BALANCED);
+        converted = new byte[converter.maxOutputBytes(buffer.length)];
+    }
+
+    @Benchmark
+    public long decode() throws Exception {
+        converter.reset();
+        long total = 0;
+        try (AudioInputStream wavStream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wav))) {
+            AudioInputStream ais = wavStream;
+            AudioFormat format = wavStream.getFormat();
+            if (!PcmFormatConverter.isPcm16le(format) && format.getChannels() <= 2) {
+                format = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+                ais = AudioSystem.getAudioInputStream(format, wavStream);
+            }
+            int n;
+            while ((n = ais.read(buffer)) > 0) {
+                total += converter.convert(buffer, 0, n, converted, 0);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,67 @@
+package dev.rabauer.voice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark: encoding a recording for upload, per recording. {@code writeWav} is the file path,
+ * {@code wavPublishers} the streamed request body (drained as the HTTP client would); FLAC is the
+ * default upload format and included for comparison. The size FLAC compresses the recording to is printed
+ * once per fork, since JMH has no place for it in the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WavEncodingBenchmark {
+
+    @Param({"5000", "30000"})
+    int durationMs;
+
+    private PcmRecording recording;
+    private final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() {
+        recording = SyntheticPcm.recording(new AudioFormat(16000f, 16, 1, true, false), durationMs);
+        long wavBytes = recording.byteLength() + 44; // the RIFF header
+        long flacBytes = flac();
+        System.out.printf("%d ms of speech: WAV %,d bytes, FLAC %,d bytes (%.0f%% of WAV)%n",
+                durationMs, wavBytes, flacBytes, 100.0 * flacBytes / wavBytes);
+    }
+
+    @Benchmark
+    public PcmRecording writeWav() throws IOException {
+        recording.writeWav(sink);
+        return recording;
+    }
+
+    @Benchmark
+    public long wavPublishers() throws Exception {
+        return BodyDrain.drain(recording.wavPublishers());
+    }
+
+    @Benchmark
+    public long flac() {
+        FlacEncoder encoder = new FlacEncoder(recording.format());
+        encoder.accept(recording);
+        encoder.finish();
+        return encoder.byteLength();
+    }
+}
@@ -0,0 +1,256 @@
+package dev.rabauer.voice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Entry point of {@code loadtest.jar}: starts an {@link OpenAiStubServer} and runs simulated users against it
+ * through the real pipeline. Every user is a complete set of the app's beans ({@link SessionContainer}) that
+ * records from a {@link SyntheticMicrophone} and plays on a {@link SimulatedSpeaker}, one turn after another:
+ * hotkey, talk for {@code speak-ms}, hotkey, wait for the reply to finish playing, pause. The summary comes
+ * from the same Micrometer meters the app exports, kept for the whole run. App properties can be set as
+ * usual with {@code -D}, e.g. {@code -Dapp.pipeline.mode=realtime}.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        if (options.containsKey("help")) {
+            System.out.println("Usage: java [-Dapp.property=value ...] -jar loadtest.jar [options]\n"
+                    + "  --sessions=4               simulated users, each with its own pipeline\n"
+                    + "  --turns=5                  turns per user\n"
+                    + "  --speak-ms=3000            how long each question is\n"
+                    + "  --pause-ms=1000            between the end of a reply and the next question\n"
+                    + "  --ramp-up-ms=2000          users start spread over this time\n"
+                    + "  --turn-timeout-ms=120000   a turn not finished by then counts as hung\n"
+                    + "  --device-speed=1           how much faster than real time microphones and speakers run\n"
+                    + StubSettings.usage());
+            return;
+        }
+        // The app logs every stage of every turn; keep that out of the summary
+        System.setProperty("org.slf4j.simpleLogger.logFile",
+                System.getProperty("org.slf4j.simpleLogger.logFile", "loadtest.log"));
+
+        int sessions = (int) StubSettings.number(options, "sessions", 4);
+        int turns = (int) StubSettings.number(options, "turns", 5);
+        long speakMs = StubSettings.number(options, "speak-ms", 3000);
+        long pauseMs = StubSettings.number(options, "pause-ms", 1000);
+        long rampUpMs = StubSettings.number(options, "ramp-up-ms", 2000);
+        long turnTimeoutMs = StubSettings.number(options, "turn-timeout-ms", 120_000);
+        SimulatedLine.speed = StubSettings.fraction(options, "device-speed", 1);
+
+        StubSettings stubSettings = StubSettings.from(options);
+        try (OpenAiStubServer stub = new OpenAiStubServer(stubSettings).start()) {
+            Map<String, String> overrides = new LinkedHashMap<>(stub.appProperties());
+            overrides.put("app.audio.inputDevice", LoadTestMixerProvider.NAME);
+            overrides.put("app.audio.outputDevice", LoadTestMixerProvider.NAME);
+            overrides.put("app.audio.devices.refreshMs", "0");
+            // Sessions share the user's home directory; measure the requests, not the caches
+            overrides.put("app.tts.cache.enabled", "false");
+            overrides.put("app.contextMemory.journal.enabled", "false");
+            overrides.put("app.llm.semanticCache.enabled", "false");
+
+            MeterRegistry registry = new SimpleMeterRegistry();
+            // Percentiles and histograms over the whole run instead of the last two minutes
+            registry.config().meterFilter(new MeterFilter() {
+                @Override
+                public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                    return DistributionStatisticConfig.builder()
+                            .expiry(Duration.ofDays(1))
+                            .bufferLength(1)
+                            .build()
+                            .merge(config);
+                }
+            });
+
+            String mode = new SessionContainer(overrides).config("app.pipeline.mode").orElse("whisper");
+            System.out.printf("Load test: %d users x %d turns of %d ms, %s pipeline, devices at %.1fx%n",
+                    sessions, turns, speakMs, mode, SimulatedLine.speed);
+            System.out.println("Stub on port " + stub.port() + ": " + stubSettings);
+
+            AtomicInteger hung = new AtomicInteger();
+            long start = System.nanoTime();
+            List<Future<?>> users = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < sessions; i++) {
+                    long delayMs = sessions > 1 ? rampUpMs * i / (sessions - 1) : 0;
+                    users.add(executor.submit(() -> {
+                        Thread.sleep(delayMs);
+                        runUser(overrides, registry, turns, speakMs, pauseMs, turnTimeoutMs, hung);
+                        return null;
+                    }));
+                }
+                for (Future<?> user : users) {
+                    user.get();
+                }
+            }
+            long wallMs = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.println();
+            System.out.print(summary(registry, wallMs, hung.get()));
+            System.out.print(stub.stats());
+            if (hung.get() > 0) {
+                System.exit(1);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void runUser(Map<String, String> overrides, MeterRegistry registry, int turns, long speakMs,
+                                long pauseMs, long turnTimeoutMs, AtomicInteger hung) throws InterruptedException {
+        try (SessionContainer session = new SessionContainer(overrides).provide(MeterRegistry.class, registry)) {
+            AudioCaptureService service = session.get(AudioCaptureService.class);
+            Semaphore finished = new Semaphore(0);
+            service.setListener(new RecorderListener() {
+                @Override
+                public void onRecordingStarted() {
+                }
+
+                @Override
+                public void onRecordingStopped(PcmRecording recording) {
+                }
+
+                @Override
+                public void onProcessingStarted() {
+                }
+
+                @Override
+                public void onProcessingFinished() {
+                    finished.release();
+                }
+            });
+            long speakWallMs = Math.max(1, Math.round(speakMs / SimulatedLine.speed));
+            try {
+                for (int turn = 0; turn < turns; turn++) {
+                    service.startRecording();
+                    Thread.sleep(speakWallMs);
+                    service.stopRecording();
+                    if (!finished.tryAcquire(turnTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        hung.incrementAndGet();
+                        System.err.println("A turn did not finish within " + turnTimeoutMs + " ms, ending this user");
+                        return;
+                    }
+                    Thread.sleep(pauseMs);
+                }
+            } finally {
+                // Hang up, and let the stub answer the close, before the session's HTTP client shuts down
+                // underneath the socket and the app counts that as a realtime error
+                RealtimeOpenAIClient realtime = session.get(RealtimeOpenAIClient.class);
+                if (realtime.isConnected()) {
+                    realtime.close();
+                    Thread.sleep(200);
+                }
+            }
+        }
+    }
+
+    static String summary(MeterRegistry registry, long wallMs, int hung) {
+        StringBuilder text = new StringBuilder();
+        Map<String, Long> outcomes = new TreeMap<>();
+        long turns = 0;
+        for (Timer timer : registry.find("voice.turn").timers()) {
+            outcomes.merge(timer.getId().getTag("outcome"), timer.count(), Long::sum);
+            turns += timer.count();
+        }
+        text.append(String.format("Turns: %d in %.1f s (%.1f per minute), %s%s%n", turns, wallMs / 1000.0,
+                turns * 60_000.0 / Math.max(1, wallMs), outcomes, hung > 0 ? ", " + hung + " hung" : ""));
+
+        Timer latency = registry.find("voice.turn.latency").timer();
+        if (latency != null && latency.count() > 0) {
+            StringBuilder percentiles = new StringBuilder();
+            for (ValueAtPercentile p : latency.takeSnapshot().percentileValues()) {
+                percentiles.append(String.format(" p%.0f %.0f ms", p.percentile() * 100, p.value(TimeUnit.MILLISECONDS)));
+            }
+            text.append(String.format("End of recording to first sound:%s, max %.0f ms%n",
+                    percentiles, latency.max(TimeUnit.MILLISECONDS)));
+        }
+
+        text.append(String.format("%-24s %7s %9s %9s %9s%n", "Stage", "count", "mean ms", "p95 ms", "max ms"));
+        for (String name : List.of("voice.stt.upload", "voice.stt", "voice.llm.first_token", "voice.llm",
+                "voice.tts.first_byte", "voice.tts", "voice.turn")) {
+            stage(text, name, registry.find(name).timers());
+        }
+
+        for (String name : List.of("voice.errors", "voice.retries", "voice.llm.speculation")) {
+            Map<String, Double> counts = new TreeMap<>();
+            for (Counter counter : registry.find(name).counters()) {
+                String tag = counter.getId().getTags().isEmpty() ? "" : counter.getId().getTags().get(0).getValue();
+                counts.merge(tag, counter.count(), Double::sum);
+            }
+            if (!counts.isEmpty()) {
+                text.append(String.format("%s: %s%n", name, counts));
+            }
+        }
+        text.append(String.format("Audio: %.1f s captured, %.1f s written to speakers%n",
+                SyntheticMicrophone.capturedSeconds.sum(), SimulatedSpeaker.playedSeconds.sum()));
+        return text.toString();
+    }
+
+    // One line per stage over all its tags; p95 is the upper bound of the histogram bucket it falls into
+    private static void stage(StringBuilder text, String name, Iterable<Timer> timers) {
+        long count = 0;
+        double totalMs = 0;
+        double maxMs = 0;
+        Map<Double, Double> buckets = new TreeMap<>();
+        for (Timer timer : timers) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            count += snapshot.count();
+            totalMs += snapshot.total(TimeUnit.MILLISECONDS);
+            maxMs = Math.max(maxMs, snapshot.max(TimeUnit.MILLISECONDS));
+            for (CountAtBucket bucket : snapshot.histogramCounts()) {
+                buckets.merge(bucket.bucket(TimeUnit.MILLISECONDS), bucket.count(), Double::sum);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        double p95 = maxMs;
+        for (Map.Entry<Double, Double> bucket : buckets.entrySet()) {
+            if (bucket.getValue() >= 0.95 * count) {
+                p95 = Math.min(bucket.getKey(), maxMs);
+                break;
+            }
+        }
+        text.append(String.format("%-24s %7d %9.0f %9.0f %9.0f%n", name, count, totalMs / count, p95, maxMs));
+    }
+
+    /**
+     * {@code --name=value} options; a bare {@code --name} is {@code true}.
+     */
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument " + arg + ", see --help");
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,161 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import javax.sound.sampled.spi.MixerProvider;
+
+/**
+ * Adds a {@value #NAME} device to Java Sound, registered as a service provider, so the app's own device
+ * selection opens a {@link SyntheticMicrophone} and a {@link SimulatedSpeaker} where it would open a sound
+ * card. Every line it hands out is independent, so any number of simulated sessions can record and play at
+ * once. On a machine without audio devices it is also the default.
+ */
+public class LoadTestMixerProvider extends MixerProvider {
+    static final String NAME = "Load Test Audio";
+
+    // 16-bit little-endian PCM at any rate and channel count
+    private static final AudioFormat ANY_PCM16 = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+            AudioSystem.NOT_SPECIFIED, 16, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED,
+            AudioSystem.NOT_SPECIFIED, false);
+    private static final DataLine.Info MICROPHONE = new DataLine.Info(TargetDataLine.class, ANY_PCM16);
+    private static final DataLine.Info SPEAKER = new DataLine.Info(SourceDataLine.class, ANY_PCM16);
+    private static final Mixer.Info INFO = new Mixer.Info(NAME, "on-demand-ai-voice",
+            "Synthetic microphone and speaker for load tests", "1.0") {
+    };
+    private static final Mixer MIXER = new LoadTestMixer();
+
+    @Override
+    public Mixer.Info[] getMixerInfo() {
+        return new Mixer.Info[]{INFO};
+    }
+
+    @Override
+    public Mixer getMixer(Mixer.Info info) {
+        if (info == null || INFO.equals(info)) {
+            return MIXER;
+        }
+        throw new IllegalArgumentException("Not a load test mixer: " + info);
+    }
+
+    private static final class LoadTestMixer implements Mixer {
+
+        @Override
+        public Mixer.Info getMixerInfo() {
+            return INFO;
+        }
+
+        @Override
+        public Line.Info[] getSourceLineInfo() {
+            return new Line.Info[]{SPEAKER};
+        }
+
+        @Override
+        public Line.Info[] getTargetLineInfo() {
+            return new Line.Info[]{MICROPHONE};
+        }
+
+        @Override
+        public Line.Info[] getSourceLineInfo(Line.Info info) {
+            return info.matches(SPEAKER) ? getSourceLineInfo() : new Line.Info[0];
+        }
+
+        @Override
+        public Line.Info[] getTargetLineInfo(Line.Info info) {
+            return info.matches(MICROPHONE) ? getTargetLineInfo() : new Line.Info[0];
+        }
+
+        @Override
+        public boolean isLineSupported(Line.Info info) {
+            return info.matches(SPEAKER) || info.matches(MICROPHONE);
+        }
+
+        @Override
+        public Line getLine(Line.Info info) {
+            if (info.matches(SPEAKER)) {
+                return new SimulatedSpeaker(SPEAKER);
+            }
+            if (info.matches(MICROPHONE)) {
+                return new SyntheticMicrophone(MICROPHONE);
+            }
+            throw new IllegalArgumentException("Not supported by " + NAME + ": " + info);
+        }
+
+        @Override
+        public int getMaxLines(Line.Info info) {
+            return isLineSupported(info) ? AudioSystem.NOT_SPECIFIED : 0;
+        }
+
+        // Lines are not tracked; nothing in the app asks for them
+        @Override
+        public Line[] getSourceLines() {
+            return new Line[0];
+        }
+
+        @Override
+        public Line[] getTargetLines() {
+            return new Line[0];
+        }
+
+        @Override
+        public void synchronize(Line[] lines, boolean maintainSync) {
+            throw new IllegalArgumentException("Synchronization is not supported");
+        }
+
+        @Override
+        public void unsynchronize(Line[] lines) {
+        }
+
+        @Override
+        public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+            return false;
+        }
+
+        @Override
+        public Line.Info getLineInfo() {
+            return new Line.Info(Mixer.class);
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public Control[] getControls() {
+            return new Control[0];
+        }
+
+        @Override
+        public boolean isControlSupported(Control.Type control) {
+            return false;
+        }
+
+        @Override
+        public Control getControl(Control.Type control) {
+            throw new IllegalArgumentException("The load test mixer has no controls");
+        }
+
+        @Override
+        public void addLineListener(LineListener listener) {
+        }
+
+        @Override
+        public void removeLineListener(LineListener listener) {
+        }
+    }
+}
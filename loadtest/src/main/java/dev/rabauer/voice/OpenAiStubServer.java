@@ -0,0 +1,494 @@
+package dev.rabauer.voice;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local stand-in for the OpenAI endpoints the app calls: transcriptions, chat completions (blocking and
+ * streamed as server-sent events), speech (WAV and raw PCM) and the Realtime WebSocket. Answers are canned;
+ * what can be tuned is how long they take, how large they are and how often they fail ({@link StubSettings}).
+ * Point the app at it with the properties {@link #appProperties()} returns.
+ */
+public class OpenAiStubServer implements AutoCloseable {
+    private static final String[] QUESTIONS = {
+            "What is the weather going to be like tomorrow?",
+            "Can you remind me what we talked about earlier?",
+            "How long does it take to boil an egg?",
+            "Give me a quick summary of the news.",
+            "What is a good name for a grey cat?",
+    };
+    private static final String[] REPLY_WORDS = ("Here is a simulated answer from the local stub server so the "
+            + "voice pipeline has something realistic to chunk synthesize and play while the load test measures "
+            + "how long every stage takes").split(" ");
+    // 24 kHz PCM16 mono, the format of OpenAI's "pcm" speech and of Realtime audio
+    private static final int BYTES_PER_MS = 48;
+    private static final int AUDIO_CHUNK_MS = 100;
+    // One second of a quiet 220 Hz tone; a whole number of periods, so it loops without a click
+    private static final byte[] TONE = tone();
+
+    private final StubSettings settings;
+    private final Vertx vertx = Vertx.vertx();
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private HttpServer server;
+
+    public OpenAiStubServer(StubSettings settings) {
+        this.settings = settings;
+        for (String name : List.of("transcriptions", "chat", "chat (streamed)", "speech", "realtime")) {
+            endpoints.put(name, new Endpoint());
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = LoadTest.options(args);
+        if (options.containsKey("help")) {
+            System.out.println("Usage: OpenAiStubServer [options]\n" + StubSettings.usage());
+            return;
+        }
+        OpenAiStubServer stub = new OpenAiStubServer(StubSettings.from(options)).start();
+        System.out.println("OpenAI stub listening, " + stub.settings);
+        System.out.println("Point the app at it with:");
+        stub.appProperties().forEach((name, value) -> System.out.println("  -D" + name + "=" + value));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(stub.stats())));
+    }
+
+    public OpenAiStubServer start() {
+        // HTTP/1.1 only: the app's client asks for an h2c upgrade, which is simply not taken
+        HttpServerOptions options = new HttpServerOptions()
+                .setHost("127.0.0.1")
+                .setPort(settings.port)
+                .setHttp2ClearTextEnabled(false);
+        server = vertx.createHttpServer(options)
+                .webSocketHandler(this::realtime)
+                .requestHandler(this::route);
+        server.listen().toCompletionStage().toCompletableFuture().join();
+        return this;
+    }
+
+    public int port() {
+        return server.actualPort();
+    }
+
+    /**
+     * The app's endpoint properties, pointed at this server.
+     */
+    public Map<String, String> appProperties() {
+        String base = "http://127.0.0.1:" + port() + "/v1";
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("app.whisper.url", base + "/audio/transcriptions");
+        properties.put("app.llm.baseUrl", base);
+        properties.put("app.tts.url", base + "/audio/speech");
+        properties.put("openai.realtime.url", "ws://127.0.0.1:" + port() + "/v1/realtime?model=stub");
+        properties.put("openai.api.key", "stub");
+        return properties;
+    }
+
+    /**
+     * Requests, injected failures and bytes per endpoint so far.
+     */
+    public String stats() {
+        StringBuilder text = new StringBuilder("Stub server:\n");
+        endpoints.forEach((name, endpoint) -> text.append(String.format("  %-16s %6d requests %5d failed %10d bytes in %10d bytes out%n",
+                name, endpoint.requests.sum(), endpoint.failed.sum(), endpoint.bytesIn.sum(), endpoint.bytesOut.sum())));
+        return text.toString();
+    }
+
+    @Override
+    public void close() {
+        vertx.close().toCompletionStage().toCompletableFuture().join();
+    }
+
+    private void route(HttpServerRequest request) {
+        String path = request.path();
+        if (request.method() != HttpMethod.POST) {
+            // Pre-warming sends HEAD /; any answer leaves a pooled connection
+            request.response().setStatusCode(404).end();
+        } else if (path.endsWith("/audio/transcriptions")) {
+            request.body().onSuccess(body -> transcribe(request, body));
+        } else if (path.endsWith("/chat/completions")) {
+            request.body().onSuccess(body -> chat(request, body));
+        } else if (path.endsWith("/audio/speech")) {
+            request.body().onSuccess(body -> speech(request, body));
+        } else {
+            request.response().setStatusCode(404).end();
+        }
+    }
+
+    private void transcribe(HttpServerRequest request, Buffer body) {
+        Endpoint endpoint = endpoints.get("transcriptions");
+        endpoint.received(body.length());
+        later(settings.sttLatencyMs, () -> {
+            if (failed(endpoint, request.response())) {
+                return;
+            }
+            String json = new JsonObject().put("text", nextQuestion()).encode();
+            endpoint.sent(json.length());
+            request.response().putHeader("Content-Type", "application/json").end(json);
+        });
+    }
+
+    private void chat(HttpServerRequest request, Buffer body) {
+        JsonObject json = body.toJsonObject();
+        boolean stream = json.getBoolean("stream", false);
+        String model = json.getString("model", "stub");
+        Endpoint endpoint = endpoints.get(stream ? "chat (streamed)" : "chat");
+        endpoint.received(body.length());
+        List<String> tokens = replyTokens();
+        later(settings.chatLatencyMs, () -> {
+            HttpServerResponse response = request.response();
+            if (failed(endpoint, response)) {
+                return;
+            }
+            String id = "chatcmpl-stub-" + ids.incrementAndGet();
+            if (!stream) {
+                JsonObject message = new JsonObject().put("role", "assistant").put("content", String.join("", tokens));
+                String reply = completion(id, model, "chat.completion")
+                        .put("choices", new JsonArray().add(new JsonObject()
+                                .put("index", 0).put("message", message).put("finish_reason", "stop")))
+                        .put("usage", new JsonObject().put("prompt_tokens", body.length() / 4)
+                                .put("completion_tokens", tokens.size())
+                                .put("total_tokens", body.length() / 4 + tokens.size()))
+                        .encode();
+                endpoint.sent(reply.length());
+                response.putHeader("Content-Type", "application/json").end(reply);
+                return;
+            }
+            response.setChunked(true).putHeader("Content-Type", "text/event-stream");
+            streamTokens(endpoint, response, id, model, tokens, 0);
+        });
+    }
+
+    // One server-sent event per token, token-interval-ms apart; stops if the client goes away
+    private void streamTokens(Endpoint endpoint, HttpServerResponse response, String id, String model,
+                              List<String> tokens, int next) {
+        if (response.closed()) {
+            return;
+        }
+        JsonObject delta = new JsonObject();
+        String finishReason = null;
+        if (next < tokens.size()) {
+            if (next == 0) {
+                delta.put("role", "assistant");
+            }
+            delta.put("content", tokens.get(next));
+        } else {
+            finishReason = "stop";
+        }
+        JsonObject chunk = completion(id, model, "chat.completion.chunk")
+                .put("choices", new JsonArray().add(new JsonObject()
+                        .put("index", 0).put("delta", delta).put("finish_reason", finishReason)));
+        String event = "data: " + chunk.encode() + "\n\n";
+        if (finishReason != null) {
+            event += "data: [DONE]\n\n";
+            endpoint.sent(event.length());
+            response.end(event);
+            return;
+        }
+        endpoint.sent(event.length());
+        response.write(event);
+        later(settings.tokenIntervalMs, () -> streamTokens(endpoint, response, id, model, tokens, next + 1));
+    }
+
+    private void speech(HttpServerRequest request, Buffer body) {
+        Endpoint endpoint = endpoints.get("speech");
+        endpoint.received(body.length());
+        JsonObject json = body.toJsonObject();
+        String text = json.getString("input", "");
+        boolean wav = "wav".equals(json.getString("response_format", "mp3"));
+        int audioBytes = speechBytes(text);
+        later(settings.ttsLatencyMs, () -> {
+            HttpServerResponse response = request.response();
+            if (failed(endpoint, response)) {
+                return;
+            }
+            response.setChunked(true).putHeader("Content-Type", wav ? "audio/wav" : "audio/pcm");
+            if (wav) {
+                endpoint.sent(44);
+                response.write(Buffer.buffer(wavHeader(audioBytes)));
+            }
+            sendAudio(audioBytes, 0, chunk -> {
+                if (response.closed()) {
+                    return false;
+                }
+                endpoint.sent(chunk.length);
+                response.write(Buffer.buffer(chunk));
+                return true;
+            }, () -> {
+                if (!response.closed()) {
+                    response.end();
+                }
+            });
+        });
+    }
+
+    private void realtime(ServerWebSocket socket) {
+        if (!socket.path().endsWith("/realtime")) {
+            socket.reject(404);
+            return;
+        }
+        RealtimeSession session = new RealtimeSession(socket);
+        socket.textMessageHandler(session::onMessage);
+        socket.closeHandler(v -> session.stopResponse());
+        session.send(new JsonObject().put("type", "session.created")
+                .put("session", new JsonObject().put("id", "sess_stub_" + ids.incrementAndGet())));
+    }
+
+    /** One Realtime connection: the input audio buffer and the response being spoken, if any. */
+    private final class RealtimeSession {
+        private final ServerWebSocket socket;
+        private final Endpoint endpoint = endpoints.get("realtime");
+        private long bufferedBytes = 0;
+        private String responseId;
+        private long responseTimer = -1;
+
+        RealtimeSession(ServerWebSocket socket) {
+            this.socket = socket;
+        }
+
+        void onMessage(String text) {
+            endpoint.received(text.length());
+            JsonObject message = new JsonObject(text);
+            switch (message.getString("type", "")) {
+                case "session.update" -> send(new JsonObject().put("type", "session.updated")
+                        .put("session", message.getJsonObject("session", new JsonObject())));
+                case "input_audio_buffer.append" -> bufferedBytes += base64Length(message.getString("audio", ""));
+                case "input_audio_buffer.clear" -> {
+                    bufferedBytes = 0;
+                    send(new JsonObject().put("type", "input_audio_buffer.cleared"));
+                }
+                case "input_audio_buffer.commit" -> commit();
+                case "response.create" -> respond();
+                case "response.cancel" -> {
+                    if (responseId != null) {
+                        stopResponse();
+                        done("cancelled");
+                    }
+                }
+                case "conversation.item.truncate" -> send(new JsonObject().put("type", "conversation.item.truncated")
+                        .put("item_id", message.getString("item_id"))
+                        .put("audio_end_ms", message.getLong("audio_end_ms", 0L)));
+                default -> {
+                    // Nothing else is answered
+                }
+            }
+        }
+
+        private void commit() {
+            if (bufferedBytes < AUDIO_CHUNK_MS * BYTES_PER_MS) {
+                send(error("input_audio_buffer_commit_empty", "Buffer too small: " + bufferedBytes / BYTES_PER_MS + " ms of audio"));
+                return;
+            }
+            bufferedBytes = 0;
+            String itemId = "item_stub_" + ids.incrementAndGet();
+            send(new JsonObject().put("type", "input_audio_buffer.committed").put("item_id", itemId));
+            send(new JsonObject().put("type", "conversation.item.added").put("item", new JsonObject()
+                    .put("id", itemId).put("type", "message").put("role", "user")
+                    .put("content", new JsonArray().add(new JsonObject().put("type", "input_audio").putNull("transcript")))));
+            later(settings.sttLatencyMs, () -> send(new JsonObject()
+                    .put("type", "conversation.item.input_audio_transcription.completed")
+                    .put("item_id", itemId).put("content_index", 0).put("transcript", nextQuestion())));
+        }
+
+        private void respond() {
+            endpoint.requests.increment();
+            if (responseId != null) {
+                send(error("conversation_already_has_active_response", "A response is already in progress"));
+                return;
+            }
+            String id = "resp_stub_" + ids.incrementAndGet();
+            responseId = id;
+            send(new JsonObject().put("type", "response.created")
+                    .put("response", new JsonObject().put("id", id).put("status", "in_progress")));
+            responseTimer = vertx.setTimer(settings.delay(settings.realtimeLatencyMs), t -> {
+                if (!id.equals(responseId)) {
+                    return;
+                }
+                if (settings.injectError()) {
+                    endpoint.failed.increment();
+                    done("failed");
+                    return;
+                }
+                String itemId = "item_stub_" + ids.incrementAndGet();
+                send(new JsonObject().put("type", "response.output_item.added").put("response_id", id)
+                        .put("item", new JsonObject().put("id", itemId).put("type", "message").put("role", "assistant")));
+                String transcript = String.join("", replyTokens()).strip();
+                sendAudio(speechBytes(transcript), 0, chunk -> {
+                    if (!id.equals(responseId) || socket.isClosed()) {
+                        return false;
+                    }
+                    send(new JsonObject().put("type", "response.output_audio.delta").put("response_id", id)
+                            .put("item_id", itemId).put("delta", Base64.getEncoder().encodeToString(chunk)));
+                    return true;
+                }, () -> {
+                    if (!id.equals(responseId)) {
+                        return;
+                    }
+                    send(new JsonObject().put("type", "response.output_audio.done").put("response_id", id));
+                    send(new JsonObject().put("type", "response.output_audio_transcript.done").put("response_id", id)
+                            .put("item_id", itemId).put("transcript", transcript));
+                    done("completed");
+                });
+            });
+        }
+
+        private void done(String status) {
+            String id = responseId;
+            responseId = null;
+            send(new JsonObject().put("type", "response.done")
+                    .put("response", new JsonObject().put("id", id).put("status", status)));
+        }
+
+        // Stops sending audio; the audio pacing checks responseId before every chunk
+        void stopResponse() {
+            if (responseTimer >= 0) {
+                vertx.cancelTimer(responseTimer);
+                responseTimer = -1;
+            }
+        }
+
+        void send(JsonObject event) {
+            if (socket.isClosed()) {
+                return;
+            }
+            String text = event.encode();
+            endpoint.sent(text.length());
+            socket.writeTextMessage(text);
+        }
+    }
+
+    /** Receives the next chunk of audio; returns false to stop. */
+    private interface AudioSink {
+        boolean accept(byte[] chunk);
+    }
+
+    // Sends totalBytes of the tone in 100 ms chunks, audio-speedup times faster than real time
+    private void sendAudio(int totalBytes, int sentBytes, AudioSink sink, Runnable onDone) {
+        if (sentBytes >= totalBytes) {
+            onDone.run();
+            return;
+        }
+        int length = Math.min(AUDIO_CHUNK_MS * BYTES_PER_MS, totalBytes - sentBytes);
+        byte[] chunk = new byte[length];
+        for (int i = 0; i < length; ) {
+            int from = (sentBytes + i) % TONE.length;
+            int n = Math.min(length - i, TONE.length - from);
+            System.arraycopy(TONE, from, chunk, i, n);
+            i += n;
+        }
+        if (!sink.accept(chunk)) {
+            return;
+        }
+        long interval = Math.max(1, Math.round(AUDIO_CHUNK_MS / settings.audioSpeedup));
+        vertx.setTimer(interval, t -> sendAudio(totalBytes, sentBytes + length, sink, onDone));
+    }
+
+    // Runs the task after the latency plus jitter
+    private void later(long latencyMs, Runnable task) {
+        vertx.setTimer(settings.delay(latencyMs), t -> task.run());
+    }
+
+    // Counts the request, and fails it if the error rate says so
+    private boolean failed(Endpoint endpoint, HttpServerResponse response) {
+        endpoint.requests.increment();
+        if (!settings.injectError()) {
+            return false;
+        }
+        endpoint.failed.increment();
+        response.setStatusCode(settings.errorStatus)
+                .putHeader("Content-Type", "application/json")
+                .end(new JsonObject().put("error", new JsonObject().put("message", "Failure injected by the stub")
+                        .put("type", "server_error")).encode());
+        return true;
+    }
+
+    private String nextQuestion() {
+        return QUESTIONS[(int) (ids.incrementAndGet() % QUESTIONS.length)];
+    }
+
+    // The reply as streamed tokens: one word each, sentences of eight words
+    private List<String> replyTokens() {
+        List<String> tokens = new ArrayList<>(settings.replyWords);
+        for (int i = 0; i < settings.replyWords; i++) {
+            String word = REPLY_WORDS[i % REPLY_WORDS.length];
+            boolean first = i % 8 == 0;
+            boolean last = i % 8 == 7 || i == settings.replyWords - 1;
+            if (first) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            tokens.add((i > 0 ? " " : "") + word + (last ? "." : ""));
+        }
+        return tokens;
+    }
+
+    private int speechBytes(String text) {
+        return Math.max(1, text.length()) * settings.speechMsPerChar * BYTES_PER_MS;
+    }
+
+    private JsonObject completion(String id, String model, String object) {
+        return new JsonObject().put("id", id).put("object", object)
+                .put("created", System.currentTimeMillis() / 1000).put("model", model);
+    }
+
+    private static JsonObject error(String code, String message) {
+        return new JsonObject().put("type", "error")
+                .put("error", new JsonObject().put("type", "invalid_request_error").put("code", code).put("message", message));
+    }
+
+    private static long base64Length(String base64) {
+        int padding = base64.endsWith("==") ? 2 : base64.endsWith("=") ? 1 : 0;
+        return base64.length() / 4 * 3L - padding;
+    }
+
+    private static byte[] wavHeader(int dataBytes) {
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt(36 + dataBytes).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(24000).putInt(24000 * 2).putShort((short) 2).putShort((short) 16);
+        header.put("data".getBytes()).putInt(dataBytes);
+        return header.array();
+    }
+
+    private static byte[] tone() {
+        byte[] pcm = new byte[1000 * BYTES_PER_MS];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            short sample = (short) (3000 * Math.sin(2 * Math.PI * 220 * i / 24000.0));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    /** Counters of one endpoint. */
+    private static final class Endpoint {
+        final LongAdder requests = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+
+        void received(long bytes) {
+            bytesIn.add(bytes);
+        }
+
+        void sent(long bytes) {
+            bytesOut.add(bytes);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package dev.rabauer.voice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * The app's beans for one simulated user, wired the way Quarkus wires them, without Quarkus: fields annotated
+ * {@code @ConfigProperty} are set from system properties, then the session's overrides, then the app's
+ * {@code application.properties}, then the annotation's default; {@code @Inject} fields get this session's
+ * instance of their type, created on first use; {@code @PostConstruct} runs once a bean is wired and
+ * {@code @PreDestroy} on {@link #close()}, newest first. Beans handed in with {@link #provide} (e.g. a meter
+ * registry) can be shared between sessions.
+ */
+final class SessionContainer implements AutoCloseable {
+    private static final Properties APPLICATION = applicationProperties();
+
+    private final Map<String, String> overrides;
+    private final Map<Class<?>, Object> beans = new HashMap<>();
+    private final List<Object> created = new ArrayList<>();
+
+    SessionContainer(Map<String, String> overrides) {
+        this.overrides = overrides;
+    }
+
+    <T> SessionContainer provide(Class<T> type, T bean) {
+        beans.put(type, bean);
+        return this;
+    }
+
+    <T> T get(Class<T> type) {
+        Object bean = beans.get(type);
+        if (bean == null) {
+            bean = create(type);
+        }
+        return type.cast(bean);
+    }
+
+    /** A property as the app would see it, with {@code ${...}} expanded; empty counts as missing. */
+    Optional<String> config(String name) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            value = overrides.get(name);
+        }
+        if (value == null) {
+            value = APPLICATION.getProperty(name);
+        }
+        return value == null || value.isEmpty() ? Optional.empty() : Optional.of(expand(value)).filter(v -> !v.isEmpty());
+    }
+
+    @Override
+    public void close() {
+        for (int i = created.size() - 1; i >= 0; i--) {
+            Object bean = created.get(i);
+            for (Method method : bean.getClass().getDeclaredMethods()) {
+                if (method.isAnnotationPresent(PreDestroy.class)) {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(bean);
+                    } catch (ReflectiveOperationException e) {
+                        System.err.println("Closing " + bean.getClass().getSimpleName() + " failed: " + e.getCause());
+                    }
+                }
+            }
+        }
+        created.clear();
+    }
+
+    private Object create(Class<?> type) {
+        try {
+            var constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Object bean = constructor.newInstance();
+            // Registered before wiring, so two beans injecting each other get the same instance
+            beans.put(type, bean);
+            for (Field field : type.getDeclaredFields()) {
+                ConfigProperty property = field.getAnnotation(ConfigProperty.class);
+                if (property != null) {
+                    field.setAccessible(true);
+                    field.set(bean, convert(property, field.getGenericType()));
+                } else if (field.isAnnotationPresent(Inject.class)) {
+                    field.setAccessible(true);
+                    field.set(bean, get(field.getType()));
+                }
+            }
+            for (Method method : type.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(PostConstruct.class)) {
+                    method.setAccessible(true);
+                    method.invoke(bean);
+                }
+            }
+            created.add(bean);
+            return bean;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create " + type.getName(), e);
+        }
+    }
+
+    private Object convert(ConfigProperty property, Type type) {
+        Optional<String> value = config(property.name());
+        if (value.isEmpty() && !ConfigProperty.UNCONFIGURED_VALUE.equals(property.defaultValue())) {
+            value = Optional.of(expand(property.defaultValue()));
+        }
+        if (type instanceof ParameterizedType generic && generic.getRawType() == Optional.class) {
+            Type element = generic.getActualTypeArguments()[0];
+            return value.map(v -> element instanceof ParameterizedType ? list(v) : v);
+        }
+        if (value.isEmpty()) {
+            if (type instanceof Class<?> c && c.isPrimitive()) {
+                throw new IllegalStateException("Missing config property " + property.name());
+            }
+            return null;
+        }
+        String text = value.get().trim();
+        if (type == String.class) {
+            return value.get();
+        } else if (type == int.class || type == Integer.class) {
+            return Integer.parseInt(text);
+        } else if (type == long.class || type == Long.class) {
+            return Long.parseLong(text);
+        } else if (type == double.class || type == Double.class) {
+            return Double.parseDouble(text);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.parseBoolean(text);
+        } else if (type instanceof Class<?> c && c.isEnum()) {
+            return enumValue(c, text);
+        } else if (type instanceof ParameterizedType generic && generic.getRawType() == List.class) {
+            return list(text);
+        }
+        throw new IllegalStateException("Cannot convert " + property.name() + " to " + type);
+    }
+
+    // Like Quarkus: case and dashes do not matter
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<?> type, String text) {
+        return Enum.valueOf((Class<? extends Enum>) type, text.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    private static List<String> list(String text) {
+        return Arrays.stream(text.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+
+    // ${name} and ${name:default}, looked up like any other property (and in the environment)
+    private String expand(String value) {
+        int start = value.indexOf("${");
+        if (start < 0) {
+            return value;
+        }
+        int end = value.indexOf('}', start);
+        if (end < 0) {
+            return value;
+        }
+        String expression = value.substring(start + 2, end);
+        int colon = expression.indexOf(':');
+        String name = colon >= 0 ? expression.substring(0, colon) : expression;
+        String fallback = colon >= 0 ? expression.substring(colon + 1) : "";
+        String resolved = config(name).orElseGet(() -> Optional.ofNullable(System.getenv(name)).orElse(fallback));
+        return value.substring(0, start) + resolved + expand(value.substring(end + 1));
+    }
+
+    private static Properties applicationProperties() {
+        Properties properties = new Properties();
+        try (InputStream in = SessionContainer.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read application.properties", e);
+        }
+        return properties;
+    }
+}
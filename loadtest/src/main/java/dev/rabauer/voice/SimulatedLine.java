@@ -0,0 +1,222 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A data line without hardware behind it: a clock that runs while the line is started and tells how many
+ * frames a real device would have captured or played by now, {@link #speed} times faster than real time.
+ * Blocking waits on that clock, so callers see the same pacing they would with a sound card. Locks, not
+ * monitors: playback writes on virtual threads.
+ */
+abstract class SimulatedLine implements DataLine {
+    // Applies to lines opened afterwards
+    static volatile double speed = 1;
+
+    // 24 kHz PCM16 mono, what Line.open() without a format opens
+    static final AudioFormat DEFAULT_FORMAT = new AudioFormat(24000f, 16, 1, true, false);
+    private static final int DEFAULT_BUFFER_MS = 500;
+
+    protected final ReentrantLock lock = new ReentrantLock();
+    // Signalled on start, stop, flush and close
+    protected final Condition changed = lock.newCondition();
+    private final DataLine.Info info;
+    protected AudioFormat format = DEFAULT_FORMAT;
+    protected int frameSize = DEFAULT_FORMAT.getFrameSize();
+    protected long bufferFrames;
+    protected boolean open = false;
+    protected boolean running = false;
+    // Bumped by stop, flush and close, so a blocked read or write can tell it should return early
+    protected long interruptions = 0;
+    private double framesPerNano;
+    // Frames counted up to the last start, stop or rebase, and the time the clock has run since
+    private long clockFrames = 0;
+    private long clockNanos;
+
+    SimulatedLine(DataLine.Info info) {
+        this.info = info;
+    }
+
+    /** Where the line is in the stream, in frames: captured for a microphone, played for a speaker. */
+    protected abstract long position();
+
+    @Override
+    public void open() {
+        openLine(DEFAULT_FORMAT, -1);
+    }
+
+    protected void openLine(AudioFormat format, int bufferBytes) {
+        if (!PcmFormatConverter.isPcm16le(format)) {
+            throw new IllegalArgumentException("Only 16-bit little-endian PCM is simulated, not " + format);
+        }
+        lock.lock();
+        try {
+            if (open) {
+                return;
+            }
+            this.format = format;
+            this.frameSize = format.getFrameSize();
+            this.framesPerNano = format.getSampleRate() * speed / 1e9;
+            long defaultFrames = (long) (format.getSampleRate() * DEFAULT_BUFFER_MS / 1000);
+            this.bufferFrames = bufferBytes > 0 ? Math.max(1, bufferBytes / frameSize) : defaultFrames;
+            clockFrames = 0;
+            open = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            open = false;
+            stopClock();
+            interruptions++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        lock.lock();
+        try {
+            if (open && !running) {
+                running = true;
+                clockNanos = System.nanoTime();
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void stop() {
+        lock.lock();
+        try {
+            stopClock();
+            interruptions++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Freezes the clock where the line is; a speaker's clock must not run past what it was given
+    private void stopClock() {
+        if (running) {
+            clockFrames = position();
+            running = false;
+        }
+    }
+
+    /** Frames the clock has counted; call with the lock held. */
+    protected long clock() {
+        return running ? clockFrames + (long) ((System.nanoTime() - clockNanos) * framesPerNano) : clockFrames;
+    }
+
+    /** Restarts the clock at {@code frames}, e.g. when a speaker that ran dry gets new data. */
+    protected void rebase(long frames) {
+        clockFrames = frames;
+        clockNanos = System.nanoTime();
+    }
+
+    /** Waits, with the lock held, until the clock has counted about {@code frames} more or the line changes. */
+    protected void awaitFrames(long frames) throws InterruptedException {
+        long nanos = running ? Math.max(100_000, (long) (frames / framesPerNano)) : TimeUnit.MILLISECONDS.toNanos(10);
+        changed.awaitNanos(nanos);
+    }
+
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return open;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return (int) bufferFrames * frameSize;
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public long getLongFramePosition() {
+        lock.lock();
+        try {
+            return position();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        return (long) (getLongFramePosition() * 1_000_000L / format.getSampleRate());
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line.Info getLineInfo() {
+        return info;
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Simulated lines have no controls");
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
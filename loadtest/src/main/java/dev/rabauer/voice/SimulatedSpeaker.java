@@ -0,0 +1,123 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A speaker that plays into the void at the pace of a real one: writes block while its buffer is full, the
+ * position advances only while it is started and has something to play, and {@link #drain()} waits for the
+ * queued audio to finish. A speaker that ran dry picks up when the next data arrives.
+ */
+class SimulatedSpeaker extends SimulatedLine implements SourceDataLine {
+    static final DoubleAdder playedSeconds = new DoubleAdder();
+
+    // Frames written since the line was opened, played or not
+    private long writtenFrames = 0;
+
+    SimulatedSpeaker(DataLine.Info info) {
+        super(info);
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, -1);
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        lock.lock();
+        try {
+            if (!open) {
+                writtenFrames = 0;
+            }
+            openLine(format, bufferSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected long position() {
+        return Math.min(writtenFrames, clock());
+    }
+
+    @Override
+    public int write(byte[] buffer, int offset, int length) {
+        long frames = length / frameSize;
+        lock.lock();
+        try {
+            if (running && clock() >= writtenFrames) {
+                rebase(writtenFrames);
+            }
+            long interrupted = interruptions;
+            long accepted = 0;
+            while (accepted < frames && open && interruptions == interrupted) {
+                long room = bufferFrames - (writtenFrames - position());
+                if (room > 0) {
+                    long n = Math.min(room, frames - accepted);
+                    writtenFrames += n;
+                    accepted += n;
+                } else {
+                    awaitFrames(Math.min(frames - accepted, bufferFrames / 4));
+                }
+            }
+            playedSeconds.add(accepted / format.getFrameRate());
+            return (int) accepted * frameSize;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void drain() {
+        lock.lock();
+        try {
+            long interrupted = interruptions;
+            while (open && interruptions == interrupted && position() < writtenFrames) {
+                awaitFrames(writtenFrames - position());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            writtenFrames = position();
+            rebase(writtenFrames);
+            interruptions++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (int) (bufferFrames - (writtenFrames - position())) * frameSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        lock.lock();
+        try {
+            return running && position() < writtenFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package dev.rabauer.voice;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How the {@link OpenAiStubServer} behaves, from {@code --name=value} options. Latencies are the time until
+ * the first byte of a response; every one of them gets a uniformly random jitter of up to {@code jitter-ms}
+ * either way. Audio is generated at {@code speech-ms-per-char} of speech per character of text and sent
+ * {@code audio-speedup} times faster than it plays.
+ */
+final class StubSettings {
+    int port = 0;
+    long sttLatencyMs = 300;
+    long chatLatencyMs = 400;
+    long ttsLatencyMs = 200;
+    long realtimeLatencyMs = 500;
+    long jitterMs = 50;
+    long tokenIntervalMs = 20;
+    int replyWords = 40;
+    int speechMsPerChar = 60;
+    double audioSpeedup = 4;
+    double errorRate = 0;
+    int errorStatus = 500;
+
+    static StubSettings from(Map<String, String> options) {
+        StubSettings settings = new StubSettings();
+        settings.port = (int) number(options, "port", settings.port);
+        settings.sttLatencyMs = number(options, "stt-latency-ms", settings.sttLatencyMs);
+        settings.chatLatencyMs = number(options, "chat-latency-ms", settings.chatLatencyMs);
+        settings.ttsLatencyMs = number(options, "tts-latency-ms", settings.ttsLatencyMs);
+        settings.realtimeLatencyMs = number(options, "realtime-latency-ms", settings.realtimeLatencyMs);
+        settings.jitterMs = number(options, "jitter-ms", settings.jitterMs);
+        settings.tokenIntervalMs = number(options, "token-interval-ms", settings.tokenIntervalMs);
+        settings.replyWords = (int) number(options, "reply-words", settings.replyWords);
+        settings.speechMsPerChar = (int) number(options, "speech-ms-per-char", settings.speechMsPerChar);
+        settings.audioSpeedup = fraction(options, "audio-speedup", settings.audioSpeedup);
+        settings.errorRate = fraction(options, "error-rate", settings.errorRate);
+        settings.errorStatus = (int) number(options, "error-status", settings.errorStatus);
+        return settings;
+    }
+
+    static long number(Map<String, String> options, String name, long defaultValue) {
+        String value = options.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    static double fraction(Map<String, String> options, String name, double defaultValue) {
+        String value = options.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    /** {@code latencyMs} with jitter, at least 1 ms (the shortest timer). */
+    long delay(long latencyMs) {
+        long jitter = jitterMs > 0 ? ThreadLocalRandom.current().nextLong(-jitterMs, jitterMs + 1) : 0;
+        return Math.max(1, latencyMs + jitter);
+    }
+
+    boolean injectError() {
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    static String usage() {
+        return """
+                  --port=0                   stub port (0: any free port)
+                  --stt-latency-ms=300       transcription request until the transcript
+                  --chat-latency-ms=400      chat request until the first token
+                  --tts-latency-ms=200       speech request until the first audio byte
+                  --realtime-latency-ms=500  response.create until the first audio delta
+                  --jitter-ms=50             random +/- added to every latency
+                  --token-interval-ms=20     time between streamed chat tokens
+                  --reply-words=40           words per chat reply
+                  --speech-ms-per-char=60    synthesized audio per character of text
+                  --audio-speedup=4          how much faster than real time audio is sent
+                  --error-rate=0             fraction of requests that fail
+                  --error-status=500         HTTP status of failed requests
+                """;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("latency stt %d / chat %d / tts %d / realtime %d ms +/- %d ms, %d words per reply "
+                        + "at %d ms per token, %d ms of speech per char sent %.1fx real time, error rate %.3f (HTTP %d)",
+                sttLatencyMs, chatLatencyMs, ttsLatencyMs, realtimeLatencyMs, jitterMs, replyWords, tokenIntervalMs,
+                speechMsPerChar, audioSpeedup, errorRate, errorStatus);
+    }
+}
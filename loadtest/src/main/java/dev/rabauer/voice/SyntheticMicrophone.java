@@ -0,0 +1,122 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.TargetDataLine;
+import java.util.Random;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A microphone that is always talking: 1.2 s of a voiced sound (a gliding pitch with two overtones and some
+ * noise) followed by 0.4 s of near silence, over and over, so voice activity detection finds speech and
+ * incremental transcription finds no pause long enough to cut at. Audio becomes readable at the pace a real
+ * device would capture it, and what is not read within the buffer is lost, as on a sound card.
+ */
+class SyntheticMicrophone extends SimulatedLine implements TargetDataLine {
+    static final DoubleAdder capturedSeconds = new DoubleAdder();
+
+    private final Random noise = new Random();
+    // Frames handed to the reader so far
+    private long readFrames = 0;
+
+    SyntheticMicrophone(DataLine.Info info) {
+        super(info);
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        openLine(format, -1);
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferSize) {
+        openLine(format, bufferSize);
+    }
+
+    @Override
+    protected long position() {
+        return clock();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int frames = length / frameSize;
+        lock.lock();
+        try {
+            long interrupted = interruptions;
+            // Blocks until the request is filled, unless the line is stopped or closed meanwhile
+            while (open && running && interruptions == interrupted && clock() - readFrames < frames) {
+                awaitFrames(frames - (clock() - readFrames));
+            }
+            long captured = clock();
+            if (captured - readFrames > bufferFrames) {
+                // Overrun: the oldest audio was overwritten before anyone read it
+                readFrames = captured - bufferFrames;
+            }
+            int n = (int) Math.min(frames, captured - readFrames);
+            generate(buffer, offset, readFrames, n);
+            readFrames += n;
+            capturedSeconds.add(n / format.getFrameRate());
+            return n * frameSize;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return (int) Math.min(bufferFrames, clock() - readFrames) * frameSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return isRunning();
+    }
+
+    @Override
+    public void drain() {
+        // Nothing is queued on the way in
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            readFrames = clock();
+            interruptions++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Frame i is a function of its time, so audio read after an overrun carries on where the clock is
+    private void generate(byte[] buffer, int offset, long firstFrame, int frames) {
+        double rate = format.getSampleRate();
+        int channels = format.getChannels();
+        for (int i = 0; i < frames; i++) {
+            double t = (firstFrame + i) / rate;
+            boolean voiced = t % 1.6 < 1.2;
+            // Pitch glides between 90 and 150 Hz; this is the integral of 2 pi times that pitch
+            double phase = 2 * Math.PI * 120 * t - 30 / 0.7 * Math.cos(2 * Math.PI * 0.7 * t);
+            double sample = voiced
+                    ? 6000 * Math.sin(phase) + 2500 * Math.sin(2 * phase) + 1200 * Math.sin(3 * phase)
+                    : 0;
+            sample += noise.nextGaussian() * (voiced ? 400 : 40);
+            short s = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            for (int c = 0; c < channels; c++) {
+                int at = offset + (i * channels + c) * 2;
+                buffer[at] = (byte) s;
+                buffer[at + 1] = (byte) (s >> 8);
+            }
+        }
+    }
+}
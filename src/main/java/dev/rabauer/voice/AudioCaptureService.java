@@ -1,16 +1,27 @@
 package dev.rabauer.voice;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import javax.sound.sampled.*;
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.net.http.HttpRequest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,11 +29,19 @@ import org.slf4j.LoggerFactory;
 @Singleton
 public class AudioCaptureService {
     private static final Logger log = LoggerFactory.getLogger(AudioCaptureService.class);
+    // 24kHz PCM16 mono, as required by the OpenAI Realtime API
+    private static final AudioFormat CAPTURE_FORMAT = new AudioFormat(24000f, 16, 1, true, false);
 
     private final AtomicBoolean recording = new AtomicBoolean(false);
-    private TargetDataLine line;
+    private CaptureSource source;
+    private CaptureRing armedRing;
     private Thread captureThread;
+    private TurnJob capturing;
     private RecorderListener listener;
+    // Turns from the start of their recording until their reply (if any) has played
+    private final Set<TurnJob> unfinished = ConcurrentHashMap.newKeySet();
+    // Completes once the latest realtime turn's audio is committed or dropped
+    private CompletableFuture<Void> realtimeCommitted = CompletableFuture.completedFuture(null);
 
     @Inject
     RealtimeOpenAIClient realtimeClient;
@@ -30,26 +49,120 @@ public class AudioCaptureService {
     LangchainAdapter langchainAdapter;
     @Inject
     TtsPlayer ttsPlayer;
+    @Inject
+    OpenAiHttpClient http;
+    @Inject
+    AudioDeviceRegistry devices;
+    @Inject
+    VoiceMetrics metrics;
+    @Inject
+    TurnPipeline pipeline;
 
     @ConfigProperty(name = "openai.api.key")
     String apiKey;
+    @ConfigProperty(name = "app.pipeline.mode", defaultValue = "whisper")
+    PipelineMode pipelineMode;
+    @ConfigProperty(name = "app.realtime.playbackBufferMs", defaultValue = "30000")
+    int realtimePlaybackBufferMs;
+    @ConfigProperty(name = "app.realtime.responseTimeoutMs", defaultValue = "60000")
+    long realtimeResponseTimeoutMs;
+    @ConfigProperty(name = "app.bargeIn.enabled", defaultValue = "true")
+    boolean bargeInEnabled;
     @ConfigProperty(name = "app.voice", defaultValue = "alloy")
     String voice;
     @ConfigProperty(name = "app.tts.url", defaultValue = "https://api.openai.com/v1/audio/speech")
     String ttsUrl;
+    @ConfigProperty(name = "app.tts.streaming", defaultValue = "true")
+    boolean ttsStreaming;
+    @ConfigProperty(name = "app.llm.streaming", defaultValue = "true")
+    boolean llmStreaming;
+    @ConfigProperty(name = "app.tts.chunk.minChars", defaultValue = "20")
+    int chunkMinChars;
+    @ConfigProperty(name = "app.tts.chunk.maxChars", defaultValue = "150")
+    int chunkMaxChars;
     @ConfigProperty(name = "app.whisper.url", defaultValue = "https://api.openai.com/v1/audio/transcriptions")
     String whisperUrl;
     @ConfigProperty(name = "app.audio.inputDevice")
     Optional<String> inputDeviceName;
+    @ConfigProperty(name = "app.audio.capture.periodMs", defaultValue = "85")
+    int capturePeriodMs;
+    @ConfigProperty(name = "app.audio.capture.lineBufferMs", defaultValue = "0")
+    int captureLineBufferMs;
+    // Captured buffers waiting for the encode stage before capture waits for it
+    @ConfigProperty(name = "app.pipeline.captureQueueChunks", defaultValue = "64")
+    int captureQueueChunks;
+    @ConfigProperty(name = "app.audio.armed.enabled", defaultValue = "false")
+    boolean armedEnabled;
+    @ConfigProperty(name = "app.audio.armed.preRollMs", defaultValue = "300")
+    int armedPreRollMs;
+    @ConfigProperty(name = "app.audio.armed.ringMs", defaultValue = "3000")
+    int armedRingMs;
+    @ConfigProperty(name = "app.stt.incremental.enabled", defaultValue = "false")
+    boolean incrementalEnabled;
+    @ConfigProperty(name = "app.stt.incremental.pauseMs", defaultValue = "700")
+    int incrementalPauseMs;
+    @ConfigProperty(name = "app.stt.incremental.minSegmentMs", defaultValue = "4000")
+    int incrementalMinSegmentMs;
+    @ConfigProperty(name = "app.stt.incremental.silenceThreshold", defaultValue = "600")
+    int incrementalSilenceThreshold;
+    @ConfigProperty(name = "app.llm.speculative.enabled", defaultValue = "false")
+    boolean speculativeEnabled;
+    @ConfigProperty(name = "app.stt.sampleRate", defaultValue = "16000")
+    int sttSampleRate;
+    @ConfigProperty(name = "app.audio.resampler.quality", defaultValue = "balanced")
+    PolyphaseResampler.Quality resamplerQuality;
+    @ConfigProperty(name = "app.stt.flac", defaultValue = "true")
+    boolean flacUpload;
+    @ConfigProperty(name = "app.vad.enabled", defaultValue = "false")
+    boolean vadEnabled;
+    @ConfigProperty(name = "app.vad.energyThreshold", defaultValue = "500")
+    int vadEnergyThreshold;
+    @ConfigProperty(name = "app.vad.zcrThreshold", defaultValue = "0.25")
+    double vadZcrThreshold;
+    @ConfigProperty(name = "app.vad.paddingMs", defaultValue = "200")
+    int vadPaddingMs;
+    @ConfigProperty(name = "app.vad.maxPauseMs", defaultValue = "600")
+    int vadMaxPauseMs;
+    @ConfigProperty(name = "app.vad.minSpeechMs", defaultValue = "150")
+    int vadMinSpeechMs;
 
     @PostConstruct
     public void init() {
-        // no-op for now
+        if (armedEnabled) {
+            arm();
+        }
+        if (speculativeEnabled && !incrementalEnabled) {
+            log.warn("Speculative replies start from incremental transcripts; set app.stt.incremental.enabled=true");
+        }
     }
 
-    public void setInputDevice(String deviceName) {
+    @PreDestroy
+    public synchronized void close() {
+        if (armedRing != null) {
+            armedRing.close();
+            armedRing = null;
+        }
+    }
+
+    public synchronized void setInputDevice(String deviceName) {
         this.inputDeviceName = Optional.ofNullable(deviceName);
         log.info("Input device changed to: {}", deviceName != null ? deviceName : "system default");
+        if (armedEnabled) {
+            // Re-open the armed line on the new device
+            close();
+            arm();
+        }
+    }
+
+    // Keeps the capture line open so recordings start without opening a device
+    private synchronized void arm() {
+        try {
+            TargetDataLine line = openCaptureLine(CAPTURE_FORMAT);
+            armedRing = new CaptureRing(line, Math.max(armedRingMs, armedPreRollMs + 1000), capturePeriodBytes());
+            log.info("Capture armed: microphone stays open, {} ms pre-roll", armedPreRollMs);
+        } catch (LineUnavailableException e) {
+            log.error("Failed to arm audio capture, recordings will open the line on demand", e);
+        }
     }
 
     public Optional<String> getInputDevice() {
@@ -64,210 +177,697 @@ public class AudioCaptureService {
         this.listener = listener;
     }
 
-    public synchronized void startRecording() {
+    public void startRecording() {
+        startRecording(System.nanoTime());
+    }
+
+    /**
+     * @param triggerNanos when recording was requested (e.g. the hotkey press), for latency logging
+     */
+    public synchronized void startRecording(long triggerNanos) {
         if (recording.get()) {
             log.warn("Already recording");
             return;
         }
+        if (bargeInEnabled) {
+            interruptTurns(triggerNanos);
+        }
+        TurnEvents.Turn turn = TurnEvents.begin(triggerNanos, pipelineMode);
 
-        AudioFormat format = new AudioFormat(24000f, 16, 1, true, false);
-        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
-
-        // List all available mixers/devices
-        log.info("Available audio input devices:");
-        Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-        Mixer selectedMixer = null;
-        
-        for (Mixer.Info mixerInfo : mixers) {
-            Mixer mixer = AudioSystem.getMixer(mixerInfo);
-            Line.Info[] targetLines = mixer.getTargetLineInfo();
-            if (targetLines.length > 0) {
-                log.info("  - {} ({})", mixerInfo.getName(), mixerInfo.getDescription());
-                
-                // Check if this is the configured device
-                if (inputDeviceName.isPresent() && 
-                    mixerInfo.getName().contains(inputDeviceName.get())) {
-                    selectedMixer = mixer;
-                    log.info("  --> Selected (matches configured device)");
+        // Open the connection to the STT endpoint (or the realtime socket) while the user is still talking
+        boolean realtime = pipelineMode == PipelineMode.REALTIME;
+        if (realtime) {
+            if (!realtimeClient.isConnected()) {
+                if (realtimeClient.wasConnected()) {
+                    metrics.retry("realtime.connect");
                 }
+                realtimeClient.connect().exceptionally(e -> {
+                    log.error("Failed to connect to OpenAI Realtime", e);
+                    return null;
+                });
             }
+        } else {
+            http.prewarm(whisperUrl);
         }
+        // Likewise the output line the reply will be played on
+        ttsPlayer.prepareOutput();
 
+        AudioFormat format = CAPTURE_FORMAT;
         try {
-            // Use selected mixer or default
-            if (selectedMixer != null && selectedMixer.isLineSupported(info)) {
-                line = (TargetDataLine) selectedMixer.getLine(info);
-                log.info("Using configured audio input device: {}", selectedMixer.getMixerInfo().getName());
+            // Armed: start from the ring, including audio from just before the hotkey; otherwise open the device now
+            if (armedRing != null) {
+                source = armedRing.openReader(armedPreRollMs);
             } else {
-                if (inputDeviceName.isPresent()) {
-                    log.warn("Configured input device '{}' not found or not supported, using system default", inputDeviceName.get());
-                }
-                line = (TargetDataLine) AudioSystem.getLine(info);
-                log.info("Using system default audio input device");
+                source = CaptureSource.of(openCaptureLine(format));
             }
-            
-            log.info("Line info: {}", line.getLineInfo());
-            line.open(format);
-            log.info("Line opened with buffer size: {} bytes", line.getBufferSize());
-            line.start();
-            log.info("Line started, capturing audio...");
+        } catch (LineUnavailableException e) {
+            log.error("Failed to acquire audio line", e);
+            endTurn(turn, "no audio line");
+            return;
+        }
 
-            recording.set(true);
-            if (listener != null) {
-                listener.onRecordingStarted();
+        TurnJob job = new TurnJob(turn, pipeline.nextSequence(), realtime, source, captureQueueChunks);
+        job.preRollMs = armedRing != null ? armedPreRollMs : 0;
+        job.recordingEvent.begin();
+        job.recordingData = new PcmRecording(format);
+        job.incremental = incrementalEnabled && !realtime
+                ? new IncrementalTranscriber(format, segment -> TurnEvents.callAs(turn, () -> transcribeSpeech(segment)),
+                        http.executor(),
+                        incrementalPauseMs, incrementalMinSegmentMs, incrementalSilenceThreshold)
+                : null;
+        if (job.incremental != null && speculativeEnabled) {
+            // Ask the LLM with what has been said so far; the reply is kept if that turns out to be everything
+            job.speculation = new SpeculativeReply(langchainAdapter, metrics, turn);
+            job.incremental.setOnStableTranscript(job.speculation::speculate);
+        }
+        // A whole-recording upload is trimmed, resampled to the STT rate and FLAC-encoded while capturing;
+        // incremental segments are prepared on their own. Realtime keeps the 24 kHz capture stream.
+        boolean uploadWhole = !realtime && job.incremental == null;
+        boolean resample = uploadWhole && sttSampleRate != (int) format.getSampleRate();
+        AudioFormat sttFormat = resample ? sttFormat() : format;
+        PcmRecording recordingData = job.recordingData;
+        PcmRecording speech = uploadWhole && (vadEnabled || resample) ? new PcmRecording(sttFormat) : recordingData;
+        FlacEncoder flac = uploadWhole && flacUpload ? new FlacEncoder(sttFormat) : null;
+        PcmRecording.ChunkConsumer encode = (data, offset, length) -> {
+            if (speech != recordingData) {
+                speech.append(data, offset, length);
             }
+            if (flac != null) {
+                flac.accept(data, offset, length);
+            }
+        };
+        job.speech = speech;
+        job.flac = flac;
+        job.upload = resample ? newSttResampler(format).into(encode) : encode;
+        job.vad = vadEnabled ? newVoiceActivityDetector(format, job.upload) : null;
+        if (realtime) {
+            // This turn's audio must not reach the input buffer before the previous turn's is committed
+            job.previousCommitted = realtimeCommitted;
+            realtimeCommitted = job.committed;
+        }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recording.set(true);
+        capturing = job;
+        unfinished.add(job);
+        if (listener != null) {
+            listener.onRecordingStarted();
+        }
+        // A platform thread: line reads block in native code and the armed ring waits on a monitor,
+        // both of which would pin a virtual thread to its carrier for the whole recording
+        captureThread = new Thread(() -> capture(job), "audio-capture");
+        captureThread.start();
+        submit(pipeline.encode(), job, () -> encode(job));
+        log.info("Recording started (turn {})", turn.id);
+    }
 
-            captureThread = new Thread(() -> {
-                byte[] buffer = new byte[4096];
-                int totalBytes = 0;
-                int nonZeroChunks = 0;
-                try {
-                    while (recording.get()) {
-                        int read = line.read(buffer, 0, buffer.length);
-                        if (read > 0) {
-                            totalBytes += read;
-                            out.write(buffer, 0, read);
-                            
-                            // Check if buffer contains non-zero data
-                            boolean hasData = false;
-                            for (int i = 0; i < read; i++) {
-                                if (buffer[i] != 0) {
-                                    hasData = true;
-                                    break;
-                                }
-                            }
-                            if (hasData) {
-                                nonZeroChunks++;
-                            }
+    // Capture: reads the line into fresh buffers and hands them to the encode stage, nothing else
+    private void capture(TurnJob job) {
+        byte[] buffer = new byte[capturePeriodBytes()];
+        boolean firstSample = true;
+        try {
+            while (true) {
+                int read = job.source.read(buffer, 0, buffer.length);
+                if (read < 0 || (read == 0 && job.stopRequested)) {
+                    break;
+                }
+                if (read > 0) {
+                    if (firstSample) {
+                        firstSample = false;
+                        long latency = System.nanoTime() - job.turn.triggerNanos;
+                        log.info("Hotkey to first sample: {} ms (pre-roll {} ms)", latency / 1_000_000, job.preRollMs);
+                        TurnEvents.FirstSampleEvent event = new TurnEvents.FirstSampleEvent();
+                        if (event.shouldCommit()) {
+                            event.turnId = job.turn.id;
+                            event.latency = latency;
+                            event.preRoll = job.preRollMs;
+                            event.commit();
                         }
                     }
-                    log.info("Captured {} bytes total, {} chunks had non-zero audio data", totalBytes, nonZeroChunks);
+                    // Hand the buffer over instead of copying it, then capture into a fresh one
+                    PcmChunk chunk = new PcmChunk(buffer, read);
+                    if (!job.captured.offer(chunk)) {
+                        log.warn("Encoding is falling behind capture ({} chunks queued)", job.captured.size());
+                        job.captured.put(chunk);
+                    }
+                    buffer = new byte[buffer.length];
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Capture interrupted, ending the recording");
+        }
+        TurnEvents.recordingStopped(job.turn);
+        job.recordingEvent.end();
+        try {
+            job.captured.put(END_OF_CAPTURE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                    // Save to WAV file first
-                    byte[] audioBytes = out.toByteArray();
-                    Path tmp = Files.createTempFile("recording-", ".wav");
+    // Encode stage: VAD, resampling, FLAC and the realtime uplink, chunk by chunk while the capture runs
+    private void encode(TurnJob job) throws Exception {
+        int totalBytes = 0;
+        int nonZeroChunks = 0;
+        PcmChunk chunk;
+        while ((chunk = job.captured.take()) != END_OF_CAPTURE) {
+            byte[] buffer = chunk.data();
+            int read = chunk.length();
+            totalBytes += read;
 
-                    try (ByteArrayInputStream bais = new ByteArrayInputStream(audioBytes)) {
-                        AudioInputStream ais = new AudioInputStream(bais, format, audioBytes.length / format.getFrameSize());
-                        AudioSystem.write(ais, AudioFileFormat.Type.WAVE, tmp.toFile());
-                    }
-                    log.info("Recording saved to {}", tmp);
+            // Check if buffer contains non-zero data
+            boolean hasData = false;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != 0) {
+                    hasData = true;
+                    break;
+                }
+            }
+            if (hasData) {
+                nonZeroChunks++;
+            }
 
-                    try {
-                        // Notify listener that recording stopped
-                        if (listener != null) {
-                            listener.onRecordingStopped(tmp.toFile());
-                        }
+            job.recordingData.append(buffer, 0, read);
+            if (job.vad != null) {
+                job.vad.accept(buffer, 0, read);
+            } else {
+                job.upload.accept(buffer, 0, read);
+            }
+            if (job.incremental != null) {
+                job.incremental.accept(buffer, read);
+            }
+            if (job.realtime) {
+                job.uplinkBacklog.add(chunk);
+                sendUplink(job);
+            }
+        }
+        log.info("Captured {} bytes total, {} chunks had non-zero audio data", totalBytes, nonZeroChunks);
+        if (job.vad != null) {
+            job.vad.finish();
+            log.info("Voice activity: {} ms of speech in {} ms of audio", job.vad.speechMs(), job.recordingData.durationMs());
+        }
+        if (job.flac != null) {
+            job.flac.finish();
+            log.info("FLAC: {} bytes for {} bytes of PCM", job.flac.byteLength(), job.speech.byteLength());
+        }
+        if (job.recordingEvent.shouldCommit()) {
+            job.recordingEvent.turnId = job.turn.id;
+            job.recordingEvent.audio = job.recordingData.durationMs();
+            job.recordingEvent.bytes = job.recordingData.byteLength();
+            job.recordingEvent.speech = job.vad != null ? job.vad.speechMs() : job.recordingData.durationMs();
+            job.recordingEvent.commit();
+        }
 
-                        // Notify processing started (transcription, AI, TTS)
-                        if (listener != null) {
-                            listener.onProcessingStarted();
-                        }
+        // Notify listener that recording stopped
+        if (listener != null) {
+            listener.onRecordingStopped(job.recordingData);
+        }
 
-                        // Transcribe using Whisper API
-                        log.info("Transcribing audio with Whisper API...");
-                        String transcript = transcribeWithWhisper(tmp);
-                        log.info("=== USER INPUT TRANSCRIPT ===");
-                        log.info("You said: {}", transcript);
-
-                        // Process with LangChain4j
-                        String llmResponse = langchainAdapter.processTranscript(transcript);
-                        
-                        // Convert to speech and play
-                        byte[] audioData = ttsPlayer.requestTtsWav(ttsUrl, apiKey, llmResponse, voice);
-                        ttsPlayer.playWav(audioData);
-
-                        // Notify processing finished
-                        if (listener != null) {
-                            listener.onProcessingFinished();
-                        }
-                    } catch (Exception e) {
-                        log.error("Error processing audio with Whisper/LLM/TTS", e);
-                        // Notify processing finished even on error
-                        if (listener != null) {
-                            listener.onProcessingFinished();
-                        }
+        if (job.vad != null && !job.vad.hasSpeech()) {
+            // Nothing was said: don't upload, transcribe or answer silence. A quiet speaker looks the same,
+            // so say what would have counted as speech
+            log.warn("No speech detected in {} ms, skipping the turn (loudest frame RMS {}, app.vad.energyThreshold {})",
+                    job.recordingData.durationMs(), job.vad.peakRms(), vadEnergyThreshold);
+            deliver(job, null, "no speech");
+            return;
+        }
+
+        // Notify processing started (transcription, AI, TTS)
+        job.processing = true;
+        if (listener != null) {
+            listener.onProcessingStarted();
+        }
+
+        if (job.realtime) {
+            sendUplink(job);
+            deliver(job, () -> respondRealtime(job), "answered");
+        } else {
+            submit(pipeline.stt(), job, () -> transcribe(job));
+        }
+    }
+
+    // STT stage
+    private void transcribe(TurnJob job) {
+        // Warm the LLM and TTS endpoints while transcription is in flight
+        http.prewarm(langchainAdapter.getBaseUrl(), ttsUrl);
+
+        // Transcribe using Whisper API; in incremental mode earlier segments are already in flight
+        String transcript;
+        if (job.incremental != null) {
+            log.info("Transcribing last segment with Whisper API...");
+            transcript = job.incremental.finish();
+        } else {
+            log.info("Transcribing {} ms of audio with Whisper API...", job.speech.durationMs());
+            transcript = job.flac != null ? transcribeWithWhisper(job.flac) : transcribeWithWhisper(job.speech);
+        }
+        log.info("=== USER INPUT TRANSCRIPT ===");
+        log.info("You said: {}", transcript);
+        submit(pipeline.llm(), job, () -> respond(job, transcript));
+    }
+
+    // LLM stage; synthesis of the reply starts here, on the TTS stage, and is played once earlier replies are done
+    private void respond(TurnJob job, String transcript) throws Exception {
+        job.transcript = transcript;
+        if (!llmStreaming && !ttsStreaming) {
+            // Process with LangChain4j, then synthesize the whole reply as WAV
+            CompletableFuture<String> speculated = adoptSpeculation(job, transcript, null);
+            String llmResponse = speculated != null ? speculated.join() : langchainAdapter.processTranscript(transcript);
+            submit(pipeline.tts(), job, () -> {
+                byte[] audioData = ttsPlayer.requestTtsWav(ttsUrl, apiKey, llmResponse, voice);
+                deliver(job, () -> {
+                    double heard = ttsPlayer.playWav(audioData);
+                    job.heard = job.turn.cancellation.isCancelled() ? TtsPlayer.heardPart(llmResponse, heard) : null;
+                }, "answered");
+            });
+            return;
+        }
+        SentenceSpeaker speaker = ttsPlayer.newSentenceSpeaker(ttsUrl, apiKey, voice);
+        deliver(job, () -> {
+            speaker.playOn(ttsPlayer.openStreamPlayer());
+            job.heard = job.turn.cancellation.isCancelled() ? speaker.heardText() : null;
+        }, "answered");
+        try {
+            if (llmStreaming) {
+                // Speak each sentence as soon as the LLM has produced it
+                SentenceChunker chunker = new SentenceChunker(speaker::speak, chunkMinChars, chunkMaxChars);
+                CompletableFuture<String> reply = adoptSpeculation(job, transcript, chunker::accept);
+                if (reply == null) {
+                    reply = langchainAdapter.streamTranscript(transcript, chunker::accept);
+                }
+                reply.join();
+                chunker.flush();
+            } else {
+                // Stream the whole reply as PCM and play it while it downloads
+                CompletableFuture<String> speculated = adoptSpeculation(job, transcript, null);
+                speaker.speak(speculated != null ? speculated.join() : langchainAdapter.processTranscript(transcript));
+            }
+        } finally {
+            speaker.finish();
+        }
+    }
+
+    // The reply speculated while recording, if it answers the final transcript; null to ask the LLM now
+    private CompletableFuture<String> adoptSpeculation(TurnJob job, String transcript, Consumer<String> onToken) {
+        return job.speculation != null ? job.speculation.adopt(transcript, onToken) : null;
+    }
+
+    // Playback stage: earlier turns' replies have finished, so this turn's audio can be committed and answered
+    private void respondRealtime(TurnJob job) throws Exception {
+        if (job.turn.cancellation.isCancelled()) {
+            releaseRealtimeInput(job);
+            return;
+        }
+        sendUplink(job);
+        if (!realtimeClient.isConnected()) {
+            if (!job.uplinkBacklog.isEmpty()) {
+                log.warn("Realtime socket never connected, {} audio chunks were not sent", job.uplinkBacklog.size());
+            }
+            throw new IllegalStateException("Realtime socket is not connected, cannot request a response");
+        }
+        PcmStreamPlayer output = ttsPlayer.openStreamPlayer(realtimePlaybackBufferMs);
+        try {
+            CompletableFuture<Void> response = realtimeClient.requestSpokenResponse(output);
+            job.committed.complete(null);
+            // Runs before the player's own hook, so the played audio is measured before the line is flushed
+            TurnCancellation.Registration cancel = job.turn.cancellation.onCancel(
+                    () -> realtimeClient.cancelResponse(output.playedMs()));
+            try {
+                response.get(realtimeResponseTimeoutMs, TimeUnit.MILLISECONDS);
+            } finally {
+                cancel.close();
+            }
+        } finally {
+            output.finish();
+            output.awaitCompletion();
+        }
+    }
+
+    // Runs one step of a turn on a stage, as that turn; a step that fails or finds the turn interrupted ends it
+    private void submit(PipelineStage stage, TurnJob job, Step step) {
+        try {
+            stage.execute(() -> TurnEvents.runAs(job.turn, () -> {
+                if (job.turn.cancellation.isCancelled()) {
+                    // Capture may be waiting for room that an encode step that never ran would have made
+                    job.captured.clear();
+                    deliver(job, null, "interrupted");
+                    return;
+                }
+                try {
+                    step.run();
+                } catch (Exception e) {
+                    if (job.turn.cancellation.isCancelled()) {
+                        Thread.interrupted();
+                        log.info("Turn {} interrupted in the {} stage", job.turn.id, stage.name());
+                        deliver(job, null, "interrupted");
+                        return;
                     }
+                    log.error("Turn {} failed in the {} stage", job.turn.id, stage.name(), e);
+                    job.failed = true;
+                    deliver(job, null, "failed");
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            log.error("Turn {} could not enter the {} stage", job.turn.id, stage.name(), e);
+            job.failed = true;
+            deliver(job, null, "failed");
+        }
+    }
 
-                } catch (IOException e) {
-                    log.error("Error while recording", e);
+    /**
+     * Hands the turn to the playback stage, which plays {@code reply} (if any) once the turns recorded before
+     * it are done, then ends the turn. Only the first call counts.
+     */
+    private void deliver(TurnJob job, Step reply, String outcome) {
+        if (!job.delivered.compareAndSet(false, true)) {
+            return;
+        }
+        job.outcome = outcome;
+        if (reply == null && job.realtime) {
+            releaseRealtimeInput(job);
+        }
+        Runnable play = reply == null ? null : () -> TurnEvents.runAs(job.turn, () -> {
+            try {
+                reply.run();
+            } catch (Exception e) {
+                if (job.turn.cancellation.isCancelled()) {
+                    Thread.interrupted();
+                    return;
                 }
-            }, "audio-capture");
+                log.error("Error processing audio with Whisper/LLM/TTS", e);
+                job.failed = true;
+            }
+        });
+        pipeline.play(job.sequence, play, () -> finishTurn(job));
+    }
 
-            captureThread.start();
-            log.info("Recording started");
-        } catch (LineUnavailableException e) {
-            log.error("Failed to acquire audio line", e);
+    private void finishTurn(TurnJob job) {
+        job.committed.complete(null);
+        if (job.speculation != null) {
+            // A turn that failed or was interrupted before asking the LLM leaves its speculation running
+            job.speculation.cancel();
+        }
+        boolean interrupted = job.turn.cancellation.isCancelled();
+        if (interrupted && job.transcript != null && !job.transcript.isBlank() && job.heard != null) {
+            // Context memory keeps only what was heard, so the next question follows on from that
+            langchainAdapter.replyInterrupted(job.turn, job.transcript, job.heard);
+        }
+        unfinished.remove(job);
+        // Notify processing finished, also on error
+        if (listener != null) {
+            listener.onProcessingFinished();
         }
+        endTurn(job.turn, job.failed ? "failed" : interrupted ? "interrupted" : job.outcome);
     }
 
-    private String transcribeWithWhisper(Path audioFile) {
+    // Barge-in: a new recording stops earlier replies mid-sentence and drops whatever they still had in flight
+    private void interruptTurns(long triggerNanos) {
+        for (TurnJob job : unfinished) {
+            boolean audible = job.turn.firstSoundNanos > 0;
+            if (!job.turn.cancellation.cancel()) {
+                continue;
+            }
+            // Playback stops within cancel(): the line is stopped and flushed before it returns
+            long silence = System.nanoTime() - triggerNanos;
+            String stage = audible ? "playback" : "processing";
+            metrics.bargeIn(stage, audible ? silence : -1);
+            if (audible) {
+                log.info("Barge-in: turn {} interrupted, silent {} ms after the hotkey", job.turn.id,
+                        String.format("%.2f", silence / 1e6));
+            } else {
+                log.info("Barge-in: turn {} interrupted before its reply started", job.turn.id);
+            }
+            TurnEvents.BargeInEvent event = new TurnEvents.BargeInEvent();
+            if (event.shouldCommit()) {
+                event.turnId = job.turn.id;
+                event.stage = stage;
+                event.cancelToSilence = audible ? silence : 0;
+                event.commit();
+            }
+        }
+    }
+
+    // A realtime turn that will not be answered: drop its audio so the next turn starts with an empty buffer
+    private void releaseRealtimeInput(TurnJob job) {
+        if (job.uplinkStarted) {
+            realtimeClient.clearInputBuffer();
+        }
+        job.uplinkBacklog.clear();
+        job.committed.complete(null);
+    }
+
+    private TargetDataLine openCaptureLine(AudioFormat format) throws LineUnavailableException {
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+
+        // Devices come from the registry's cached scan, not from enumerating mixers per recording
+        TargetDataLine line = null;
+        Optional<Mixer> selectedMixer = inputDeviceName.flatMap(name -> devices.captureMixer(name, format));
+        if (selectedMixer.isPresent()) {
+            try {
+                line = (TargetDataLine) selectedMixer.get().getLine(info);
+                log.info("Using configured audio input device: {}", selectedMixer.get().getMixerInfo().getName());
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                log.warn("Configured input device '{}' failed to open, using system default", inputDeviceName.get(), e);
+                devices.refreshAsync();
+            }
+        } else if (inputDeviceName.isPresent()) {
+            log.warn("Configured input device '{}' not found or not supported, using system default", inputDeviceName.get());
+        }
+        if (line == null) {
+            line = (TargetDataLine) AudioSystem.getLine(info);
+            log.info("Using system default audio input device");
+        }
+        
+        log.info("Line info: {}", line.getLineInfo());
+        if (captureLineBufferMs > 0) {
+            line.open(format, captureLineBufferMs * bytesPerMs(format));
+        } else {
+            line.open(format);
+        }
+        log.info("Line opened with buffer size: {} bytes", line.getBufferSize());
+        line.start();
+        log.info("Line started, capturing audio...");
+        return line;
+    }
+
+    // Bytes handed from the line to the pipeline per read, whole frames only
+    private int capturePeriodBytes() {
+        int bytes = Math.max(1, capturePeriodMs) * bytesPerMs(CAPTURE_FORMAT);
+        return bytes - bytes % CAPTURE_FORMAT.getFrameSize();
+    }
+
+    private static int bytesPerMs(AudioFormat format) {
+        return (int) (format.getFrameRate() * format.getFrameSize() / 1000);
+    }
+
+    private record PcmChunk(byte[] data, int length) {}
+
+    private static final PcmChunk END_OF_CAPTURE = new PcmChunk(new byte[0], 0);
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    /** What a turn carries from stage to stage. */
+    private static final class TurnJob {
+        final TurnEvents.Turn turn;
+        final long sequence;
+        final boolean realtime;
+        final CaptureSource source;
+        // Capture to encode
+        final BlockingQueue<PcmChunk> captured;
+        final TurnEvents.RecordingEvent recordingEvent = new TurnEvents.RecordingEvent();
+        long preRollMs;
+        PcmRecording recordingData;
+        PcmRecording speech;
+        FlacEncoder flac;
+        PcmRecording.ChunkConsumer upload;
+        VoiceActivityDetector vad;
+        IncrementalTranscriber incremental;
+        SpeculativeReply speculation;
+        // What the user asked and, if the reply was interrupted, what they heard of it (null: all of it)
+        volatile String transcript;
+        volatile String heard = "";
+        // Realtime: chunks waiting for the socket (or for the previous turn's commit), and that commit
+        final Deque<PcmChunk> uplinkBacklog = new ArrayDeque<>();
+        boolean uplinkStarted = false;
+        CompletableFuture<Void> previousCommitted = CompletableFuture.completedFuture(null);
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+        final AtomicBoolean delivered = new AtomicBoolean(false);
+        volatile boolean stopRequested = false;
+        volatile boolean processing = false;
+        volatile boolean failed = false;
+        volatile String outcome;
+
+        TurnJob(TurnEvents.Turn turn, long sequence, boolean realtime, CaptureSource source, int queueChunks) {
+            this.turn = turn;
+            this.sequence = sequence;
+            this.realtime = realtime;
+            this.source = source;
+            this.captured = new ArrayBlockingQueue<>(Math.max(1, queueChunks));
+        }
+    }
+
+    // Streams queued capture chunks to the realtime socket once it is connected and free for this turn
+    private void sendUplink(TurnJob job) {
+        if (!realtimeClient.isConnected() || !job.previousCommitted.isDone()) {
+            return;
+        }
+        PcmChunk chunk;
+        while ((chunk = job.uplinkBacklog.poll()) != null) {
+            realtimeClient.appendPcm16(chunk.data(), chunk.length());
+            job.uplinkStarted = true;
+        }
+    }
+
+    private AudioFormat sttFormat() {
+        return new AudioFormat(sttSampleRate, 16, 1, true, false);
+    }
+
+    private PolyphaseResampler newSttResampler(AudioFormat captureFormat) {
+        return new PolyphaseResampler((int) captureFormat.getSampleRate(), sttSampleRate, resamplerQuality);
+    }
+
+    private VoiceActivityDetector newVoiceActivityDetector(AudioFormat format, PcmRecording.ChunkConsumer speechOut) {
+        return new VoiceActivityDetector(format, vadEnergyThreshold, vadZcrThreshold,
+                vadPaddingMs, vadMaxPauseMs, vadMinSpeechMs, speechOut);
+    }
+
+    // Incremental segments are cut at pauses, so each one is trimmed (or dropped) and resampled on its own
+    private String transcribeSpeech(PcmRecording segment) {
+        PcmRecording speech = segment;
+        if (vadEnabled) {
+            speech = new PcmRecording(segment.format());
+            VoiceActivityDetector vad = newVoiceActivityDetector(segment.format(), speech::append);
+            vad.accept(segment);
+            vad.finish();
+            if (!vad.hasSpeech()) {
+                log.info("Skipping silent segment ({} ms)", segment.durationMs());
+                return "";
+            }
+        }
+        if (sttSampleRate != (int) speech.format().getSampleRate()) {
+            speech = newSttResampler(speech.format()).process(speech);
+        }
+        return transcribeWithWhisper(speech);
+    }
+
+    private String transcribeWithWhisper(PcmRecording audio) {
+        if (flacUpload) {
+            FlacEncoder flac = new FlacEncoder(audio.format());
+            flac.accept(audio);
+            flac.finish();
+            return transcribeWithWhisper(flac);
+        }
+        // Stream the generated WAV header and the capture buffers straight into the request body
+        return transcribeWithWhisper("audio.wav", "audio/wav", audio.wavPublishers());
+    }
+
+    private String transcribeWithWhisper(FlacEncoder flac) {
+        return transcribeWithWhisper("audio.flac", "audio/flac", flac.publishers());
+    }
+
+    private String transcribeWithWhisper(String fileName, String contentType, List<HttpRequest.BodyPublisher> file) {
+        TurnEvents.Turn turn = TurnEvents.current();
+        TurnEvents.TranscriptionEvent transcription = new TurnEvents.TranscriptionEvent();
+        transcription.begin();
+        TurnEvents.UploadEvent upload = new TurnEvents.UploadEvent();
+        upload.begin();
+        AtomicLong uploadedNanos = new AtomicLong();
+        long start = System.nanoTime();
         try {
-            var client = java.net.http.HttpClient.newHttpClient();
-            var boundary = "----Boundary" + System.currentTimeMillis();
-            
-            // Read audio file
-            byte[] audioBytes = Files.readAllBytes(audioFile);
-            
-            // Build multipart form data
-            var bodyBuilder = new StringBuilder();
-            bodyBuilder.append("--").append(boundary).append("\r\n");
-            bodyBuilder.append("Content-Disposition: form-data; name=\"file\"; filename=\"audio.wav\"\r\n");
-            bodyBuilder.append("Content-Type: audio/wav\r\n\r\n");
-            
-            var headerBytes = bodyBuilder.toString().getBytes();
-            var footerBytes = ("\r\n--" + boundary + "\r\n" +
-                             "Content-Disposition: form-data; name=\"model\"\r\n\r\n" +
-                             "whisper-1\r\n" +
-                             "--" + boundary + "--\r\n").getBytes();
-            
-            // Combine all parts
-            var bodyBytes = new byte[headerBytes.length + audioBytes.length + footerBytes.length];
-            System.arraycopy(headerBytes, 0, bodyBytes, 0, headerBytes.length);
-            System.arraycopy(audioBytes, 0, bodyBytes, headerBytes.length, audioBytes.length);
-            System.arraycopy(footerBytes, 0, bodyBytes, headerBytes.length + audioBytes.length, footerBytes.length);
-            
-            var request = java.net.http.HttpRequest.newBuilder()
-                    .uri(java.net.URI.create(whisperUrl))
+            var multipart = new MultipartBodyPublisher()
+                    .addFile("file", fileName, contentType, file)
+                    .addField("model", "whisper-1");
+            HttpRequest.BodyPublisher body = multipart.build(() -> {
+                long now = System.nanoTime();
+                uploadedNanos.set(now);
+                long bytes = file.stream().mapToLong(HttpRequest.BodyPublisher::contentLength).sum();
+                metrics.upload("whisper", contentType, bytes, now - start);
+                upload.end();
+                if (upload.shouldCommit()) {
+                    upload.turnId = turn.id;
+                    upload.format = contentType;
+                    upload.bytes = bytes;
+                    upload.commit();
+                }
+            });
+
+            var request = http.newRequest(whisperUrl)
                     .header("Authorization", "Bearer " + apiKey)
-                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                    .POST(java.net.http.HttpRequest.BodyPublishers.ofByteArray(bodyBytes))
+                    .header("Content-Type", multipart.contentType())
+                    .POST(body)
                     .build();
             
-            var response = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
+            var response = turn.cancellation.cancelling(
+                    http.client().sendAsync(request, java.net.http.HttpResponse.BodyHandlers.ofString())).join();
             
             if (response.statusCode() != 200) {
                 log.error("Whisper API error: {} - {}", response.statusCode(), response.body());
+                commitTranscription(transcription, turn, start, uploadedNanos.get(), null);
                 return "";
             }
             
             // Parse JSON response
             var mapper = new com.fasterxml.jackson.databind.ObjectMapper();
             var jsonNode = mapper.readTree(response.body());
-            return jsonNode.path("text").asText();
+            String transcript = jsonNode.path("text").asText();
+            commitTranscription(transcription, turn, start, uploadedNanos.get(), transcript);
+            return transcript;
             
         } catch (Exception e) {
+            if (turn.cancellation.isCancelled()) {
+                log.info("Transcription cancelled");
+                return "";
+            }
             log.error("Failed to transcribe with Whisper API", e);
+            commitTranscription(transcription, turn, start, uploadedNanos.get(), null);
             return "";
         }
     }
 
+    private void commitTranscription(TurnEvents.TranscriptionEvent event, TurnEvents.Turn turn, long startNanos,
+                                     long uploadedNanos, String transcript) {
+        metrics.transcription("whisper", System.nanoTime() - startNanos, transcript != null);
+        event.end();
+        if (event.shouldCommit()) {
+            event.turnId = turn.id;
+            event.afterUpload = uploadedNanos > 0 ? System.nanoTime() - uploadedNanos : 0;
+            event.transcriptChars = transcript != null ? transcript.length() : 0;
+            event.succeeded = transcript != null;
+            event.commit();
+        }
+    }
+
+    private void endTurn(TurnEvents.Turn turn, String outcome) {
+        TurnEvents.end(turn, outcome);
+        metrics.turn(turn, pipelineMode.name().toLowerCase(), outcome);
+    }
+
     public synchronized void stopRecording() {
         if (!recording.get()) {
             return;
         }
         recording.set(false);
-        if (line != null) {
-            line.stop();
-            line.close();
+        if (capturing != null) {
+            capturing.stopRequested = true;
+            capturing = null;
+        }
+        if (source != null) {
+            source.stop();
         }
         try {
+            // Only the capture loop: the turn is processed by the pipeline stages
             if (captureThread != null) {
                 captureThread.join(2000);
             }
         } catch (InterruptedException ignored) {}
-        log.info("Recording stopped");
+        log.info("Recording stopped; pipeline: {}", pipeline);
+    }
+
+    /**
+     * Whether a recorded turn is still being transcribed, answered or played.
+     */
+    public boolean isProcessing() {
+        return unfinished.stream().anyMatch(job -> job.processing);
     }
 }
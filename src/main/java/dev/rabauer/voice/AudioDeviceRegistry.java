@@ -0,0 +1,214 @@
+package dev.rabauer.voice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Enumerates audio devices off the hot path. Mixers, their line formats and line-support probes are
+ * cached and refreshed in the background on a timer, or on demand when a device seems to have gone away,
+ * so capture, playback and the tray menus never enumerate devices themselves.
+ */
+@Singleton
+public class AudioDeviceRegistry {
+    private static final Logger log = LoggerFactory.getLogger(AudioDeviceRegistry.class);
+
+    /** One mixer, whether it has capture (target) and playback (source) lines, and the formats they advertise. */
+    public record AudioDevice(Mixer.Info info, Mixer mixer, boolean canCapture, boolean canPlay,
+                              List<AudioFormat> captureFormats, List<AudioFormat> playbackFormats) {
+        public String name() {
+            return info.getName();
+        }
+    }
+
+    @ConfigProperty(name = "app.audio.devices.refreshMs", defaultValue = "15000")
+    long refreshMs;
+
+    private volatile List<AudioDevice> devices = List.of();
+    private volatile List<AudioFormat> defaultPlaybackFormats = List.of();
+    private final CompletableFuture<Void> firstScan = new CompletableFuture<>();
+    // "mixer name|line class|format" -> isLineSupported, valid for the current snapshot
+    private final Map<String, Boolean> lineSupport = new ConcurrentHashMap<>();
+    private final List<Consumer<List<AudioDevice>>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "audio-devices");
+            t.setDaemon(true);
+            return t;
+        });
+        refreshAsync();
+        if (refreshMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Current devices; waits for the first scan only if it has not finished yet.
+     */
+    public List<AudioDevice> devices() {
+        firstScan.join();
+        return devices;
+    }
+
+    public List<AudioDevice> captureDevices() {
+        return devices().stream().filter(AudioDevice::canCapture).toList();
+    }
+
+    public List<AudioDevice> playbackDevices() {
+        return devices().stream().filter(AudioDevice::canPlay).toList();
+    }
+
+    /**
+     * First playback device whose name contains {@code nameFragment}.
+     */
+    public Optional<AudioDevice> playbackDevice(String nameFragment) {
+        if (nameFragment == null || nameFragment.isBlank()) {
+            return Optional.empty();
+        }
+        return playbackDevices().stream().filter(d -> d.name().contains(nameFragment)).findFirst();
+    }
+
+    /**
+     * Formats advertised by the output lines the system default would choose from.
+     */
+    public List<AudioFormat> defaultPlaybackFormats() {
+        firstScan.join();
+        return defaultPlaybackFormats;
+    }
+
+    /**
+     * First capture mixer whose name contains {@code nameFragment} and that supports {@code format}.
+     */
+    public Optional<Mixer> captureMixer(String nameFragment, AudioFormat format) {
+        return findMixer(nameFragment, new DataLine.Info(TargetDataLine.class, format));
+    }
+
+    /**
+     * First playback mixer whose name contains {@code nameFragment} and that supports {@code format}.
+     */
+    public Optional<Mixer> playbackMixer(String nameFragment, AudioFormat format) {
+        return findMixer(nameFragment, new DataLine.Info(SourceDataLine.class, format));
+    }
+
+    /**
+     * Called with the new device list whenever a refresh finds devices added or removed.
+     */
+    public void addListener(Consumer<List<AudioDevice>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Device-change signal: schedules a re-scan, e.g. after opening a cached device failed.
+     */
+    public void refreshAsync() {
+        if (scheduler != null && refreshQueued.compareAndSet(false, true)) {
+            scheduler.execute(this::refresh);
+        }
+    }
+
+    private Optional<Mixer> findMixer(String nameFragment, DataLine.Info info) {
+        if (nameFragment == null || nameFragment.isBlank()) {
+            return Optional.empty();
+        }
+        for (AudioDevice device : devices()) {
+            if (device.name().contains(nameFragment) && isLineSupported(device.mixer(), info)) {
+                return Optional.of(device.mixer());
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean isLineSupported(Mixer mixer, DataLine.Info info) {
+        String key = mixer.getMixerInfo().getName() + '|' + info.getLineClass().getSimpleName() + '|' + info.getFormats()[0];
+        return lineSupport.computeIfAbsent(key, k -> mixer.isLineSupported(info));
+    }
+
+    private void refresh() {
+        refreshQueued.set(false);
+        try {
+            long start = System.nanoTime();
+            List<AudioDevice> scanned = new ArrayList<>();
+            for (Mixer.Info mixerInfo : AudioSystem.getMixerInfo()) {
+                Mixer mixer = AudioSystem.getMixer(mixerInfo);
+                Line.Info[] targetLines = mixer.getTargetLineInfo();
+                Line.Info[] sourceLines = mixer.getSourceLineInfo();
+                scanned.add(new AudioDevice(mixerInfo, mixer, targetLines.length > 0, sourceLines.length > 0,
+                        formats(targetLines), formats(sourceLines)));
+            }
+            defaultPlaybackFormats = formats(AudioSystem.getSourceLineInfo(new Line.Info(SourceDataLine.class)));
+            boolean changed = !names(scanned).equals(names(devices));
+            if (changed) {
+                lineSupport.clear();
+            }
+            devices = List.copyOf(scanned);
+            if (changed) {
+                logDevices(scanned, (System.nanoTime() - start) / 1_000_000);
+                if (firstScan.isDone()) {
+                    listeners.forEach(l -> l.accept(devices));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Audio device scan failed", e);
+        } finally {
+            firstScan.complete(null);
+        }
+    }
+
+    private static List<AudioFormat> formats(Line.Info[] lines) {
+        List<AudioFormat> formats = new ArrayList<>();
+        for (Line.Info line : lines) {
+            if (line instanceof DataLine.Info dataLine) {
+                formats.addAll(List.of(dataLine.getFormats()));
+            }
+        }
+        return List.copyOf(formats);
+    }
+
+    private static List<String> names(List<AudioDevice> devices) {
+        return devices.stream().map(AudioDevice::name).toList();
+    }
+
+    private static void logDevices(List<AudioDevice> devices, long scanMs) {
+        log.info("Audio devices (scanned in {} ms):", scanMs);
+        for (AudioDevice device : devices) {
+            if (device.canCapture() || device.canPlay()) {
+                log.info("  - {} ({}){}{}", device.name(), device.info().getDescription(),
+                        device.canCapture() ? " [input]" : "", device.canPlay() ? " [output]" : "");
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Keeps a capture line running ("armed") and writes its audio into a fixed-size circular buffer,
+ * so a recording can start instantly and even include audio from just before it was requested.
+ */
+public class CaptureRing implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CaptureRing.class);
+
+    private final TargetDataLine line;
+    private final int frameSize;
+    private final int bytesPerMs;
+    private final int periodBytes;
+    private final byte[] ring;
+    // Total bytes ever written; ring index is written % ring.length
+    private long written = 0;
+    private volatile boolean closed = false;
+    private final Thread thread;
+
+    /**
+     * @param line        an opened and started line, owned by the ring from now on
+     * @param ringMs      audio kept in the ring; bounds the pre-roll and how far a reader may fall behind
+     * @param periodBytes bytes read from the line per iteration
+     */
+    public CaptureRing(TargetDataLine line, int ringMs, int periodBytes) {
+        this.line = line;
+        this.frameSize = line.getFormat().getFrameSize();
+        this.bytesPerMs = Math.max(frameSize, (int) (line.getFormat().getFrameRate() * frameSize / 1000));
+        this.periodBytes = align(Math.max(frameSize, periodBytes));
+        this.ring = new byte[align(Math.max(this.periodBytes * 2, ringMs * bytesPerMs))];
+        this.thread = new Thread(this::captureLoop, "audio-armed");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts a recording {@code preRollMs} before now (as far as the ring reaches back).
+     */
+    public CaptureSource openReader(int preRollMs) {
+        synchronized (this) {
+            long start = Math.max(0, Math.max(written - ring.length + periodBytes, written - (long) preRollMs * bytesPerMs));
+            return new Reader(start - start % frameSize);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        line.stop();
+        line.close();
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void captureLoop() {
+        byte[] period = new byte[periodBytes];
+        while (!closed) {
+            int read = line.read(period, 0, period.length);
+            if (read <= 0) {
+                continue;
+            }
+            synchronized (this) {
+                int index = (int) (written % ring.length);
+                int first = Math.min(read, ring.length - index);
+                System.arraycopy(period, 0, ring, index, first);
+                System.arraycopy(period, first, ring, 0, read - first);
+                written += read;
+                notifyAll();
+            }
+        }
+        log.info("Armed capture closed");
+    }
+
+    private int align(int bytes) {
+        return bytes - bytes % frameSize;
+    }
+
+    private final class Reader implements CaptureSource {
+        private long position;
+        private long end = Long.MAX_VALUE;
+        private long skipped = 0;
+
+        Reader(long start) {
+            this.position = start;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            synchronized (CaptureRing.this) {
+                // Wait for a full read, unless the recording or the ring has ended
+                while (Math.min(written, end) - position < length && written < end && !closed) {
+                    try {
+                        CaptureRing.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return -1;
+                    }
+                }
+                if (written - position > ring.length) {
+                    // The reader fell behind by more than the ring holds; continue with the oldest audio left
+                    long newPosition = written - ring.length + periodBytes;
+                    skipped += newPosition - position;
+                    position = newPosition;
+                    log.warn("Armed capture reader fell behind, skipped {} bytes so far", skipped);
+                }
+                int n = (int) Math.min(length, Math.min(written, end) - position);
+                n -= n % frameSize;
+                if (n <= 0) {
+                    return -1;
+                }
+                int index = (int) (position % ring.length);
+                int first = Math.min(n, ring.length - index);
+                System.arraycopy(ring, index, buffer, offset, first);
+                System.arraycopy(ring, 0, buffer, offset + first, n - first);
+                position += n;
+                return n;
+            }
+        }
+
+        @Override
+        public void stop() {
+            synchronized (CaptureRing.this) {
+                end = written;
+                CaptureRing.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Where the capture loop reads microphone audio from: a line opened for one recording,
+ * or a reader over an armed {@link CaptureRing}.
+ */
+public interface CaptureSource {
+
+    /**
+     * Blocks until audio is available and returns the number of bytes read, or -1 once the source has ended.
+     */
+    int read(byte[] buffer, int offset, int length);
+
+    /**
+     * Ends the recording; audio captured up to now may still be read.
+     */
+    void stop();
+
+    /**
+     * A source that owns {@code line}: stopping it stops the line, reads then return what the line still
+     * buffers, and the line is closed once that is used up.
+     */
+    static CaptureSource of(TargetDataLine line) {
+        return new CaptureSource() {
+            private volatile boolean stopped = false;
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (!line.isOpen()) {
+                    return -1;
+                }
+                // Blocks for a full buffer while recording; once stopped, returns early with what is left
+                int read = line.read(buffer, offset, length);
+                if (read <= 0 && stopped) {
+                    line.close();
+                    return -1;
+                }
+                return read;
+            }
+
+            @Override
+            public void stop() {
+                stopped = true;
+                line.stop();
+            }
+        };
+    }
+}
@@ -0,0 +1,232 @@
+package dev.rabauer.voice;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.Tokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Conversation memory with a token budget. The last {@code keepTurns} turns are sent verbatim; older
+ * turns are folded into a rolling summary by a background task that runs between turns. Requests never
+ * wait for it: until a summary catches up, the oldest turns that do not fit the budget are simply left
+ * out of the request. Tokens are counted locally, once per message. With a {@link ConversationJournal},
+ * turns, summaries and clears are also journaled so a restart can pick up where the conversation was.
+ */
+public class ConversationHistory {
+    private static final Logger log = LoggerFactory.getLogger(ConversationHistory.class);
+
+    /** Condenses the previous summary and the given turns into a new summary. */
+    @FunctionalInterface
+    public interface Summarizer {
+        String summarize(String previousSummary, List<ChatMessage> turns) throws Exception;
+    }
+
+    private record Turn(UserMessage user, AiMessage reply, int tokens) {}
+
+    private final SystemMessage systemMessage;
+    private final int systemTokens;
+    private final Tokenizer tokenizer;
+    private final int maxTokens;
+    private final int keepTurns;
+    private final Summarizer summarizer;
+    private final Executor executor;
+    private final ConversationJournal journal;
+
+    private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+    private String summaryText;
+    private SystemMessage summary;
+    private int summaryTokens = 0;
+    private int turnTokens = 0;
+    // Bumped by clear() so a summary started before it is thrown away
+    private long generation = 0;
+    private boolean compacting = false;
+
+    /**
+     * @param maxTokens budget for the system prompt, summary, kept turns and the new user message
+     * @param keepTurns turns (user message plus reply) kept verbatim; older ones are summarized
+     * @param executor  runs the summarizer, off the request path
+     * @param journal   where changes are journaled, or null to keep the history in memory only
+     */
+    public ConversationHistory(String systemPrompt, Tokenizer tokenizer, int maxTokens, int keepTurns,
+                               Summarizer summarizer, Executor executor, ConversationJournal journal) {
+        this.systemMessage = new SystemMessage(systemPrompt);
+        this.tokenizer = tokenizer;
+        this.systemTokens = tokenizer.estimateTokenCountInMessage(systemMessage);
+        this.maxTokens = maxTokens;
+        this.keepTurns = Math.max(1, keepTurns);
+        this.summarizer = summarizer;
+        this.executor = executor;
+        this.journal = journal;
+    }
+
+    /**
+     * Resumes from what the journal had; summarizing starts right away if it does not fit the budget.
+     */
+    public synchronized void restore(ConversationJournal.Restored restored) {
+        if (restored.summary() != null) {
+            summaryText = restored.summary();
+            summary = new SystemMessage("Summary of the conversation so far:\n" + summaryText);
+            summaryTokens = tokenizer.estimateTokenCountInMessage(summary);
+        }
+        for (ConversationJournal.Turn turn : restored.turns()) {
+            UserMessage user = new UserMessage(turn.user());
+            AiMessage reply = new AiMessage(turn.reply());
+            int tokens = tokenizer.estimateTokenCountInMessage(user) + tokenizer.estimateTokenCountInMessage(reply);
+            turns.add(new Turn(user, reply, tokens));
+            turnTokens += tokens;
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Messages to send for a new user message: system prompt, summary, and as many of the most recent
+     * turns as fit the budget.
+     */
+    public synchronized List<ChatMessage> request(UserMessage userMessage) {
+        int budget = maxTokens - systemTokens - summaryTokens - tokenizer.estimateTokenCountInMessage(userMessage);
+        int included = 0;
+        int used = 0;
+        for (Iterator<Turn> it = turns.descendingIterator(); it.hasNext(); ) {
+            Turn turn = it.next();
+            if (used + turn.tokens() > budget && included > 0) {
+                break;
+            }
+            used += turn.tokens();
+            included++;
+        }
+        if (included < turns.size()) {
+            log.info("History over budget, sending only the last {} of {} turns until the summary catches up",
+                    included, turns.size());
+        }
+
+        List<ChatMessage> messages = new ArrayList<>(2 + 2 * included + 1);
+        messages.add(systemMessage);
+        if (summary != null) {
+            messages.add(summary);
+        }
+        int skip = turns.size() - included;
+        for (Turn turn : turns) {
+            if (skip-- > 0) {
+                continue;
+            }
+            messages.add(turn.user());
+            messages.add(turn.reply());
+        }
+        messages.add(userMessage);
+        return messages;
+    }
+
+    /**
+     * Records a finished turn and, if the verbatim part has grown too long, starts summarizing in the background.
+     */
+    public synchronized void addTurn(UserMessage userMessage, AiMessage reply) {
+        int tokens = tokenizer.estimateTokenCountInMessage(userMessage) + tokenizer.estimateTokenCountInMessage(reply);
+        turns.add(new Turn(userMessage, reply, tokens));
+        turnTokens += tokens;
+        if (journal != null) {
+            journal.appendTurn(userMessage.singleText(), reply.text());
+        }
+        log.info("Conversation history: {} turns, ~{} tokens (summary ~{})", turns.size(), turnTokens, summaryTokens);
+        compactIfNeeded();
+    }
+
+    /**
+     * Replaces the reply of the latest turn, e.g. with the part of it the user heard before interrupting.
+     */
+    public synchronized void reviseLastReply(AiMessage reply) {
+        // Never summarized yet: compaction always leaves the latest turn verbatim
+        Turn last = turns.pollLast();
+        if (last == null) {
+            return;
+        }
+        int tokens = tokenizer.estimateTokenCountInMessage(last.user()) + tokenizer.estimateTokenCountInMessage(reply);
+        turns.add(new Turn(last.user(), reply, tokens));
+        turnTokens += tokens - last.tokens();
+        if (journal != null) {
+            journal.appendRevision(reply.text());
+        }
+    }
+
+    public synchronized void clear() {
+        turns.clear();
+        turnTokens = 0;
+        summaryText = null;
+        summary = null;
+        summaryTokens = 0;
+        generation++;
+        if (journal != null) {
+            journal.appendClear();
+        }
+    }
+
+    // Summarizes the turns beyond keepTurns, plus older kept turns while the rest still exceeds the budget
+    private void compactIfNeeded() {
+        if (compacting) {
+            return;
+        }
+        int budget = maxTokens - systemTokens - summaryTokens;
+        int count = 0;
+        int remainingTokens = turnTokens;
+        for (Turn turn : turns) {
+            if (turns.size() - count <= 1 || (turns.size() - count <= keepTurns && remainingTokens <= budget)) {
+                break;
+            }
+            remainingTokens -= turn.tokens();
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        List<ChatMessage> toSummarize = new ArrayList<>(2 * count);
+        Iterator<Turn> it = turns.iterator();
+        for (int i = 0; i < count; i++) {
+            Turn turn = it.next();
+            toSummarize.add(turn.user());
+            toSummarize.add(turn.reply());
+        }
+        String previous = summaryText;
+        long startedGeneration = generation;
+        int summarized = count;
+        compacting = true;
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            String text = null;
+            try {
+                text = summarizer.summarize(previous, toSummarize);
+            } catch (Exception e) {
+                log.warn("Summarizing conversation history failed, keeping turns verbatim", e);
+            }
+            finishCompaction(text, summarized, startedGeneration, (System.nanoTime() - start) / 1_000_000);
+        });
+    }
+
+    private synchronized void finishCompaction(String text, int summarized, long startedGeneration, long elapsedMs) {
+        compacting = false;
+        if (text == null || text.isBlank() || startedGeneration != generation) {
+            return;
+        }
+        for (int i = 0; i < summarized; i++) {
+            turnTokens -= turns.poll().tokens();
+        }
+        summaryText = text.strip();
+        summary = new SystemMessage("Summary of the conversation so far:\n" + summaryText);
+        summaryTokens = tokenizer.estimateTokenCountInMessage(summary);
+        if (journal != null) {
+            journal.appendSummary(summaryText, turns.size());
+        }
+        log.info("Summarized {} older turns into ~{} tokens in {} ms; {} turns kept verbatim (~{} tokens)",
+                summarized, summaryTokens, elapsedMs, turns.size(), turnTokens);
+        // Turns may have been added meanwhile
+        compactIfNeeded();
+    }
+}
@@ -0,0 +1,295 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the conversation, so context survives a restart. Each entry is a completed
+ * turn, a revised reply to the latest turn, a new rolling summary or a clear, written as
+ * {@code [length][type][payload][crc32][length][magic]}. The trailer makes the file readable from the
+ * end: restoring maps only as much of the tail as the entries it needs, however long the journal is.
+ * Appends are queued and written by a background thread that fsyncs at most every {@code syncMs}.
+ */
+public class ConversationJournal implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ConversationJournal.class);
+
+    private static final int MAGIC = 0x4A524E4C;   // "JRNL"
+    private static final int HEADER_BYTES = 5;     // length, type
+    private static final int TRAILER_BYTES = 12;   // crc, length, magic
+    private static final int INITIAL_TAIL_BYTES = 64 * 1024;
+
+    private static final byte TURN = 1;
+    private static final byte SUMMARY = 2;
+    private static final byte CLEAR = 3;
+    private static final byte REVISION = 4;
+
+    /** A user message and the reply to it. */
+    public record Turn(String user, String reply) {}
+
+    /**
+     * What a restart needs: the latest summary (or null) and the turns after it, oldest first.
+     */
+    public record Restored(String summary, List<Turn> turns) {}
+
+    private record Entry(byte type, String first, String second, int number) {}
+
+    private static final Entry STOP = new Entry((byte) 0, null, null, 0);
+
+    private final Path path;
+    private final long syncMs;
+    private final FileChannel channel;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Opens (or creates) the journal. A torn entry left at the end by a crash is cut off.
+     */
+    public ConversationJournal(Path path, long syncMs) throws IOException {
+        this.path = path;
+        this.syncMs = syncMs;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end = lastValidEnd();
+        if (end < channel.size()) {
+            log.warn("Journal {} ends in an incomplete entry, truncating {} bytes", path, channel.size() - end);
+            channel.truncate(end);
+        }
+        channel.position(end);
+        this.writer = new Thread(this::writeLoop, "conversation-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void appendTurn(String user, String reply) {
+        queue.add(new Entry(TURN, user, reply, 0));
+    }
+
+    /**
+     * Replaces the reply of the latest turn, e.g. with the part of it the user heard before interrupting.
+     */
+    public void appendRevision(String reply) {
+        queue.add(new Entry(REVISION, reply, null, 0));
+    }
+
+    /**
+     * Records a new rolling summary; {@code keptTurns} turns written before it are not part of it.
+     */
+    public void appendSummary(String summary, int keptTurns) {
+        queue.add(new Entry(SUMMARY, summary, null, keptTurns));
+    }
+
+    public void appendClear() {
+        queue.add(new Entry(CLEAR, null, null, 0));
+    }
+
+    /**
+     * Reads back the state to resume with, walking entries from the end of the file: turns up to the
+     * latest summary plus the turns that summary left verbatim, stopping at a clear or after
+     * {@code maxTurns} turns. Call before appending.
+     */
+    public Restored restore(int maxTurns) throws IOException {
+        long start = System.nanoTime();
+        long size = channel.size();
+        ArrayDeque<Turn> turns = new ArrayDeque<>();
+        String summary = null;
+        int stillNeeded = -1;   // turns before the summary that it did not cover; -1 until a summary is seen
+        String revision = null; // newest revised reply of the turn before it, until that turn is read
+
+        long windowBytes = Math.min(size, INITIAL_TAIL_BYTES);
+        MappedByteBuffer tail = windowBytes > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, size - windowBytes, windowBytes) : null;
+        long end = size;
+        int entries = 0;
+        while (end > 0 && turns.size() < maxTurns && stillNeeded != 0) {
+            if (end - TRAILER_BYTES < size - windowBytes) {
+                windowBytes = grow(windowBytes, size, TRAILER_BYTES + size - end);
+                tail = channel.map(FileChannel.MapMode.READ_ONLY, size - windowBytes, windowBytes);
+            }
+            int length = tail.getInt((int) (end - 8 - (size - windowBytes)));
+            long entryStart = end - TRAILER_BYTES - length - HEADER_BYTES;
+            if (entryStart < size - windowBytes) {
+                windowBytes = grow(windowBytes, size, size - entryStart);
+                tail = channel.map(FileChannel.MapMode.READ_ONLY, size - windowBytes, windowBytes);
+            }
+            int offset = (int) (entryStart - (size - windowBytes));
+            byte type = tail.get(offset + 4);
+            ByteBuffer payload = tail.slice(offset + HEADER_BYTES, length);
+            entries++;
+            end = entryStart;
+
+            if (type == CLEAR) {
+                break;
+            } else if (type == TURN) {
+                int userBytes = payload.getInt(0);
+                String reply = revision != null ? revision : utf8(payload, 4 + userBytes, length - 4 - userBytes);
+                turns.addFirst(new Turn(utf8(payload, 4, userBytes), reply));
+                revision = null;
+                if (stillNeeded > 0) {
+                    stillNeeded--;
+                }
+            } else if (type == REVISION && revision == null) {
+                revision = utf8(payload, 0, length);
+            } else if (type == SUMMARY && summary == null) {
+                summary = utf8(payload, 4, length - 4);
+                stillNeeded = payload.getInt(0);
+            }
+        }
+        log.info("Restored {} turns{} from journal {} ({} entries, {} of {} bytes mapped) in {} ms",
+                turns.size(), summary != null ? " and a summary" : "", path, entries, windowBytes, size,
+                (System.nanoTime() - start) / 1_000_000);
+        return new Restored(summary, new ArrayList<>(turns));
+    }
+
+    /**
+     * Writes what is queued, fsyncs and stops the writer.
+     */
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close journal {}", path, e);
+        }
+    }
+
+    private void writeLoop() {
+        long lastSync = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (true) {
+                // Wait for the next entry, but no longer than until the pending writes are due for an fsync
+                long untilSync = dirty ? Math.max(0, syncMs - (System.nanoTime() - lastSync) / 1_000_000) : Long.MAX_VALUE;
+                Entry entry = queue.poll(untilSync, TimeUnit.MILLISECONDS);
+                while (entry != null && entry != STOP) {
+                    write(entry);
+                    dirty = true;
+                    entry = queue.poll();
+                }
+                if (dirty && (entry == STOP || (System.nanoTime() - lastSync) / 1_000_000 >= syncMs)) {
+                    channel.force(false);
+                    lastSync = System.nanoTime();
+                    dirty = false;
+                }
+                if (entry == STOP) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Writing journal {} failed; conversation will not survive a restart", path, e);
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        byte[] first = entry.first() != null ? entry.first().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] second = entry.second() != null ? entry.second().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = switch (entry.type()) {
+            case TURN -> 4 + first.length + second.length;
+            case SUMMARY -> 4 + first.length;
+            case REVISION -> first.length;
+            default -> 0;
+        };
+        int total = HEADER_BYTES + length + TRAILER_BYTES;
+        if (buffer.capacity() < total) {
+            buffer = ByteBuffer.allocate(Math.max(total, 2 * buffer.capacity()));
+        }
+        buffer.clear();
+        buffer.putInt(length).put(entry.type());
+        if (entry.type() == TURN) {
+            buffer.putInt(first.length).put(first).put(second);
+        } else if (entry.type() == SUMMARY) {
+            buffer.putInt(entry.number()).put(first);
+        } else if (entry.type() == REVISION) {
+            buffer.put(first);
+        }
+        crc.reset();
+        crc.update(buffer.array(), 4, 1 + length);
+        buffer.putInt((int) crc.getValue()).putInt(length).putInt(MAGIC);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // End of the last entry whose trailer and checksum are intact, searching back from the end of the file
+    private long lastValidEnd() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        long windowBytes = Math.min(size, INITIAL_TAIL_BYTES);
+        while (true) {
+            MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, size - windowBytes, windowBytes);
+            long base = size - windowBytes;
+            for (long end = size; end - TRAILER_BYTES - HEADER_BYTES >= base; end--) {
+                int at = (int) (end - base);
+                if (tail.getInt(at - 4) != MAGIC) {
+                    continue;
+                }
+                int length = tail.getInt(at - 8);
+                long entryStart = end - TRAILER_BYTES - length - HEADER_BYTES;
+                if (length < 0 || entryStart < 0) {
+                    continue;
+                }
+                if (entryStart < base) {
+                    // Entry extends past the window; map enough of it to check
+                    ByteBuffer entry = channel.map(FileChannel.MapMode.READ_ONLY, entryStart, end - entryStart);
+                    if (isValid(entry, 0, length)) {
+                        return end;
+                    }
+                } else if (isValid(tail, (int) (entryStart - base), length)) {
+                    return end;
+                }
+            }
+            if (windowBytes == size) {
+                return 0;
+            }
+            windowBytes = grow(windowBytes, size, 2 * windowBytes);
+        }
+    }
+
+    private boolean isValid(ByteBuffer buffer, int offset, int length) {
+        if (buffer.getInt(offset) != length) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buffer.slice(offset + 4, 1 + length));
+        return (int) crc.getValue() == buffer.getInt(offset + HEADER_BYTES + length);
+    }
+
+    private static long grow(long windowBytes, long size, long atLeast) {
+        return Math.min(size, Math.max(2 * windowBytes, atLeast));
+    }
+
+    private static String utf8(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,464 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lossless FLAC encoder for 16-bit little-endian PCM, written for speech uploads rather than archiving:
+ * fixed-blocksize frames, fixed polynomial predictors (orders 0-4) and partitioned Rice residuals.
+ * Audio is encoded frame by frame as it is fed in, so only the last partial frame is left once capture ends.
+ */
+public class FlacEncoder {
+    private static final int BLOCK_SIZE = 4096;
+    private static final int MAX_PARTITION_ORDER = 6;
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int STREAMINFO_SIZE = 34;
+
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xff;
+            CRC16_TABLE[i] = crc16 & 0xffff;
+        }
+    }
+
+    private final AudioFormat format;
+    private final int channels;
+    private final int sampleRate;
+
+    // Deinterleaved samples of the block being filled
+    private final int[][] block;
+    private int blockFill = 0;
+    private int pendingLowByte = -1;
+    private int pendingChannel = 0;
+
+    // Work buffers, reused for every frame
+    private final int[] residual = new int[BLOCK_SIZE];
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final BitWriter frame = new BitWriter(BLOCK_SIZE * 4);
+
+    // Encoded frames, back to back
+    private byte[] frames = new byte[64 * 1024];
+    private int framesLength = 0;
+
+    private long frameNumber = 0;
+    private long totalSamples = 0;
+    private int minFrameSize = Integer.MAX_VALUE;
+    private int maxFrameSize = 0;
+    private boolean finished = false;
+
+    public FlacEncoder(AudioFormat format) {
+        if (format.getSampleSizeInBits() != BITS_PER_SAMPLE || format.isBigEndian()
+                || format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+            throw new IllegalArgumentException("FLAC encoder needs 16-bit signed little-endian PCM, got " + format);
+        }
+        this.format = format;
+        this.channels = format.getChannels();
+        this.sampleRate = (int) format.getSampleRate();
+        this.block = new int[channels][BLOCK_SIZE];
+    }
+
+    /**
+     * Feeds captured PCM; complete blocks are encoded right away. Samples may straddle calls.
+     */
+    public void accept(byte[] pcm, int offset, int length) {
+        if (finished) {
+            throw new IllegalStateException("Encoder already finished");
+        }
+        int i = offset;
+        int end = offset + length;
+        if (pendingLowByte >= 0 && i < end) {
+            addSample((short) (pendingLowByte | (pcm[i++] << 8)));
+            pendingLowByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            addSample((short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8)));
+        }
+        if (i < end) {
+            pendingLowByte = pcm[i] & 0xff;
+        }
+    }
+
+    public void accept(PcmRecording recording) {
+        recording.forEachChunk(this::accept);
+    }
+
+    /**
+     * Encodes the last partial block. The stream header is only complete after this.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        if (blockFill > 0) {
+            encodeFrame(blockFill);
+        }
+        finished = true;
+    }
+
+    public AudioFormat format() {
+        return format;
+    }
+
+    public long totalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * Size of the complete FLAC file in bytes.
+     */
+    public long byteLength() {
+        return streamHeader().length + framesLength;
+    }
+
+    /**
+     * Body publishers for the complete FLAC file: the stream header followed by the encoded frames.
+     */
+    public List<HttpRequest.BodyPublisher> publishers() {
+        finish();
+        return List.of(HttpRequest.BodyPublishers.ofByteArray(streamHeader()),
+                HttpRequest.BodyPublishers.ofByteArray(frames, 0, framesLength));
+    }
+
+    public byte[] toByteArray() {
+        finish();
+        byte[] header = streamHeader();
+        byte[] file = Arrays.copyOf(header, header.length + framesLength);
+        System.arraycopy(frames, 0, file, header.length, framesLength);
+        return file;
+    }
+
+    private void addSample(short sample) {
+        block[pendingChannel][blockFill] = sample;
+        if (++pendingChannel == channels) {
+            pendingChannel = 0;
+            if (++blockFill == BLOCK_SIZE) {
+                encodeFrame(BLOCK_SIZE);
+            }
+        }
+    }
+
+    // "fLaC" plus a single STREAMINFO block; the MD5 signature is left zero ("not computed")
+    private byte[] streamHeader() {
+        BitWriter header = new BitWriter(4 + 4 + STREAMINFO_SIZE);
+        header.write(0x664C6143, 32);                 // "fLaC"
+        header.write(1, 1);                           // last metadata block
+        header.write(0, 7);                           // STREAMINFO
+        header.write(STREAMINFO_SIZE, 24);
+        header.write(BLOCK_SIZE, 16);                 // min block size
+        header.write(BLOCK_SIZE, 16);                 // max block size
+        header.write(maxFrameSize == 0 ? 0 : minFrameSize, 24);
+        header.write(maxFrameSize, 24);
+        header.write(sampleRate, 20);
+        header.write(channels - 1, 3);
+        header.write(BITS_PER_SAMPLE - 1, 5);
+        header.write(totalSamples >>> 32, 4);
+        header.write(totalSamples & 0xffffffffL, 32);
+        for (int i = 0; i < 4; i++) {
+            header.write(0, 32);                      // MD5
+        }
+        return header.toByteArray();
+    }
+
+    private void encodeFrame(int blockSize) {
+        frame.reset();
+        writeFrameHeader(blockSize);
+        for (int ch = 0; ch < channels; ch++) {
+            writeSubframe(block[ch], blockSize);
+        }
+        frame.alignToByte();
+        frame.write(crc16(frame.buffer(), frame.byteLength()), 16);
+
+        int size = frame.byteLength();
+        if (framesLength + size > frames.length) {
+            frames = Arrays.copyOf(frames, Math.max(framesLength + size, frames.length * 2));
+        }
+        System.arraycopy(frame.buffer(), 0, frames, framesLength, size);
+        framesLength += size;
+        minFrameSize = Math.min(minFrameSize, size);
+        maxFrameSize = Math.max(maxFrameSize, size);
+        totalSamples += blockSize;
+        frameNumber++;
+        blockFill = 0;
+    }
+
+    private void writeFrameHeader(int blockSize) {
+        frame.write(0x3FFE, 14);                      // sync code
+        frame.write(0, 1);                            // reserved
+        frame.write(0, 1);                            // fixed blocksize stream
+        frame.write(blockSize == BLOCK_SIZE ? 0b1100 : 0b0111, 4);
+        frame.write(sampleRateCode(), 4);
+        frame.write(channels - 1, 4);                 // independent channels
+        frame.write(0b100, 3);                        // 16 bits per sample
+        frame.write(0, 1);                            // reserved
+        writeUtf8(frameNumber);
+        if (blockSize != BLOCK_SIZE) {
+            frame.write(blockSize - 1, 16);
+        }
+        frame.write(crc8(frame.buffer(), frame.byteLength()), 8);
+    }
+
+    private int sampleRateCode() {
+        return switch (sampleRate) {
+            case 8000 -> 0b0100;
+            case 16000 -> 0b0101;
+            case 22050 -> 0b0110;
+            case 24000 -> 0b0111;
+            case 32000 -> 0b1000;
+            case 44100 -> 0b1001;
+            case 48000 -> 0b1010;
+            case 96000 -> 0b1011;
+            default -> 0b0000;                        // taken from STREAMINFO
+        };
+    }
+
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            frame.write(value, 8);
+            return;
+        }
+        int continuationBytes = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3
+                : value < 0x4000000 ? 4 : 5;
+        int firstBits = 6 - continuationBytes;
+        int lead = (0xff << (7 - continuationBytes)) & 0xff;
+        frame.write(lead | (value >>> (6 * continuationBytes)) & ((1 << firstBits) - 1), 8);
+        for (int i = continuationBytes - 1; i >= 0; i--) {
+            frame.write(0x80 | (value >>> (6 * i)) & 0x3f, 8);
+        }
+    }
+
+    private void writeSubframe(int[] samples, int blockSize) {
+        boolean constant = true;
+        for (int i = 1; i < blockSize && constant; i++) {
+            constant = samples[i] == samples[0];
+        }
+        if (constant) {
+            frame.write(0, 8);                        // CONSTANT, no wasted bits
+            frame.write(samples[0] & 0xffff, BITS_PER_SAMPLE);
+            return;
+        }
+
+        int order = bestFixedOrder(samples, blockSize);
+        computeResidual(samples, blockSize, order);
+        int partitionOrder = bestPartitionOrder(blockSize, order);
+        long residualBits = riceBits(blockSize, order, partitionOrder);
+        long fixedBits = 8 + (long) order * BITS_PER_SAMPLE + residualBits;
+        if (fixedBits >= 8 + (long) blockSize * BITS_PER_SAMPLE) {
+            frame.write(0b00000010, 8);               // VERBATIM
+            for (int i = 0; i < blockSize; i++) {
+                frame.write(samples[i] & 0xffff, BITS_PER_SAMPLE);
+            }
+            return;
+        }
+
+        frame.write(0b00010000 | order << 1, 8);      // FIXED, predictor order
+        for (int i = 0; i < order; i++) {
+            frame.write(samples[i] & 0xffff, BITS_PER_SAMPLE);
+        }
+        writeResidual(blockSize, order, partitionOrder);
+    }
+
+    // Picks the fixed predictor with the smallest total absolute residual
+    private static int bestFixedOrder(int[] s, int n) {
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        for (int i = 4; i < n; i++) {
+            int r0 = s[i];
+            int r1 = r0 - s[i - 1];
+            int r2 = r1 - (s[i - 1] - s[i - 2]);
+            int r3 = r2 - (s[i - 1] - 2 * s[i - 2] + s[i - 3]);
+            int r4 = r3 - (s[i - 1] - 3 * s[i - 2] + 3 * s[i - 3] - s[i - 4]);
+            e0 += Math.abs(r0);
+            e1 += Math.abs(r1);
+            e2 += Math.abs(r2);
+            e3 += Math.abs(r3);
+            e4 += Math.abs(r4);
+        }
+        if (n <= 4) {
+            return 0;
+        }
+        int order = 0;
+        long best = e0;
+        if (e1 < best) { best = e1; order = 1; }
+        if (e2 < best) { best = e2; order = 2; }
+        if (e3 < best) { best = e3; order = 3; }
+        if (e4 < best) { order = 4; }
+        return order;
+    }
+
+    private void computeResidual(int[] s, int n, int order) {
+        for (int i = order; i < n; i++) {
+            residual[i] = switch (order) {
+                case 0 -> s[i];
+                case 1 -> s[i] - s[i - 1];
+                case 2 -> s[i] - 2 * s[i - 1] + s[i - 2];
+                case 3 -> s[i] - 3 * s[i - 1] + 3 * s[i - 2] - s[i - 3];
+                default -> s[i] - 4 * s[i - 1] + 6 * s[i - 2] - 4 * s[i - 3] + s[i - 4];
+            };
+        }
+    }
+
+    private int bestPartitionOrder(int n, int order) {
+        int best = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int po = 0; po <= MAX_PARTITION_ORDER; po++) {
+            // Partitions must split the block evenly and the first must hold more than the warm-up samples
+            if ((n & ((1 << po) - 1)) != 0 || (n >> po) <= order) {
+                break;
+            }
+            long bits = riceBits(n, order, po);
+            if (bits < bestBits) {
+                bestBits = bits;
+                best = po;
+            }
+        }
+        return best;
+    }
+
+    // Estimated residual size for a partition order, each partition with its best Rice parameter
+    private long riceBits(int n, int order, int partitionOrder) {
+        int partitions = 1 << partitionOrder;
+        int partitionSize = n >> partitionOrder;
+        long bits = 2 + 4;
+        int i = order;
+        for (int p = 0; p < partitions; p++) {
+            int end = (p + 1) * partitionSize;
+            long sum = 0;
+            for (; i < end; i++) {
+                sum += zigzag(residual[i]);
+            }
+            int count = p == 0 ? partitionSize - order : partitionSize;
+            partitionSums[p] = sum;
+            int k = riceParameter(sum, count);
+            bits += 4 + (long) count * (k + 1) + (sum >> k);
+        }
+        return bits;
+    }
+
+    private void writeResidual(int n, int order, int partitionOrder) {
+        // Recompute the per-partition sums for the chosen order
+        riceBits(n, order, partitionOrder);
+        int partitions = 1 << partitionOrder;
+        int partitionSize = n >> partitionOrder;
+        frame.write(0, 2);                            // Rice coding, 4-bit parameters
+        frame.write(partitionOrder, 4);
+        int i = order;
+        for (int p = 0; p < partitions; p++) {
+            int count = p == 0 ? partitionSize - order : partitionSize;
+            int k = riceParameter(partitionSums[p], count);
+            frame.write(k, 4);
+            int end = (p + 1) * partitionSize;
+            for (; i < end; i++) {
+                frame.writeRice(zigzag(residual[i]), k);
+            }
+        }
+    }
+
+    private static int riceParameter(long sum, int count) {
+        if (count <= 0 || sum <= count) {
+            return 0;
+        }
+        int k = 63 - Long.numberOfLeadingZeros(sum / count);
+        return Math.min(k, MAX_RICE_PARAMETER);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xff];
+        }
+        return crc;
+    }
+
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ data[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    // MSB-first bit writer over a growable byte array
+    private static final class BitWriter {
+        private byte[] buffer;
+        private int length = 0;
+        private long bits = 0;
+        private int bitCount = 0;
+
+        BitWriter(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+            bits = 0;
+            bitCount = 0;
+        }
+
+        void write(long value, int count) {
+            // Keep the accumulator below 64 bits by splitting wide writes
+            if (count > 32) {
+                write(value >>> 32, count - 32);
+                count = 32;
+            }
+            bits = (bits << count) | (value & ((1L << count) - 1));
+            bitCount += count;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                put((byte) (bits >>> bitCount));
+            }
+        }
+
+        void writeRice(int value, int k) {
+            int quotient = value >>> k;
+            while (quotient >= 32) {
+                write(0, 32);
+                quotient -= 32;
+            }
+            // quotient zeros, a one, then the k low bits
+            write(1, quotient + 1);
+            if (k > 0) {
+                write(value, k);
+            }
+        }
+
+        void alignToByte() {
+            if (bitCount > 0) {
+                write(0, 8 - bitCount);
+            }
+        }
+
+        int byteLength() {
+            return length;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void put(byte b) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = b;
+        }
+    }
+}
@@ -83,8 +83,9 @@ public class HotkeyManager implements NativeKeyListener {
     @Override
     public void nativeKeyPressed(NativeKeyEvent e) {
         if (e.getKeyCode() == targetKeyCode) {
+            long pressedNanos = System.nanoTime();
             log.info("Hotkey {} pressed, toggling recording", hotkey);
-            toggleRecording();
+            toggleRecording(pressedNanos);
         }
     }
 
@@ -98,13 +99,13 @@ public class HotkeyManager implements NativeKeyListener {
         // Not used
     }
 
-    private void toggleRecording() {
+    private void toggleRecording(long pressedNanos) {
         if (audioCaptureService.isRecording()) {
             log.info("Stopping recording via hotkey");
             audioCaptureService.stopRecording();
         } else {
             log.info("Starting recording via hotkey");
-            audioCaptureService.startRecording();
+            audioCaptureService.startRecording(pressedNanos);
         }
     }
 
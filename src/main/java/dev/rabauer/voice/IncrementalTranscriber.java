@@ -0,0 +1,176 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Cuts a running capture at speech pauses and transcribes every finished segment in the background,
+ * so only the last short segment is left to transcribe once the recording stops. While recording, the
+ * transcript of the segments finished so far can be passed on as it grows.
+ */
+public class IncrementalTranscriber {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalTranscriber.class);
+
+    private final Function<PcmRecording, String> transcriber;
+    private final ExecutorService executor;
+    private final AudioFormat format;
+    private final int bytesPerMs;
+    private final int pauseMs;
+    private final int minSegmentMs;
+    private final int silenceThreshold;
+
+    // Not synchronized: the stable transcript goes to a listener that may start a request
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock once segments are in flight
+    private final List<CompletableFuture<String>> segments = new ArrayList<>();
+    private PcmRecording current;
+    private int silentMs = 0;
+    private boolean voiced = false;
+    private Consumer<String> onStableTranscript;
+    private int stableSegments = 0;
+    private boolean finishing = false;
+
+    public IncrementalTranscriber(AudioFormat format, Function<PcmRecording, String> transcriber, ExecutorService executor,
+                                  int pauseMs, int minSegmentMs, int silenceThreshold) {
+        this.transcriber = transcriber;
+        this.format = format;
+        this.current = new PcmRecording(format);
+        this.executor = executor;
+        this.bytesPerMs = Math.max(1, (int) (format.getFrameRate() * format.getFrameSize() / 1000));
+        this.pauseMs = pauseMs;
+        this.minSegmentMs = minSegmentMs;
+        this.silenceThreshold = silenceThreshold;
+    }
+
+    /**
+     * Called with the transcript of all segments up to the latest one whose transcription has finished, each
+     * time that grows while recording; the text is stitched as {@link #finish()} stitches it. Set before
+     * feeding audio.
+     */
+    public void setOnStableTranscript(Consumer<String> consumer) {
+        this.onStableTranscript = consumer;
+    }
+
+    /**
+     * Feeds one captured PCM16 little-endian buffer. Called by the encode stage; the buffer is kept, not copied.
+     */
+    public void accept(byte[] buffer, int length) {
+        current.append(buffer, 0, length);
+
+        int chunkMs = length / bytesPerMs;
+        if (peakAmplitude(buffer, length) < silenceThreshold) {
+            silentMs += chunkMs;
+        } else {
+            silentMs = 0;
+            voiced = true;
+        }
+
+        // Cut only at a pause, and only once the segment is long enough to be worth its own request
+        if (silentMs >= pauseMs && current.durationMs() >= minSegmentMs) {
+            submitCurrent();
+        }
+    }
+
+    /**
+     * Transcribes the remaining audio and returns all segment transcripts stitched in capture order.
+     */
+    public String finish() {
+        List<CompletableFuture<String>> all;
+        boolean silentTail;
+        lock.lock();
+        try {
+            finishing = true;
+            // After a cut, a tail without a sound above the threshold is just the pause going on; sending it
+            // would only give Whisper a chance to make words up
+            silentTail = !voiced && !segments.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+        if (!current.isEmpty() && !silentTail) {
+            submitCurrent();
+        }
+        lock.lock();
+        try {
+            all = new ArrayList<>(segments);
+        } finally {
+            lock.unlock();
+        }
+        return stitch(all);
+    }
+
+    private static String stitch(List<CompletableFuture<String>> segments) {
+        StringBuilder transcript = new StringBuilder();
+        for (CompletableFuture<String> segment : segments) {
+            String text = segment.join().trim();
+            if (!text.isEmpty()) {
+                if (transcript.length() > 0) {
+                    transcript.append(' ');
+                }
+                transcript.append(text);
+            }
+        }
+        return transcript.toString();
+    }
+
+    private void submitCurrent() {
+        PcmRecording segment = current;
+        CompletableFuture<String> transcript = CompletableFuture.supplyAsync(() -> transcriber.apply(segment), executor);
+        lock.lock();
+        try {
+            log.info("Segment #{} cut after {} ms of pause ({} ms of audio), transcribing in background",
+                    segments.size(), silentMs, segment.durationMs());
+            segments.add(transcript);
+        } finally {
+            lock.unlock();
+        }
+        if (onStableTranscript != null) {
+            transcript.whenComplete((text, error) -> reportStable());
+        }
+        current = new PcmRecording(format);
+        silentMs = 0;
+        voiced = false;
+    }
+
+    // Under the lock, so a longer stable transcript is never overtaken by a shorter one
+    private void reportStable() {
+        lock.lock();
+        try {
+            int done = 0;
+            while (done < segments.size() && segments.get(done).isDone()
+                    && !segments.get(done).isCompletedExceptionally()) {
+                done++;
+            }
+            // Once the recording has stopped, the final transcript follows right away
+            if (finishing || done <= stableSegments) {
+                return;
+            }
+            stableSegments = done;
+            String transcript = stitch(segments.subList(0, done));
+            if (!transcript.isEmpty()) {
+                onStableTranscript.accept(transcript);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int peakAmplitude(byte[] buffer, int length) {
+        int peak = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            int sample = Math.abs((short) ((buffer[i] & 0xff) | (buffer[i + 1] << 8)));
+            if (sample > peak) {
+                peak = sample;
+            }
+        }
+        return peak;
+    }
+}
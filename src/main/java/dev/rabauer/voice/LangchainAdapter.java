@@ -1,23 +1,45 @@
 package dev.rabauer.voice;
 
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import dev.langchain4j.model.openai.OpenAiTokenizer;
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.model.output.Response;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 @Singleton
 public class LangchainAdapter {
     private static final Logger log = LoggerFactory.getLogger(LangchainAdapter.class);
+    static final String ERROR_REPLY = "Sorry, I encountered an error processing your request.";
+    private static final String SUMMARY_PROMPT = "You maintain the memory of a spoken conversation between a user "
+            + "and an assistant. Merge the earlier summary (if any) and the new turns into one concise summary of "
+            + "at most %d words. Keep facts, names, preferences, decisions and open questions; drop small talk. "
+            + "Reply with the summary only.";
+
+    @Inject
+    VoiceMetrics metrics;
 
     @ConfigProperty(name = "openai.api.key")
     String apiKey;
@@ -28,11 +50,55 @@ public class LangchainAdapter {
     @ConfigProperty(name = "app.llm.model", defaultValue = "gpt-4o")
     String model;
 
+    @ConfigProperty(name = "app.llm.baseUrl", defaultValue = "https://api.openai.com/v1")
+    String baseUrl;
+
+    @ConfigProperty(name = "app.http.requestTimeoutMs", defaultValue = "60000")
+    long requestTimeoutMs;
+
     @ConfigProperty(name = "app.contextMemory.enabled", defaultValue = "false")
     boolean contextMemoryEnabled;
 
+    @ConfigProperty(name = "app.contextMemory.maxTokens", defaultValue = "4000")
+    int contextMaxTokens;
+
+    @ConfigProperty(name = "app.contextMemory.keepTurns", defaultValue = "6")
+    int contextKeepTurns;
+
+    @ConfigProperty(name = "app.contextMemory.summaryWords", defaultValue = "200")
+    int contextSummaryWords;
+
+    @ConfigProperty(name = "app.contextMemory.journal.enabled", defaultValue = "true")
+    boolean journalEnabled;
+
+    @ConfigProperty(name = "app.contextMemory.journal.path", defaultValue = "${user.home}/.on-demand-ai-voice-chat/conversation.journal")
+    String journalPath;
+
+    @ConfigProperty(name = "app.contextMemory.journal.syncMs", defaultValue = "1000")
+    long journalSyncMs;
+
+    @ConfigProperty(name = "app.llm.semanticCache.enabled", defaultValue = "false")
+    boolean semanticCacheEnabled;
+
+    @ConfigProperty(name = "app.llm.semanticCache.threshold", defaultValue = "0.92")
+    double semanticCacheThreshold;
+
+    @ConfigProperty(name = "app.llm.semanticCache.ttlSeconds", defaultValue = "3600")
+    long semanticCacheTtlSeconds;
+
+    @ConfigProperty(name = "app.llm.semanticCache.maxEntries", defaultValue = "1000")
+    int semanticCacheMaxEntries;
+
     private ChatLanguageModel chatModel;
-    private List<ChatMessage> conversationHistory;
+    private StreamingChatLanguageModel streamingChatModel;
+    private ConversationHistory conversationHistory;
+    private ExecutorService summaryExecutor;
+    private ConversationJournal journal;
+    // Set once the embedding model has loaded; until then every question goes to the LLM
+    private volatile SemanticResponseCache responseCache;
+    // Orders recording a reply against revising it after a barge-in; the turn whose reply was recorded last
+    private final Object historyLock = new Object();
+    private long lastRecordedTurn = -1;
 
     @PostConstruct
     public void init() {
@@ -40,51 +106,351 @@ public class LangchainAdapter {
         log.info("Context memory enabled: {}", contextMemoryEnabled);
         chatModel = OpenAiChatModel.builder()
                 .apiKey(apiKey)
+                .baseUrl(baseUrl)
+                .modelName(model)
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .temperature(0.7)
+                .build();
+        streamingChatModel = OpenAiStreamingChatModel.builder()
+                .apiKey(apiKey)
+                .baseUrl(baseUrl)
                 .modelName(model)
+                .timeout(Duration.ofMillis(requestTimeoutMs))
                 .temperature(0.7)
                 .build();
-        
+
         if (contextMemoryEnabled) {
-            conversationHistory = new ArrayList<>();
-            conversationHistory.add(new SystemMessage(systemPrompt));
+            summaryExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "history-summarizer");
+                t.setDaemon(true);
+                return t;
+            });
+            journal = openJournal();
+            conversationHistory = new ConversationHistory(systemPrompt, tokenizer(model), contextMaxTokens,
+                    contextKeepTurns, this::summarize, summaryExecutor, journal);
+            if (journal != null) {
+                try {
+                    // Far more turns than are ever kept verbatim; the rest is in the summary
+                    conversationHistory.restore(journal.restore(4 * contextKeepTurns));
+                } catch (Exception e) {
+                    log.warn("Failed to restore conversation from {}, starting fresh", journalPath, e);
+                }
+            }
+            log.info("Context memory budget: {} tokens, last {} turns verbatim", contextMaxTokens, contextKeepTurns);
+        } else if (semanticCacheEnabled) {
+            // Replies only depend on the question when there is no context memory
+            Thread loader = new Thread(this::loadResponseCache, "embedding-model");
+            loader.setDaemon(true);
+            loader.start();
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdownNow();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (responseCache != null) {
+            log.info("Semantic response cache: {} entries", responseCache.size());
         }
     }
 
     public String processTranscript(String transcript) {
+        long start = System.nanoTime();
+        TurnEvents.Turn turn = TurnEvents.current();
+        TurnEvents.LlmResponseEvent event = new TurnEvents.LlmResponseEvent();
+        event.begin();
         try {
             log.info("Processing transcript with LLM: {}", transcript);
             
+            SemanticResponseCache.Lookup cached = lookupCachedReply(transcript);
+            if (cached != null && cached.isHit()) {
+                commitLlmEvent(event, turn, start, false, true, 0, cached.reply());
+                return cached.reply();
+            }
+
             String response;
             if (contextMemoryEnabled) {
-                // Add user message to history
-                conversationHistory.add(new UserMessage(transcript));
-                
-                // Generate response with full conversation history
-                response = chatModel.generate(conversationHistory).content().text();
-                
-                // Add AI response to history
-                conversationHistory.add(new AiMessage(response));
-                
-                log.info("Conversation history size: {} messages", conversationHistory.size());
+                // Generate response with the budgeted conversation history
+                UserMessage userMessage = new UserMessage(transcript);
+                // A barge-in interrupts the blocking request; on a virtual thread that closes its socket
+                TurnCancellation.Registration interrupt = turn.cancellation.onCancel(Thread.currentThread()::interrupt);
+                try {
+                    response = chatModel.generate(conversationHistory.request(userMessage)).content().text();
+                } finally {
+                    interrupt.close();
+                }
+
+                // Add the turn to history
+                recordTurn(turn, userMessage, response);
             } else {
                 // No memory - just use system prompt + current message
                 String fullPrompt = systemPrompt + "\n\nUser: " + transcript;
-                response = chatModel.generate(fullPrompt);
+                TurnCancellation.Registration interrupt = turn.cancellation.onCancel(Thread.currentThread()::interrupt);
+                try {
+                    response = chatModel.generate(fullPrompt);
+                } finally {
+                    interrupt.close();
+                }
+                if (cached != null) {
+                    responseCache.put(cached, response);
+                }
             }
             
             log.info("LLM response: {}", response);
+            commitLlmEvent(event, turn, start, false, false, 0, response);
             return response;
         } catch (Exception e) {
+            if (turn.cancellation.isCancelled()) {
+                Thread.interrupted();
+                log.info("LLM request interrupted");
+                return "";
+            }
             log.error("Failed to process transcript with LLM", e);
-            return "Sorry, I encountered an error processing your request.";
+            commitLlmEvent(event, turn, start, false, false, 0, null);
+            return ERROR_REPLY;
+        }
+    }
+
+    /**
+     * Streams the reply token by token to {@code onToken}. The returned future completes with the full reply
+     * once the stream has ended; on failure the error reply is emitted as a token and returned instead.
+     * If the turn is cancelled, no more tokens are passed on and the future completes right away with the reply
+     * so far. LangChain4j offers no way to abort the stream itself, so it runs out unread in the background.
+     */
+    public CompletableFuture<String> streamTranscript(String transcript, Consumer<String> onToken) {
+        TurnEvents.Turn turn = TurnEvents.current();
+        return streamTranscript(turn, transcript, onToken, turn.cancellation, true);
+    }
+
+    /**
+     * Streams a reply for {@code turn} that stops when {@code cancellation} is cancelled. A speculative reply
+     * is not put into the history ({@code recordInHistory} false) until it is known to answer the final
+     * transcript; see {@link #remember}.
+     */
+    CompletableFuture<String> streamTranscript(TurnEvents.Turn turn, String transcript, Consumer<String> onToken,
+                                               TurnCancellation cancellation, boolean recordInHistory) {
+        log.info("Streaming transcript to LLM: {}", transcript);
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        long start = System.nanoTime();
+        TurnEvents.LlmResponseEvent event = new TurnEvents.LlmResponseEvent();
+        event.begin();
+
+        SemanticResponseCache.Lookup cached = lookupCachedReply(transcript);
+        if (cached != null && cached.isHit()) {
+            onToken.accept(cached.reply());
+            commitLlmEvent(event, turn, start, true, true, System.nanoTime() - start, cached.reply());
+            reply.complete(cached.reply());
+            return reply;
+        }
+
+        UserMessage userMessage = new UserMessage(transcript);
+        List<ChatMessage> messages;
+        if (contextMemoryEnabled) {
+            messages = conversationHistory.request(userMessage);
+        } else {
+            messages = List.of(new SystemMessage(systemPrompt), userMessage);
+        }
+
+        StringBuffer soFar = new StringBuffer();
+        TurnCancellation.Registration stop = cancellation.onCancel(() -> {
+            if (reply.complete(soFar.toString())) {
+                log.info("LLM stream interrupted after {} chars", soFar.length());
+            }
+        });
+        streamingChatModel.generate(messages, new StreamingResponseHandler<AiMessage>() {
+            private long timeToFirstToken = -1;
+
+            @Override
+            public void onNext(String token) {
+                if (reply.isDone()) {
+                    return;
+                }
+                soFar.append(token);
+                if (timeToFirstToken < 0) {
+                    timeToFirstToken = System.nanoTime() - start;
+                    log.info("LLM time to first token: {} ms", timeToFirstToken / 1_000_000);
+                }
+                onToken.accept(token);
+            }
+
+            @Override
+            public void onComplete(Response<AiMessage> response) {
+                stop.close();
+                String text = response.content().text();
+                if (contextMemoryEnabled) {
+                    if (recordInHistory) {
+                        recordTurn(turn, userMessage, text);
+                    }
+                } else if (cached != null) {
+                    responseCache.put(cached, text);
+                }
+                log.info("LLM response ({} ms): {}", (System.nanoTime() - start) / 1_000_000, text);
+                commitLlmEvent(event, turn, start, true, false, timeToFirstToken, text);
+                reply.complete(text);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                stop.close();
+                if (reply.isDone()) {
+                    return;
+                }
+                log.error("Failed to stream transcript with LLM", error);
+                if (contextMemoryEnabled && recordInHistory) {
+                    // Keep user/assistant turns paired in the history
+                    recordTurn(turn, userMessage, ERROR_REPLY);
+                }
+                commitLlmEvent(event, turn, start, true, false, timeToFirstToken, null);
+                onToken.accept(ERROR_REPLY);
+                reply.complete(ERROR_REPLY);
+            }
+        });
+        return reply;
+    }
+
+    /**
+     * Records a turn whose reply was streamed without {@code recordInHistory}, once it has been taken as the answer.
+     */
+    void remember(TurnEvents.Turn turn, String transcript, String reply) {
+        if (contextMemoryEnabled) {
+            recordTurn(turn, new UserMessage(transcript), reply);
+        }
+    }
+
+    /**
+     * Puts what the user heard of an interrupted reply into the conversation history, with an ellipsis to mark
+     * where it was cut off. Replaces the full reply if that was recorded already, else records the turn now.
+     */
+    void replyInterrupted(TurnEvents.Turn turn, String transcript, String heard) {
+        if (!contextMemoryEnabled) {
+            return;
+        }
+        AiMessage reply = new AiMessage(heard.isBlank() ? "…" : heard.strip() + "…");
+        synchronized (historyLock) {
+            if (lastRecordedTurn == turn.id) {
+                conversationHistory.reviseLastReply(reply);
+            } else {
+                conversationHistory.addTurn(new UserMessage(transcript), reply);
+                lastRecordedTurn = turn.id;
+            }
         }
+        log.info("Interrupted reply recorded as heard: {}", reply.text());
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
     }
 
     public void clearConversationHistory() {
         if (contextMemoryEnabled && conversationHistory != null) {
             conversationHistory.clear();
-            conversationHistory.add(new SystemMessage(systemPrompt));
             log.info("Conversation history cleared");
         }
     }
+
+    // A reply that finishes after its turn was interrupted is left to replyInterrupted
+    private void recordTurn(TurnEvents.Turn turn, UserMessage userMessage, String reply) {
+        synchronized (historyLock) {
+            if (!turn.cancellation.isCancelled()) {
+                conversationHistory.addTurn(userMessage, new AiMessage(reply));
+                lastRecordedTurn = turn.id;
+            }
+        }
+    }
+
+    // reply is null if the request failed; the time to first token is unknown (0) for blocking requests
+    private void commitLlmEvent(TurnEvents.LlmResponseEvent event, TurnEvents.Turn turn, long startNanos,
+                                boolean streaming, boolean cached, long timeToFirstToken, String reply) {
+        metrics.llm(model, streaming, cached, Math.max(0, timeToFirstToken), System.nanoTime() - startNanos,
+                reply != null ? reply.length() : 0, reply != null);
+        event.end();
+        if (event.shouldCommit()) {
+            event.turnId = turn.id;
+            event.model = model;
+            event.streaming = streaming;
+            event.cached = cached;
+            event.timeToFirstToken = Math.max(0, timeToFirstToken);
+            event.replyChars = reply != null ? reply.length() : 0;
+            event.succeeded = reply != null;
+            event.commit();
+        }
+    }
+
+    // Runs on the summarizer thread, between turns
+    private String summarize(String previousSummary, List<ChatMessage> turns) {
+        StringBuilder transcript = new StringBuilder();
+        if (previousSummary != null) {
+            transcript.append("Earlier summary:\n").append(previousSummary).append("\n\nNew turns:\n");
+        }
+        for (ChatMessage message : turns) {
+            if (message instanceof UserMessage user) {
+                transcript.append("User: ").append(user.singleText()).append('\n');
+            } else if (message instanceof AiMessage ai) {
+                transcript.append("Assistant: ").append(ai.text()).append('\n');
+            }
+        }
+        return chatModel.generate(List.of(
+                new SystemMessage(SUMMARY_PROMPT.formatted(contextSummaryWords)),
+                new UserMessage(transcript.toString()))).content().text();
+    }
+
+    private void loadResponseCache() {
+        long start = System.nanoTime();
+        try {
+            // The model ships only with the semantic-cache build profile, so it is looked up at runtime
+            EmbeddingModel embeddings = (EmbeddingModel) Class
+                    .forName("dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel")
+                    .getConstructor().newInstance();
+            embeddings.embed("warm up");
+            responseCache = new SemanticResponseCache(embeddings, metrics, semanticCacheThreshold,
+                    semanticCacheTtlSeconds * 1000, semanticCacheMaxEntries);
+            log.info("Semantic response cache ready in {} ms (threshold {}, TTL {} s, {} entries max)",
+                    (System.nanoTime() - start) / 1_000_000, semanticCacheThreshold, semanticCacheTtlSeconds,
+                    semanticCacheMaxEntries);
+        } catch (ClassNotFoundException e) {
+            log.warn("Semantic response cache needs the embedding model; build with -Psemantic-cache");
+        } catch (Exception e) {
+            log.warn("Failed to load the embedding model, semantic response cache disabled", e);
+        }
+    }
+
+    // Null when the cache is off or not ready; otherwise a hit, or a miss to put the reply under
+    private SemanticResponseCache.Lookup lookupCachedReply(String transcript) {
+        SemanticResponseCache cache = responseCache;
+        if (cache == null || transcript == null || transcript.isBlank()) {
+            return null;
+        }
+        try {
+            return cache.lookup(transcript);
+        } catch (Exception e) {
+            log.warn("Semantic cache lookup failed", e);
+            return null;
+        }
+    }
+
+    private ConversationJournal openJournal() {
+        if (!journalEnabled) {
+            return null;
+        }
+        try {
+            return new ConversationJournal(Path.of(journalPath), journalSyncMs);
+        } catch (Exception e) {
+            log.warn("Cannot open conversation journal {}, history will not survive a restart", journalPath, e);
+            return null;
+        }
+    }
+
+    // Token counts only need to be close, so models jtokkit does not know are counted like gpt-4o
+    private static Tokenizer tokenizer(String model) {
+        try {
+            return new OpenAiTokenizer(model);
+        } catch (IllegalArgumentException e) {
+            log.info("No tokenizer known for model {}, estimating tokens as for gpt-4o", model);
+            return new OpenAiTokenizer("gpt-4o");
+        }
+    }
 }
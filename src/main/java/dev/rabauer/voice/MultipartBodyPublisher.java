@@ -0,0 +1,92 @@
+package dev.rabauer.voice;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Assembles a multipart/form-data body from existing body publishers, so file content is streamed
+ * into the request instead of being copied into one combined array first.
+ */
+public class MultipartBodyPublisher {
+    private final String boundary = "----Boundary" + System.nanoTime();
+    private final List<HttpRequest.BodyPublisher> parts = new ArrayList<>();
+
+    public MultipartBodyPublisher addField(String name, String value) {
+        parts.add(text("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" +
+                value + "\r\n"));
+        return this;
+    }
+
+    public MultipartBodyPublisher addFile(String name, String fileName, String contentType,
+                                          List<HttpRequest.BodyPublisher> content) {
+        parts.add(text("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n" +
+                "Content-Type: " + contentType + "\r\n\r\n"));
+        parts.addAll(content);
+        parts.add(text("\r\n"));
+        return this;
+    }
+
+    public String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    public HttpRequest.BodyPublisher build() {
+        List<HttpRequest.BodyPublisher> all = new ArrayList<>(parts);
+        all.add(text("--" + boundary + "--\r\n"));
+        return HttpRequest.BodyPublishers.concat(all.toArray(HttpRequest.BodyPublisher[]::new));
+    }
+
+    /**
+     * Like {@link #build()}, but runs {@code onSent} once the client has pulled the whole body, i.e. when
+     * the upload has left the application (at most once, even if the client resends the body).
+     */
+    public HttpRequest.BodyPublisher build(Runnable onSent) {
+        HttpRequest.BodyPublisher body = build();
+        AtomicBoolean sent = new AtomicBoolean();
+        return new HttpRequest.BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return body.contentLength();
+            }
+
+            @Override
+            public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                body.subscribe(new Flow.Subscriber<ByteBuffer>() {
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        subscriber.onSubscribe(subscription);
+                    }
+
+                    @Override
+                    public void onNext(ByteBuffer item) {
+                        subscriber.onNext(item);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        subscriber.onError(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        subscriber.onComplete();
+                        if (sent.compareAndSet(false, true)) {
+                            onSent.run();
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    private static HttpRequest.BodyPublisher text(String s) {
+        return HttpRequest.BodyPublishers.ofByteArray(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,133 @@
+package dev.rabauer.voice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared, connection-pooled HTTP/2 client for all OpenAI calls, with speculative connection warm-up.
+ */
+@Singleton
+public class OpenAiHttpClient {
+    private static final Logger log = LoggerFactory.getLogger(OpenAiHttpClient.class);
+
+    @ConfigProperty(name = "app.http.connectTimeoutMs", defaultValue = "5000")
+    long connectTimeoutMs;
+
+    @ConfigProperty(name = "app.http.requestTimeoutMs", defaultValue = "60000")
+    long requestTimeoutMs;
+
+    @ConfigProperty(name = "app.http.prewarm.enabled", defaultValue = "true")
+    boolean prewarmEnabled;
+
+    // A pooled connection stays usable for a while; don't re-warm an origin more often than this
+    @ConfigProperty(name = "app.http.prewarm.intervalMs", defaultValue = "20000")
+    long prewarmIntervalMs;
+
+    private final Map<URI, Long> lastWarmed = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+    private HttpClient client;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+        log.info("Shared HTTP client ready (connect timeout {} ms, request timeout {} ms)", connectTimeoutMs, requestTimeoutMs);
+    }
+
+    public HttpClient client() {
+        return client;
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    public Duration connectTimeout() {
+        return Duration.ofMillis(connectTimeoutMs);
+    }
+
+    public Duration requestTimeout() {
+        return Duration.ofMillis(requestTimeoutMs);
+    }
+
+    public HttpRequest.Builder newRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(requestTimeout());
+    }
+
+    /**
+     * Starts DNS, TCP and TLS to the origins of the given URLs in the background, so the next real
+     * request finds a pooled connection. Never blocks and never fails the caller.
+     */
+    public void prewarm(String... urls) {
+        if (!prewarmEnabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String url : urls) {
+            URI origin;
+            try {
+                URI uri = URI.create(url);
+                if (!"https".equals(uri.getScheme()) && !"http".equals(uri.getScheme())) {
+                    continue;
+                }
+                origin = new URI(uri.getScheme(), null, uri.getHost(), uri.getPort(), "/", null, null);
+            } catch (Exception e) {
+                log.debug("Not pre-warming invalid URL {}", url);
+                continue;
+            }
+
+            Long previous = lastWarmed.get(origin);
+            if (previous != null && now - previous < prewarmIntervalMs) {
+                continue;
+            }
+            lastWarmed.put(origin, now);
+
+            // Any response, even 404, leaves an established connection in the pool
+            HttpRequest warmup = HttpRequest.newBuilder(origin)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(Duration.ofMillis(connectTimeoutMs))
+                    .build();
+            long start = System.nanoTime();
+            client.sendAsync(warmup, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((resp, error) -> {
+                        if (error != null) {
+                            lastWarmed.remove(origin);
+                            log.debug("Pre-warming {} failed: {}", origin, error.toString());
+                        } else {
+                            log.debug("Pre-warmed {} ({}) in {} ms", origin, resp.version(), (System.nanoTime() - start) / 1_000_000);
+                        }
+                    });
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (client != null) {
+            client.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps output lines open between replies, keyed by device and the format callers write in, so
+ * playback starts without reopening the device (which is slow and pops on some drivers). Lines
+ * unused for the idle timeout are closed. Each device's native format is picked once from the
+ * formats it advertises, and audio is converted to it by {@link PcmFormatConverter} rather than
+ * by Java Sound.
+ */
+public class OutputLinePool implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(OutputLinePool.class);
+    // Lines kept per key; more are only needed if replies overlap
+    private static final int MAX_IDLE_PER_KEY = 2;
+
+    private final AudioDeviceRegistry devices;
+    private final long idleTimeoutMs;
+    private final PolyphaseResampler.Quality quality;
+    private final Map<String, ArrayDeque<PooledOutputLine>> idle = new HashMap<>();
+    // key -> device format chosen for it, valid until the devices change
+    private final Map<String, AudioFormat> nativeFormats = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private boolean closed = false;
+
+    public OutputLinePool(AudioDeviceRegistry devices, long idleTimeoutMs, PolyphaseResampler.Quality quality) {
+        this.devices = devices;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.quality = quality;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "output-lines");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Borrows an open line for {@code format} on the device whose name contains {@code deviceName}
+     * (system default if null), reusing an idle one when possible.
+     */
+    public PooledOutputLine acquire(String deviceName, AudioFormat format) throws LineUnavailableException {
+        String key = key(deviceName, format);
+        synchronized (this) {
+            ArrayDeque<PooledOutputLine> lines = idle.get(key);
+            while (lines != null && !lines.isEmpty()) {
+                PooledOutputLine line = lines.poll();
+                if (line.line().isOpen()) {
+                    log.debug("Reusing open output line for {}", key);
+                    return line.reuse();
+                }
+            }
+        }
+        return open(deviceName, format, key);
+    }
+
+    /**
+     * Opens a line in the background unless one is already idle, e.g. while the user is still speaking.
+     */
+    public void prepareAsync(String deviceName, AudioFormat format) {
+        String key = key(deviceName, format);
+        try {
+            scheduler.execute(() -> {
+                synchronized (this) {
+                    ArrayDeque<PooledOutputLine> lines = idle.get(key);
+                    if (closed || (lines != null && !lines.isEmpty())) {
+                        return;
+                    }
+                }
+                try {
+                    open(deviceName, format, key).release();
+                } catch (Exception e) {
+                    log.debug("Could not prepare output line for {}", key, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Pool already closed
+        }
+    }
+
+    /**
+     * Closes all idle lines and forgets the chosen device formats, e.g. after devices changed.
+     */
+    public synchronized void closeIdle() {
+        idle.values().forEach(lines -> lines.forEach(line -> line.line().close()));
+        idle.clear();
+        nativeFormats.clear();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            closeIdle();
+        }
+        scheduler.shutdownNow();
+    }
+
+    void release(PooledOutputLine line) {
+        SourceDataLine sourceLine = line.line();
+        sourceLine.stop();
+        sourceLine.flush();
+        synchronized (this) {
+            ArrayDeque<PooledOutputLine> lines = idle.computeIfAbsent(line.key(), k -> new ArrayDeque<>());
+            if (closed || !sourceLine.isOpen() || lines.size() >= MAX_IDLE_PER_KEY) {
+                sourceLine.close();
+                return;
+            }
+            line.idleSinceNanos = System.nanoTime();
+            lines.push(line);
+        }
+        if (idleTimeoutMs > 0) {
+            scheduler.schedule(this::closeExpired, idleTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void closeExpired() {
+        long now = System.nanoTime();
+        for (ArrayDeque<PooledOutputLine> lines : idle.values()) {
+            for (Iterator<PooledOutputLine> it = lines.iterator(); it.hasNext(); ) {
+                PooledOutputLine line = it.next();
+                if ((now - line.idleSinceNanos) / 1_000_000 >= idleTimeoutMs) {
+                    it.remove();
+                    line.line().close();
+                    log.debug("Closed output line for {} after {} ms idle", line.key(), idleTimeoutMs);
+                }
+            }
+        }
+    }
+
+    private PooledOutputLine open(String deviceName, AudioFormat format, String key) throws LineUnavailableException {
+        long start = System.nanoTime();
+        Optional<AudioDeviceRegistry.AudioDevice> device = deviceName == null
+                ? Optional.empty()
+                : devices.playbackDevice(deviceName);
+        if (deviceName != null && device.isEmpty()) {
+            log.warn("Configured output device '{}' not found, using system default", deviceName);
+        }
+        AudioFormat deviceFormat = nativeFormats.computeIfAbsent(key, k -> {
+            AudioFormat chosen = nativeFormat(device.map(AudioDeviceRegistry.AudioDevice::playbackFormats)
+                    .orElseGet(devices::defaultPlaybackFormats), format);
+            if (chosen != format && !isSupported(device, chosen)) {
+                chosen = format;
+            }
+            if (chosen != format) {
+                log.info("Output {} runs natively as {}, converting from {}", k, chosen, format);
+            }
+            return chosen;
+        });
+
+        SourceDataLine line = openLine(device, deviceName, deviceFormat);
+        line.open(deviceFormat);
+        PcmFormatConverter converter = deviceFormat.matches(format) ? null : new PcmFormatConverter(format, deviceFormat, quality);
+        log.info("Opened output line for {} in {} ms", key, (System.nanoTime() - start) / 1_000_000);
+        return new PooledOutputLine(this, key, line, format, converter);
+    }
+
+    private SourceDataLine openLine(Optional<AudioDeviceRegistry.AudioDevice> device, String deviceName, AudioFormat format)
+            throws LineUnavailableException {
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+        Optional<Mixer> mixer = device.flatMap(d -> devices.playbackMixer(d.name(), format));
+        if (mixer.isPresent()) {
+            try {
+                SourceDataLine line = (SourceDataLine) mixer.get().getLine(info);
+                log.info("Using configured audio output device: {}", mixer.get().getMixerInfo().getName());
+                return line;
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                log.warn("Configured output device '{}' failed to open, using system default", deviceName, e);
+                devices.refreshAsync();
+            }
+        } else if (device.isPresent()) {
+            log.warn("Configured output device '{}' does not support {}, using system default", deviceName, format);
+        }
+        return (SourceDataLine) AudioSystem.getLine(info);
+    }
+
+    private boolean isSupported(Optional<AudioDeviceRegistry.AudioDevice> device, AudioFormat format) {
+        if (device.isPresent()) {
+            return devices.playbackMixer(device.get().name(), format).isPresent();
+        }
+        return AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format));
+    }
+
+    /**
+     * Picks the device format closest to {@code requested} among the 16-bit formats the device advertises:
+     * the requested format itself if it is native, otherwise the same rate with other channels, then rates
+     * that are a multiple of the requested one, then higher and finally lower rates. Formats this class
+     * cannot convert are left to Java Sound.
+     */
+    static AudioFormat nativeFormat(List<AudioFormat> advertised, AudioFormat requested) {
+        if (!PcmFormatConverter.isPcm16le(requested) || requested.getChannels() > 2) {
+            return requested;
+        }
+        int requestedRate = Math.round(requested.getSampleRate());
+        int requestedChannels = requested.getChannels();
+        AudioFormat best = requested;
+        int bestScore = -1;
+        for (AudioFormat candidate : advertised) {
+            if (!PcmFormatConverter.isPcm16le(candidate)) {
+                continue;
+            }
+            boolean anyRate = candidate.getSampleRate() == AudioSystem.NOT_SPECIFIED;
+            boolean anyChannels = candidate.getChannels() == AudioSystem.NOT_SPECIFIED;
+            int rate = anyRate ? requestedRate : Math.round(candidate.getSampleRate());
+            int channels = anyChannels ? requestedChannels : candidate.getChannels();
+            if (rate == requestedRate && channels == requestedChannels) {
+                return requested;
+            }
+            if (channels > 2) {
+                continue;
+            }
+            int rateScore = rate == requestedRate ? 4 : rate % requestedRate == 0 ? 3 : rate > requestedRate ? 2 : 1;
+            int score = rateScore * 2 + (channels == requestedChannels ? 1 : 0);
+            if (score > bestScore) {
+                bestScore = score;
+                best = new AudioFormat(rate, 16, channels, true, false);
+            }
+        }
+        return best;
+    }
+
+    private static String key(String deviceName, AudioFormat format) {
+        return (deviceName == null ? "default" : deviceName) + " | " + format;
+    }
+}
@@ -0,0 +1,174 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Converts 16-bit signed little-endian PCM between sample rates and mono/stereo, so an output line
+ * can stay in the device's native format instead of relying on Java Sound's implicit conversion.
+ * Rate changes go through {@link PolyphaseResampler}, one per channel that needs it. Input must be
+ * whole frames; scratch buffers only grow, so steady-state conversion does not allocate.
+ */
+public class PcmFormatConverter {
+    private final AudioFormat sourceFormat;
+    private final AudioFormat targetFormat;
+    private final int inChannels;
+    private final int outChannels;
+    // null when the sample rate stays the same; two only when stereo is resampled as stereo
+    private final PolyphaseResampler[] resamplers;
+
+    private byte[] split0 = new byte[0];
+    private byte[] split1 = new byte[0];
+    private byte[] resampled0 = new byte[0];
+    private byte[] resampled1 = new byte[0];
+
+    public PcmFormatConverter(AudioFormat sourceFormat, AudioFormat targetFormat, PolyphaseResampler.Quality quality) {
+        if (!isPcm16le(sourceFormat) || !isPcm16le(targetFormat)) {
+            throw new IllegalArgumentException("Only 16-bit signed little-endian PCM can be converted: "
+                    + sourceFormat + " -> " + targetFormat);
+        }
+        if (sourceFormat.getChannels() > 2 || targetFormat.getChannels() > 2) {
+            throw new IllegalArgumentException("Only mono and stereo can be converted: " + sourceFormat + " -> " + targetFormat);
+        }
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+        this.inChannels = sourceFormat.getChannels();
+        this.outChannels = targetFormat.getChannels();
+        int inRate = Math.round(sourceFormat.getSampleRate());
+        int outRate = Math.round(targetFormat.getSampleRate());
+        if (inRate == outRate) {
+            this.resamplers = null;
+        } else {
+            int processed = inChannels == 2 && outChannels == 2 ? 2 : 1;
+            this.resamplers = new PolyphaseResampler[processed];
+            for (int c = 0; c < processed; c++) {
+                resamplers[c] = new PolyphaseResampler(inRate, outRate, quality);
+            }
+        }
+    }
+
+    public static boolean isPcm16le(AudioFormat format) {
+        return AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                && format.getSampleSizeInBits() == 16
+                && !format.isBigEndian();
+    }
+
+    public AudioFormat sourceFormat() {
+        return sourceFormat;
+    }
+
+    public AudioFormat targetFormat() {
+        return targetFormat;
+    }
+
+    /**
+     * Upper bound of output bytes for {@code inputBytes} more input.
+     */
+    public int maxOutputBytes(int inputBytes) {
+        int monoBytes = inputBytes / inChannels;
+        int perChannel = resamplers == null ? monoBytes : resamplers[0].maxOutputBytes(monoBytes);
+        return perChannel * outChannels;
+    }
+
+    /**
+     * Converts {@code in[offset, offset + length)}, a whole number of frames, into {@code out} starting
+     * at {@code outOffset} and returns the number of bytes written. {@code out} needs room for
+     * {@link #maxOutputBytes}.
+     */
+    public int convert(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        int frames = length / (2 * inChannels);
+        if (resamplers == null) {
+            if (inChannels == outChannels) {
+                System.arraycopy(in, offset, out, outOffset, frames * 2 * inChannels);
+                return frames * 2 * inChannels;
+            }
+            return inChannels == 1
+                    ? upmix(in, offset, frames, out, outOffset)
+                    : downmix(in, offset, frames, out, outOffset);
+        }
+
+        if (resamplers.length == 2) {
+            split0 = ensure(split0, frames * 2);
+            split1 = ensure(split1, frames * 2);
+            deinterleave(in, offset, frames);
+            resampled0 = ensure(resampled0, resamplers[0].maxOutputBytes(frames * 2));
+            resampled1 = ensure(resampled1, resamplers[1].maxOutputBytes(frames * 2));
+            int n = resamplers[0].process(split0, 0, frames * 2, resampled0, 0);
+            resamplers[1].process(split1, 0, frames * 2, resampled1, 0);
+            return interleave(resampled0, resampled1, n / 2, out, outOffset);
+        }
+
+        // One channel in the middle: mono input as is, or stereo input mixed down first
+        byte[] mono = in;
+        int monoOffset = offset;
+        if (inChannels == 2) {
+            split0 = ensure(split0, frames * 2);
+            downmix(in, offset, frames, split0, 0);
+            mono = split0;
+            monoOffset = 0;
+        }
+        if (outChannels == 1) {
+            return resamplers[0].process(mono, monoOffset, frames * 2, out, outOffset);
+        }
+        resampled0 = ensure(resampled0, resamplers[0].maxOutputBytes(frames * 2));
+        int n = resamplers[0].process(mono, monoOffset, frames * 2, resampled0, 0);
+        return upmix(resampled0, 0, n / 2, out, outOffset);
+    }
+
+    /**
+     * Starts a new stream: drops the resamplers' history so nothing from the last one bleeds in.
+     */
+    public void reset() {
+        if (resamplers != null) {
+            for (PolyphaseResampler resampler : resamplers) {
+                resampler.reset();
+            }
+        }
+    }
+
+    private static int upmix(byte[] in, int offset, int frames, byte[] out, int outOffset) {
+        int o = outOffset;
+        for (int i = offset, end = offset + frames * 2; i < end; i += 2) {
+            out[o++] = in[i];
+            out[o++] = in[i + 1];
+            out[o++] = in[i];
+            out[o++] = in[i + 1];
+        }
+        return o - outOffset;
+    }
+
+    private static int downmix(byte[] in, int offset, int frames, byte[] out, int outOffset) {
+        int o = outOffset;
+        for (int i = offset, end = offset + frames * 4; i < end; i += 4) {
+            int left = (short) ((in[i] & 0xff) | (in[i + 1] << 8));
+            int right = (short) ((in[i + 2] & 0xff) | (in[i + 3] << 8));
+            int mixed = (left + right) >> 1;
+            out[o++] = (byte) mixed;
+            out[o++] = (byte) (mixed >> 8);
+        }
+        return o - outOffset;
+    }
+
+    private void deinterleave(byte[] in, int offset, int frames) {
+        for (int f = 0, i = offset; f < frames; f++, i += 4) {
+            split0[2 * f] = in[i];
+            split0[2 * f + 1] = in[i + 1];
+            split1[2 * f] = in[i + 2];
+            split1[2 * f + 1] = in[i + 3];
+        }
+    }
+
+    private static int interleave(byte[] left, byte[] right, int frames, byte[] out, int outOffset) {
+        int o = outOffset;
+        for (int f = 0; f < frames; f++) {
+            out[o++] = left[2 * f];
+            out[o++] = left[2 * f + 1];
+            out[o++] = right[2 * f];
+            out[o++] = right[2 * f + 1];
+        }
+        return o - outOffset;
+    }
+
+    private static byte[] ensure(byte[] buffer, int size) {
+        return buffer.length >= size ? buffer : new byte[size];
+    }
+}
@@ -0,0 +1,122 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captured PCM audio kept as the original capture buffers, without concatenating them into one array.
+ */
+public class PcmRecording {
+    private static final int WAV_HEADER_SIZE = 44;
+
+    private final AudioFormat format;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private long byteLength = 0;
+
+    private record Chunk(byte[] data, int offset, int length) {}
+
+    /** Receives the stored capture buffers in order. */
+    public interface ChunkConsumer {
+        void accept(byte[] data, int offset, int length);
+    }
+
+    public PcmRecording(AudioFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Appends a slice of a capture buffer. The array is referenced, not copied, so the caller must not reuse it.
+     */
+    public void append(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        chunks.add(new Chunk(data, offset, length));
+        byteLength += length;
+    }
+
+    public AudioFormat format() {
+        return format;
+    }
+
+    public long byteLength() {
+        return byteLength;
+    }
+
+    public long durationMs() {
+        return (long) (byteLength * 1000 / (format.getFrameRate() * format.getFrameSize()));
+    }
+
+    public boolean isEmpty() {
+        return byteLength == 0;
+    }
+
+    public void forEachChunk(ChunkConsumer consumer) {
+        for (Chunk chunk : chunks) {
+            consumer.accept(chunk.data(), chunk.offset(), chunk.length());
+        }
+    }
+
+    /**
+     * Body publishers for a complete WAV file: a generated header followed by the capture buffers as-is.
+     */
+    public List<HttpRequest.BodyPublisher> wavPublishers() {
+        List<HttpRequest.BodyPublisher> parts = new ArrayList<>(chunks.size() + 1);
+        parts.add(HttpRequest.BodyPublishers.ofByteArray(wavHeader()));
+        for (Chunk chunk : chunks) {
+            parts.add(HttpRequest.BodyPublishers.ofByteArray(chunk.data(), chunk.offset(), chunk.length()));
+        }
+        return parts;
+    }
+
+    public void writeWav(OutputStream out) throws IOException {
+        out.write(wavHeader());
+        for (Chunk chunk : chunks) {
+            out.write(chunk.data(), chunk.offset(), chunk.length());
+        }
+    }
+
+    /**
+     * Writes the recording to a temporary WAV file, for consumers that still need one on disk.
+     */
+    public File writeTempWav() throws IOException {
+        Path tmp = Files.createTempFile("recording-", ".wav");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            writeWav(out);
+        }
+        return tmp.toFile();
+    }
+
+    byte[] wavHeader() {
+        int channels = format.getChannels();
+        int sampleRate = (int) format.getSampleRate();
+        int bitsPerSample = format.getSampleSizeInBits();
+        int blockAlign = channels * bitsPerSample / 8;
+        int dataSize = (int) Math.min(byteLength, Integer.MAX_VALUE - WAV_HEADER_SIZE);
+
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'});
+        header.putInt(36 + dataSize);
+        header.put(new byte[]{'W', 'A', 'V', 'E'});
+        header.put(new byte[]{'f', 'm', 't', ' '});
+        header.putInt(16);                // fmt chunk size
+        header.putShort((short) 1);       // PCM
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) bitsPerSample);
+        header.put(new byte[]{'d', 'a', 't', 'a'});
+        header.putInt(dataSize);
+        return header.array();
+    }
+}
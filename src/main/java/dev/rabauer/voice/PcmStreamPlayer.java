@@ -0,0 +1,260 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Plays PCM that arrives incrementally (e.g. from a network stream) through a small jitter buffer
+ * into an already opened {@link PooledOutputLine}. Playback starts as soon as the pre-buffer is filled.
+ * Once playback has ended, {@code release} is run to hand the line back (typically to its pool).
+ * Cancelling the turn that started it stops it, and {@link #playedBytes()} then tells how much was heard.
+ */
+public class PcmStreamPlayer {
+    private static final Logger log = LoggerFactory.getLogger(PcmStreamPlayer.class);
+
+    private final PooledOutputLine line;
+    private final Runnable release;
+    private final int frameSize;
+    private final int bytesPerMs;
+    private final int prebufferBytes;
+    private final int periodBytes;
+    private final long createdNanos = System.nanoTime();
+    private final TurnEvents.Turn turn = TurnEvents.current();
+
+    // Ring buffer between the producer (network) and the playback thread
+    private final byte[] ring;
+    private int readPos = 0;
+    private int writePos = 0;
+    private int size = 0;
+    private boolean finished = false;
+    private boolean stopped = false;
+    // Set before the line is handed back; from then on it may belong to the next player
+    private boolean released = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+
+    private long queuedBytes = 0;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private TurnCancellation.Registration cancelRegistration;
+    private volatile long firstSoundNanos = -1;
+    // Line position when playback started, bytes handed to the line, and what had been played when it ended
+    private volatile long startMicros = -1;
+    private volatile long lineBytes = 0;
+    private volatile long playedAtEnd = -1;
+
+    private PcmStreamPlayer(PooledOutputLine line, int prebufferMs, int capacityMs, Runnable release) {
+        this.line = line;
+        this.release = release;
+        AudioFormat format = line.getFormat();
+        this.frameSize = format.getFrameSize();
+        this.bytesPerMs = (int) (format.getFrameRate() * frameSize / 1000);
+        this.prebufferBytes = align(Math.max(frameSize, prebufferMs * bytesPerMs));
+        this.periodBytes = align(Math.max(frameSize, 20 * bytesPerMs));
+        this.ring = new byte[align(Math.max(prebufferBytes * 2, capacityMs * bytesPerMs))];
+    }
+
+    /**
+     * Starts a player on {@code line} for the current turn; its playback thread waits for the pre-buffer.
+     */
+    public static PcmStreamPlayer start(PooledOutputLine line, int prebufferMs, int capacityMs, Runnable release) {
+        PcmStreamPlayer player = new PcmStreamPlayer(line, prebufferMs, capacityMs, release);
+        player.cancelRegistration = player.turn.cancellation.onCancel(player::stop);
+        Thread playback = new Thread(player::playbackLoop, "tts-playback");
+        playback.setDaemon(true);
+        playback.start();
+        return player;
+    }
+
+    /**
+     * Queues audio for playback, blocking while the jitter buffer is full.
+     */
+    public void write(byte[] data, int offset, int length) throws InterruptedException {
+        lock.lock();
+        try {
+            while (length > 0 && !stopped) {
+                while (size == ring.length && !stopped) {
+                    spaceAvailable.await();
+                }
+                int n = Math.min(length, Math.min(ring.length - size, ring.length - writePos));
+                System.arraycopy(data, offset, ring, writePos, n);
+                writePos = (writePos + n) % ring.length;
+                size += n;
+                queuedBytes += n;
+                offset += n;
+                length -= n;
+                dataAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the stream; buffered audio is still played to the end.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            dataAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops immediately, discarding everything still buffered.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            if (!stopped && playedAtEnd < 0) {
+                // Before the flush below throws the rest of the device buffer away
+                playedAtEnd = played();
+            }
+            stopped = true;
+            size = 0;
+            dataAvailable.signal();
+            spaceAvailable.signalAll();
+            // Under the lock, so the playback thread cannot hand the line back in between
+            if (!released) {
+                line.stop();
+                line.flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all queued audio has been played (or playback was stopped).
+     */
+    public void awaitCompletion() {
+        completion.join();
+    }
+
+    /**
+     * Nanos timestamp of the first write to the line, or -1 if nothing has been played yet.
+     */
+    public long firstSoundNanos() {
+        return firstSoundNanos;
+    }
+
+    public long createdNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * Bytes accepted by {@link #write} so far, played or not.
+     */
+    public long queuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes the device has actually played; after a {@link #stop()} this is what was heard before it.
+     */
+    public long playedBytes() {
+        long atEnd = playedAtEnd;
+        return atEnd >= 0 ? atEnd : played();
+    }
+
+    public long playedMs() {
+        return playedBytes() / bytesPerMs;
+    }
+
+    private void playbackLoop() {
+        byte[] period = new byte[periodBytes];
+        try {
+            // Fill the jitter buffer before the first sample reaches the device
+            lock.lock();
+            try {
+                while (size < prebufferBytes && !finished && !stopped) {
+                    dataAvailable.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            line.start();
+            startMicros = line.microsecondPosition();
+            while (true) {
+                int n;
+                lock.lock();
+                try {
+                    while (size < frameSize && !finished && !stopped) {
+                        dataAvailable.await();
+                    }
+                    if (stopped || size < frameSize) {
+                        break;
+                    }
+                    // readPos and the ring length are frame-aligned, so this is at least one whole frame
+                    n = align(Math.min(size, Math.min(period.length, ring.length - readPos)));
+                    System.arraycopy(ring, readPos, period, 0, n);
+                    readPos = (readPos + n) % ring.length;
+                    size -= n;
+                    spaceAvailable.signal();
+                } finally {
+                    lock.unlock();
+                }
+
+                if (firstSoundNanos < 0) {
+                    firstSoundNanos = System.nanoTime();
+                    TurnEvents.playbackStarted(turn, "stream");
+                }
+                line.write(period, 0, n);
+                lineBytes += n;
+            }
+            if (!stopped) {
+                line.drain();
+                playedAtEnd = lineBytes;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Streaming playback failed", e);
+        } finally {
+            cancelRegistration.close();
+            lock.lock();
+            try {
+                if (playedAtEnd < 0) {
+                    playedAtEnd = played();
+                }
+                released = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                release.run();
+            } finally {
+                completion.complete(null);
+            }
+        }
+    }
+
+    // The line's position counts from when it was opened, and the line may be shared with the next player
+    private long played() {
+        long start = startMicros;
+        if (start < 0) {
+            return 0;
+        }
+        long bytes = (line.microsecondPosition() - start) * bytesPerMs / 1000;
+        return Math.max(0, Math.min(lineBytes, bytes - bytes % frameSize));
+    }
+
+    private int align(int bytes) {
+        return bytes - bytes % frameSize;
+    }
+}
@@ -0,0 +1,11 @@
+package dev.rabauer.voice;
+
+/**
+ * How a recorded turn is turned into a spoken answer.
+ */
+public enum PipelineMode {
+    // Whisper transcription, chat completion and TTS as separate HTTP calls
+    WHISPER,
+    // Mic audio streamed to the Realtime API, which answers with audio directly
+    REALTIME
+}
@@ -0,0 +1,111 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One stage of the turn pipeline: a bounded queue of tasks, each run on its own virtual thread while at
+ * most {@code concurrency} of them are running. Submitting blocks while the queue is full, so a slow stage
+ * holds back the one before it instead of piling up work. Tasks start in the order they were submitted.
+ */
+public class PipelineStage implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(PipelineStage.class);
+
+    private final String name;
+    private final int concurrency;
+    private final BlockingQueue<Runnable> queue;
+    private final Semaphore permits;
+    private final AtomicInteger running = new AtomicInteger();
+    private final Thread dispatcher;
+    private volatile boolean closed = false;
+
+    public PipelineStage(String name, int concurrency, int capacity) {
+        this.name = name;
+        this.concurrency = Math.max(1, concurrency);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.permits = new Semaphore(this.concurrency);
+        this.dispatcher = Thread.ofVirtual().name("stage-" + name).start(this::dispatch);
+    }
+
+    /**
+     * Queues a task, waiting for room if the stage is full.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (closed) {
+            throw new RejectedExecutionException("Pipeline stage " + name + " is closed");
+        }
+        try {
+            if (!queue.offer(task)) {
+                log.info("Pipeline stage {} is full ({} queued, {} running), waiting", name, queue.size(), running());
+                queue.put(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while queueing for " + name, e);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int concurrency() {
+        return concurrency;
+    }
+
+    /** Tasks waiting for a free slot. */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int running() {
+        return running.get();
+    }
+
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d/%d running, %d queued", name, running(), concurrency, queue.size());
+    }
+
+    private void dispatch() {
+        int taskNumber = 0;
+        try {
+            while (!closed) {
+                permits.acquire();
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    permits.release();
+                    throw e;
+                }
+                Thread.ofVirtual().name(name + "-" + taskNumber++).start(() -> {
+                    running.incrementAndGet();
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        log.error("Pipeline stage {} task failed", name, t);
+                    } finally {
+                        running.decrementAndGet();
+                        permits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * Streaming rational-ratio resampler for 16-bit little-endian mono PCM, e.g. 24 kHz capture to 16 kHz
+ * for Whisper. A Kaiser-windowed sinc low-pass is split into one short FIR per output phase, so each
+ * output sample costs {@code tapsPerPhase} multiply-adds. Filter state carries over between calls and
+ * nothing is allocated while processing.
+ */
+public class PolyphaseResampler {
+
+    /** Filter length and stop-band trade-off; longer filters cost proportionally more CPU. */
+    public enum Quality {
+        // taps per phase, Kaiser beta, passband edge as a fraction of the lower Nyquist frequency
+        FAST(8, 5.0, 0.85),
+        BALANCED(16, 7.0, 0.90),
+        HIGH(32, 9.0, 0.94);
+
+        final int tapsPerPhase;
+        final double kaiserBeta;
+        final double cutoff;
+
+        Quality(int tapsPerPhase, double kaiserBeta, double cutoff) {
+            this.tapsPerPhase = tapsPerPhase;
+            this.kaiserBeta = kaiserBeta;
+            this.cutoff = cutoff;
+        }
+    }
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;
+    private final int down;
+    private final int taps;
+    // coefficients[phase * taps + j] weights the j-th most recent input sample
+    private final float[] coefficients;
+
+    // The last `taps` input samples, stored twice so every window is contiguous
+    private final float[] history;
+    private int historyPos = 0;
+    private int phase = 0;
+    private int pendingLowByte = -1;
+
+    public PolyphaseResampler(int inputRate, int outputRate, Quality quality) {
+        int gcd = gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+        // Downsampling narrows the passband relative to the input, so the filter has to span more input
+        this.taps = up == down ? 1 : (int) Math.ceil(quality.tapsPerPhase * Math.max(1.0, (double) down / up));
+        this.coefficients = up == down ? new float[]{1f} : designFilter(up, down, taps, quality);
+        this.history = new float[2 * taps];
+    }
+
+    public int inputRate() {
+        return inputRate;
+    }
+
+    public int outputRate() {
+        return outputRate;
+    }
+
+    public AudioFormat outputFormat() {
+        return new AudioFormat(outputRate, 16, 1, true, false);
+    }
+
+    /**
+     * Upper bound of output bytes for {@code inputBytes} more input, including state carried over.
+     */
+    public int maxOutputBytes(int inputBytes) {
+        long samples = (inputBytes + 1L) / 2;
+        return (int) (2 * ((samples * up + phase) / down + 1));
+    }
+
+    /**
+     * Resamples {@code in[offset, offset + length)} into {@code out} starting at {@code outOffset}
+     * and returns the number of bytes written. {@code out} needs room for {@link #maxOutputBytes}.
+     * Samples may straddle calls.
+     */
+    public int process(byte[] in, int offset, int length, byte[] out, int outOffset) {
+        int o = outOffset;
+        int i = offset;
+        int end = offset + length;
+        if (pendingLowByte >= 0 && i < end) {
+            o = push((short) (pendingLowByte | (in[i++] << 8)), out, o);
+            pendingLowByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            o = push((short) ((in[i] & 0xff) | (in[i + 1] << 8)), out, o);
+        }
+        if (i < end) {
+            pendingLowByte = in[i] & 0xff;
+        }
+        return o - outOffset;
+    }
+
+    /**
+     * Forgets the filter state so the next call starts a new stream; the filter itself is kept.
+     */
+    public void reset() {
+        Arrays.fill(history, 0f);
+        historyPos = 0;
+        phase = 0;
+        pendingLowByte = -1;
+    }
+
+    /**
+     * Resamples a whole recording into a new one in the output format.
+     */
+    public PcmRecording process(PcmRecording recording) {
+        PcmRecording resampled = new PcmRecording(outputFormat());
+        recording.forEachChunk(into(resampled::append));
+        return resampled;
+    }
+
+    /**
+     * Returns a consumer that resamples every chunk it gets and passes the result on. Output is carved
+     * from shared blocks rather than one array per chunk, because downstream recordings keep the slices.
+     */
+    public PcmRecording.ChunkConsumer into(PcmRecording.ChunkConsumer downstream) {
+        return new PcmRecording.ChunkConsumer() {
+            private byte[] block = new byte[0];
+            private int used = 0;
+
+            @Override
+            public void accept(byte[] data, int offset, int length) {
+                int needed = maxOutputBytes(length);
+                if (block.length - used < needed) {
+                    block = new byte[Math.max(needed, 64 * 1024)];
+                    used = 0;
+                }
+                int n = process(data, offset, length, block, used);
+                downstream.accept(block, used, n);
+                used += n;
+            }
+        };
+    }
+
+    private int push(short sample, byte[] out, int o) {
+        // New sample goes in front: history[historyPos .. historyPos + taps) is newest to oldest
+        historyPos = historyPos == 0 ? taps - 1 : historyPos - 1;
+        history[historyPos] = sample;
+        history[historyPos + taps] = sample;
+
+        while (phase < up) {
+            float acc = 0f;
+            int c = phase * taps;
+            for (int j = 0; j < taps; j++) {
+                acc += coefficients[c + j] * history[historyPos + j];
+            }
+            int value = Math.round(acc);
+            if (value > Short.MAX_VALUE) {
+                value = Short.MAX_VALUE;
+            } else if (value < Short.MIN_VALUE) {
+                value = Short.MIN_VALUE;
+            }
+            out[o++] = (byte) value;
+            out[o++] = (byte) (value >> 8);
+            phase += down;
+        }
+        phase -= up;
+        return o;
+    }
+
+    // Kaiser-windowed sinc at up * inputRate, split into `up` phases of `taps` coefficients each
+    private static float[] designFilter(int up, int down, int taps, Quality quality) {
+        int length = up * taps;
+        double cutoff = quality.cutoff * 0.5 / Math.max(up, down);   // cycles per sample at the upsampled rate
+        double center = (length - 1) / 2.0;
+        double[] prototype = new double[length];
+        double i0Beta = besselI0(quality.kaiserBeta);
+        for (int n = 0; n < length; n++) {
+            double x = n - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double ratio = 2.0 * n / (length - 1) - 1;
+            double window = besselI0(quality.kaiserBeta * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / i0Beta;
+            prototype[n] = sinc * window;
+        }
+
+        float[] coefficients = new float[length];
+        for (int p = 0; p < up; p++) {
+            // Normalize each phase to unity DC gain so the output level does not ripple between phases
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                sum += prototype[p + j * up];
+            }
+            for (int j = 0; j < taps; j++) {
+                coefficients[p * taps + j] = (float) (prototype[p + j * up] / sum);
+            }
+        }
+        return coefficients;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < 1e-12 * sum) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
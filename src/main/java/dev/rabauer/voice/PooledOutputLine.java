@@ -0,0 +1,116 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * An open output line borrowed from an {@link OutputLinePool}. Callers write in the format they asked
+ * for; if the device runs in a different native format the audio is converted on the way to the line.
+ * Hand it back with {@link #release()} when playback is done, or {@link #discard()} it if it misbehaved.
+ */
+public class PooledOutputLine {
+    private final OutputLinePool pool;
+    private final String key;
+    private final SourceDataLine line;
+    private final AudioFormat format;
+    private final PcmFormatConverter converter;
+    private byte[] converted = new byte[0];
+    private boolean released = false;
+    long idleSinceNanos;
+
+    PooledOutputLine(OutputLinePool pool, String key, SourceDataLine line, AudioFormat format, PcmFormatConverter converter) {
+        this.pool = pool;
+        this.key = key;
+        this.line = line;
+        this.format = format;
+        this.converter = converter;
+    }
+
+    /**
+     * The format callers write in, which is not necessarily the device format.
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public AudioFormat deviceFormat() {
+        return line.getFormat();
+    }
+
+    public void start() {
+        line.start();
+    }
+
+    /**
+     * Writes whole frames in {@link #getFormat()}, blocking until the line has taken them.
+     */
+    public void write(byte[] data, int offset, int length) {
+        if (converter == null) {
+            line.write(data, offset, length);
+            return;
+        }
+        int needed = converter.maxOutputBytes(length);
+        if (converted.length < needed) {
+            converted = new byte[needed];
+        }
+        int n = converter.convert(data, offset, length, converted, 0);
+        line.write(converted, 0, n);
+    }
+
+    public void drain() {
+        line.drain();
+    }
+
+    public void stop() {
+        line.stop();
+    }
+
+    public void flush() {
+        line.flush();
+    }
+
+    /**
+     * Audio the device has played since the line was opened, in microseconds; it keeps counting across
+     * borrowers.
+     */
+    public long microsecondPosition() {
+        return line.getMicrosecondPosition();
+    }
+
+    /**
+     * Returns the line to the pool, still open, for the next playback.
+     */
+    public synchronized void release() {
+        if (!released) {
+            released = true;
+            pool.release(this);
+        }
+    }
+
+    /**
+     * Closes the line instead of pooling it.
+     */
+    public synchronized void discard() {
+        if (!released) {
+            released = true;
+            line.close();
+        }
+    }
+
+    String key() {
+        return key;
+    }
+
+    SourceDataLine line() {
+        return line;
+    }
+
+    // Prepares a pooled line for its next borrower
+    synchronized PooledOutputLine reuse() {
+        released = false;
+        if (converter != null) {
+            converter.reset();
+        }
+        return this;
+    }
+}
@@ -0,0 +1,212 @@
+package dev.rabauer.voice;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming front end for Realtime WebSocket messages. Reads {@code type} with a {@link JsonParser},
+ * dispatches through a handler registry, decodes audio deltas straight into a reusable buffer and
+ * only builds a {@link JsonNode} tree for event types whose handler asks for one.
+ */
+public class RealtimeEventParser {
+
+    /** Receives the full event tree for a registered type. */
+    public interface EventHandler {
+        void onEvent(String type, JsonNode event, CharSequence raw);
+    }
+
+    /** Receives decoded PCM from a Base64 field; the buffer is reused for the next event. */
+    public interface AudioHandler {
+        void onAudio(byte[] pcm, int offset, int length);
+    }
+
+    private record AudioRoute(String field, AudioHandler handler) {}
+
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final ObjectMapper mapper;
+    private final JsonFactory factory;
+    private final Map<String, EventHandler> treeHandlers = new HashMap<>();
+    private final Map<String, AudioRoute> audioHandlers = new HashMap<>();
+    private EventHandler unhandled = (type, event, raw) -> {};
+
+    // Message fragments are accumulated here instead of in a StringBuilder, then parsed in place
+    private char[] message = new char[8192];
+    private int messageLength = 0;
+    private final CharSequence messageView = new CharSequence() {
+        @Override
+        public int length() {
+            return messageLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return message[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(message, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(message, 0, messageLength);
+        }
+    };
+    private byte[] base64 = new byte[0];
+    private byte[] audio = new byte[16384];
+
+    public RealtimeEventParser(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.factory = mapper.getFactory();
+    }
+
+    public RealtimeEventParser on(String type, EventHandler handler) {
+        treeHandlers.put(type, handler);
+        return this;
+    }
+
+    public RealtimeEventParser onAudio(String type, String base64Field, AudioHandler handler) {
+        audioHandlers.put(type, new AudioRoute(base64Field, handler));
+        return this;
+    }
+
+    /**
+     * Handler for types without a registration; it gets a {@code null} tree so nothing is built for it.
+     */
+    public RealtimeEventParser otherwise(EventHandler handler) {
+        this.unhandled = handler;
+        return this;
+    }
+
+    /**
+     * Feeds one WebSocket text fragment; the message is parsed and dispatched once {@code last} is true.
+     * Returns false if the completed message was not a JSON object.
+     */
+    public boolean accept(CharSequence fragment, boolean last) throws IOException {
+        int n = fragment.length();
+        ensureCapacity(messageLength + n);
+        if (fragment instanceof String s) {
+            s.getChars(0, n, message, messageLength);
+        } else {
+            for (int i = 0; i < n; i++) {
+                message[messageLength + i] = fragment.charAt(i);
+            }
+        }
+        messageLength += n;
+        if (!last) {
+            return true;
+        }
+        try {
+            return messageLength > 0 && message[0] == '{' && dispatch();
+        } finally {
+            messageLength = 0;
+        }
+    }
+
+    /**
+     * Parses and dispatches one complete message.
+     */
+    public boolean dispatch(char[] json, int offset, int length) throws IOException {
+        ensureCapacity(length);
+        System.arraycopy(json, offset, message, 0, length);
+        messageLength = length;
+        try {
+            return dispatch();
+        } finally {
+            messageLength = 0;
+        }
+    }
+
+    private boolean dispatch() throws IOException {
+        String type = null;
+        try (JsonParser p = factory.createParser(message, 0, messageLength)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            AudioRoute audioRoute = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                if (type == null && "type".equals(field) && value == JsonToken.VALUE_STRING) {
+                    type = p.getText();
+                    audioRoute = audioHandlers.get(type);
+                    if (audioRoute == null) {
+                        // Everything else either wants the full tree or is not interesting at all
+                        break;
+                    }
+                } else if (audioRoute != null && audioRoute.field().equals(field) && value == JsonToken.VALUE_STRING) {
+                    int len = decodeBase64(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+                    audioRoute.handler().onAudio(audio, 0, len);
+                    return true;
+                } else {
+                    // Other values (including large ones arriving before "type") are skipped, not built
+                    p.skipChildren();
+                }
+            }
+        }
+        if (type == null) {
+            return true;
+        }
+
+        AudioRoute audioRoute = audioHandlers.get(type);
+        if (audioRoute != null) {
+            // "type" came after the audio field; take the slow path once
+            JsonNode tree = mapper.readTree(factory.createParser(message, 0, messageLength));
+            JsonNode b64 = tree.path(audioRoute.field());
+            if (b64.isTextual()) {
+                char[] chars = b64.asText().toCharArray();
+                int len = decodeBase64(chars, 0, chars.length);
+                audioRoute.handler().onAudio(audio, 0, len);
+            }
+            return true;
+        }
+
+        EventHandler handler = treeHandlers.get(type);
+        if (handler == null) {
+            unhandled.onEvent(type, null, messageView);
+            return true;
+        }
+        JsonNode tree = mapper.readTree(factory.createParser(message, 0, messageLength));
+        handler.onEvent(type, tree, messageView);
+        return true;
+    }
+
+    // Decodes standard Base64 into the reusable audio buffer and returns the number of bytes
+    private int decodeBase64(char[] chars, int offset, int length) {
+        // The JDK decoder is intrinsified but needs an exactly sized byte[]; deltas mostly share one size
+        if (base64.length != length) {
+            base64 = new byte[length];
+        }
+        int nonAscii = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[offset + i];
+            nonAscii |= c;
+            base64[i] = (byte) c;
+        }
+        if (nonAscii > 0x7f) {
+            throw new IllegalArgumentException("Invalid Base64 character");
+        }
+        int maxBytes = length / 4 * 3 + 3;
+        if (audio.length < maxBytes) {
+            audio = new byte[Math.max(maxBytes, audio.length * 2)];
+        }
+        return DECODER.decode(base64, audio);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (message.length < capacity) {
+            message = Arrays.copyOf(message, Math.max(capacity, message.length * 2));
+        }
+    }
+}
@@ -2,18 +2,21 @@ package dev.rabauer.voice;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.WebSocket;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 @Singleton
@@ -22,30 +25,93 @@ public class RealtimeOpenAIClient {
 
     private final ObjectMapper mapper = new ObjectMapper();
 
+    @Inject
+    OpenAiHttpClient http;
+    @Inject
+    VoiceMetrics metrics;
+
     @ConfigProperty(name = "openai.api.key")
     String apiKey;
 
     @ConfigProperty(name = "openai.realtime.url", defaultValue = "wss://api.openai.com/v1/realtime?model=gpt-4o-realtime-preview")
     String realtimeUrl;
 
+    @ConfigProperty(name = "app.voice", defaultValue = "alloy")
+    String voice;
+
+    // Duration of PCM coalesced into one append message, and how many may queue before audio is dropped
+    @ConfigProperty(name = "openai.realtime.uplink.frameMs", defaultValue = "100")
+    int uplinkFrameMs;
+
+    @ConfigProperty(name = "openai.realtime.uplink.queueFrames", defaultValue = "20")
+    int uplinkQueueFrames;
+
+    @ConfigProperty(name = "app.systemPrompt", defaultValue = "You are a helpful assistant.")
+    String systemPrompt;
+
     private volatile WebSocket ws;
+    private volatile RealtimeUplink uplink;
+    private volatile boolean wasConnected = false;
+    private int messageChars = 0;
     private Consumer<String> onFinalTranscript = s -> {};
-    private int audioChunkCount = 0;
     private CompletableFuture<String> transcriptFuture = new CompletableFuture<>();
-    private StringBuilder textBuffer = new StringBuilder();
+    // Event type -> handler; audio deltas are decoded without building a JSON tree
+    private final RealtimeEventParser events = new RealtimeEventParser(mapper)
+            .on("conversation.item.input_audio_transcription.completed", this::onInputTranscription)
+            // When turn_detection is null, we need to get transcript from conversation.item.created
+            .on("conversation.item.created", this::onConversationItem)
+            .on("conversation.item.added", this::onConversationItem)
+            // AI response audio: base64 PCM16 chunks to play as they arrive
+            .onAudio("response.output_audio.delta", "delta", this::writeAudio)
+            .onAudio("response.audio.delta", "delta", this::writeAudio)
+            .on("response.created", this::onResponseCreated)
+            .on("response.output_item.added", this::onResponseItem)
+            .on("response.done", this::onResponseDone)
+            .on("response.output_audio_transcript.done", this::onResponseTranscript)
+            .on("session.created", this::onSession)
+            .on("session.updated", this::onSession)
+            .on("error", this::onErrorEvent)
+            .otherwise((type, event, raw) -> log.debug("Received event type: {}", type));
+    // Where the audio of the response being streamed goes; null while it is not the current one
+    private volatile PcmStreamPlayer audioOutput;
+    // Responses asked for that the server has not named in response.created yet, oldest first
+    private final Queue<SpokenResponse> unnamed = new ConcurrentLinkedQueue<>();
+    // Named responses that are not done, by response id; late events of any other id are dropped
+    private final Map<String, SpokenResponse> responses = new ConcurrentHashMap<>();
+    // The response the current turn waits for
+    private volatile SpokenResponse current;
+    // The assistant message the current response is speaking, so an interrupted one can be cut to what was heard
+    private volatile String responseItemId;
+    // Flight recorder events of the turn being answered; null once committed
+    private volatile TurnEvents.Turn turn = TurnEvents.current();
+    private volatile TurnEvents.TranscriptionEvent transcriptionEvent;
+    private volatile TurnEvents.LlmResponseEvent responseEvent;
+    private volatile long uploadedNanos;
+    private volatile long responseStartNanos;
+    private volatile long firstAudioNanos = -1;
+    private volatile int replyChars;
+    private volatile long committedBytes = 0;
+
+    @PostConstruct
+    void init() {
+        metrics.bindRealtimeUplink(() -> uplink);
+    }
 
     public CompletableFuture<Void> connect() {
         if (apiKey == null || apiKey.isBlank()) {
             return CompletableFuture.failedFuture(new IllegalStateException("Missing openai.api.key"));
         }
-        audioChunkCount = 0;
-        HttpClient client = HttpClient.newHttpClient();
         log.info("Connecting to OpenAI Realtime: {}", realtimeUrl);
-        return client.newWebSocketBuilder()
+        return http.client().newWebSocketBuilder()
                 .header("Authorization", "Bearer " + apiKey)
+                .connectTimeout(http.connectTimeout())
                 .buildAsync(URI.create(realtimeUrl), new WebSocket.Listener() {
                     @Override
                     public void onOpen(WebSocket webSocket) {
+                        // 24kHz PCM16 mono = 48 bytes per ms
+                        uplink = new RealtimeUplink(webSocket, uplinkFrameMs * 48, uplinkQueueFrames);
+                        committedBytes = 0;
+                        wasConnected = true;
                         ws = webSocket;
                         log.info("Realtime WebSocket opened");
                         
@@ -72,18 +138,26 @@ public class RealtimeOpenAIClient {
                             inputConfig.set("transcription", transcriptionConfig);
                             inputConfig.set("turn_detection", turnDetectionConfig);
                             
+                            // Spoken responses come back as 24kHz PCM16 deltas, same format as the input
+                            var outputConfig = mapper.createObjectNode();
+                            outputConfig.set("format", formatConfig.deepCopy());
+                            outputConfig.put("voice", voice);
+                            
                             var audioConfig = mapper.createObjectNode();
                             audioConfig.set("input", inputConfig);
+                            audioConfig.set("output", outputConfig);
                             
                             var session = mapper.createObjectNode();
                             session.put("type", "realtime");  // Explicitly set session type for conversation mode
+                            session.put("instructions", systemPrompt);
+                            session.putArray("output_modalities").add("audio");
                             session.set("audio", audioConfig);
                             
                             var sessionUpdate = mapper.createObjectNode();
                             sessionUpdate.put("type", "session.update");
                             sessionUpdate.set("session", session);
                             
-                            webSocket.sendText(sessionUpdate.toString(), true);
+                            uplink.sendControl(sessionUpdate.toString());
                             log.info("Session update sent: transcription enabled with manual turn control (30s silence threshold)");
                         } catch (Exception e) {
                             log.error("Failed to update session", e);
@@ -94,96 +168,15 @@ public class RealtimeOpenAIClient {
 
                     @Override
                     public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
-                        // Accumulate text chunks
-                        textBuffer.append(data);
-                        
-                        // Only process when we have the complete message
-                        if (!last) {
-                            webSocket.request(1);
-                            return CompletableFuture.completedFuture(null);
+                        // Fragments are accumulated by the parser; the event is dispatched once the message is complete
+                        messageChars += data.length();
+                        if (last) {
+                            metrics.realtimeMessage(messageChars);
+                            messageChars = 0;
                         }
-                        
-                        String json = textBuffer.toString();
-                        textBuffer.setLength(0); // Clear buffer for next message
-                        
-                        // Skip non-JSON messages (likely audio data sent as base64 text)
-                        if (!json.startsWith("{")) {
-                            log.debug("Skipping non-JSON message (likely audio data): {} chars", json.length());
-                            webSocket.request(1);
-                            return CompletableFuture.completedFuture(null);
-                        }
-                        
                         try {
-                            JsonNode n = mapper.readTree(json);
-                            
-                            if (n.has("type")) {
-                                String eventType = n.get("type").asText();
-                                log.debug("Received event type: {}", eventType);
-                                
-                                // User input audio transcription (what the user said)
-                                if ("conversation.item.input_audio_transcription.completed".equals(eventType)) {
-                                    String transcript = n.path("transcript").asText();
-                                    if (!transcript.isEmpty()) {
-                                        log.info("=== USER INPUT TRANSCRIPT ===");
-                                        log.info("You said: {}", transcript);
-                                        transcriptFuture.complete(transcript);
-                                        onFinalTranscript.accept(transcript);
-                                    }
-                                }
-                                // When turn_detection is null, we need to get transcript from conversation.item.created
-                                else if ("conversation.item.created".equals(eventType) || "conversation.item.added".equals(eventType)) {
-                                    log.info("DEBUG: {} event: {}", eventType, json);
-                                    JsonNode item = n.path("item");
-                                    String itemType = item.path("type").asText();
-                                    if ("message".equals(itemType)) {
-                                        String role = item.path("role").asText();
-                                        if ("user".equals(role)) {
-                                            // Check if there's a transcript in the content
-                                            JsonNode content = item.path("content");
-                                            if (content.isArray() && content.size() > 0) {
-                                                for (JsonNode contentPart : content) {
-                                                    if ("input_audio".equals(contentPart.path("type").asText())) {
-                                                        String transcript = contentPart.path("transcript").asText();
-                                                        if (!transcript.isEmpty()) {
-                                                            log.info("=== USER INPUT TRANSCRIPT (from {}) ===", eventType);
-                                                            log.info("You said: {}", transcript);
-                                                            transcriptFuture.complete(transcript);
-                                                            onFinalTranscript.accept(transcript);
-                                                        }
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                                // AI response transcript (what the AI is saying back)
-                                else if ("response.output_audio_transcript.delta".equals(eventType)) {
-                                    // Skip logging deltas - too verbose
-                                }
-                                else if ("response.output_audio_transcript.done".equals(eventType)) {
-                                    String transcript = n.path("transcript").asText();
-                                    if (!transcript.isEmpty()) {
-                                        log.info("=== AI RESPONSE TRANSCRIPT ===");
-                                        log.info("AI said: {}", transcript);
-                                    }
-                                }
-                                // Speech detection events
-                                else if ("input_audio_buffer.speech_started".equals(eventType)) {
-                                    log.debug("Speech detected in audio buffer");
-                                }
-                                else if ("input_audio_buffer.speech_stopped".equals(eventType)) {
-                                    log.debug("Speech stopped in audio buffer");
-                                }
-                                // Session events
-                                else if ("session.created".equals(eventType) || "session.updated".equals(eventType)) {
-                                    // Log the session config to verify transcription is enabled
-                                    JsonNode transcription = n.path("session").path("audio").path("input").path("transcription");
-                                    log.info("Session {}: transcription enabled = {}", eventType, transcription.path("model").asText("none"));
-                                }
-                                // Error handling
-                                else if ("error".equals(eventType)) {
-                                    log.error("OpenAI error: {} - {} | Full event: {}", n.path("code").asText(), n.path("message").asText(), json);
-                                }
+                            if (!events.accept(data, last)) {
+                                log.debug("Skipping non-JSON message (likely audio data)");
                             }
                         } catch (Exception e) {
                             log.warn("Failed to parse realtime message", e);
@@ -194,10 +187,12 @@ public class RealtimeOpenAIClient {
 
                     @Override
                     public CompletionStage<?> onBinary(WebSocket webSocket, java.nio.ByteBuffer data, boolean last) {
-                        // OpenAI sends audio responses as binary data, we can ignore these for now
-                        // (they're the AI's voice, not needed for transcription)
+                        // Binary frames carry raw PCM16 response audio
                         int bytes = data.remaining();
                         log.debug("Received {} bytes of binary audio data", bytes);
+                        byte[] pcm = new byte[bytes];
+                        data.get(pcm);
+                        writeAudio(pcm, 0, bytes);
                         webSocket.request(1);
                         return CompletableFuture.completedFuture(null);
                     }
@@ -205,77 +200,371 @@ public class RealtimeOpenAIClient {
                     @Override
                     public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
                         log.info("Realtime WebSocket closed: {} - {}", statusCode, reason);
+                        ws = null;
+                        if (statusCode != WebSocket.NORMAL_CLOSURE) {
+                            metrics.error("realtime");
+                        }
+                        commitResponseEvent(false);
+                        failResponses(new IllegalStateException("Realtime WebSocket closed: " + reason));
                         return CompletableFuture.completedFuture(null);
                     }
 
                     @Override
                     public void onError(WebSocket webSocket, Throwable error) {
                         log.error("Realtime WebSocket error", error);
+                        ws = null;
+                        metrics.error("realtime");
+                        commitResponseEvent(false);
+                        failResponses(error);
                     }
                 }).thenAccept(w -> {});
     }
 
+    public boolean isConnected() {
+        return ws != null;
+    }
+
+    /**
+     * Whether a socket was open before, so connecting now is a reconnect.
+     */
+    public boolean wasConnected() {
+        return wasConnected;
+    }
+
+    /**
+     * Commits the streamed input audio and asks for a spoken response, which is played through {@code output}.
+     * The returned future completes when the server reports the response as done.
+     */
+    public CompletableFuture<Void> requestSpokenResponse(PcmStreamPlayer output) {
+        SpokenResponse response = new SpokenResponse(output);
+        response.done.whenComplete((v, error) -> {
+            String id = response.id;
+            if (id != null) {
+                responses.remove(id, response);
+            }
+            if (audioOutput == output) {
+                audioOutput = null;
+            }
+        });
+        current = response;
+        if (!commitAndCreateResponse(response)) {
+            response.done.completeExceptionally(new IllegalStateException("Failed to request a realtime response"));
+        }
+        return response.done;
+    }
+
+    // User input audio transcription (what the user said)
+    private void onInputTranscription(String type, JsonNode n, CharSequence raw) {
+        String transcript = n.path("transcript").asText();
+        if (!transcript.isEmpty()) {
+            log.info("=== USER INPUT TRANSCRIPT ===");
+            log.info("You said: {}", transcript);
+            commitTranscriptionEvent(transcript);
+            transcriptFuture.complete(transcript);
+            onFinalTranscript.accept(transcript);
+        }
+    }
+
+    private void onConversationItem(String type, JsonNode n, CharSequence raw) {
+        log.info("DEBUG: {} event: {}", type, raw);
+        JsonNode item = n.path("item");
+        if (!"message".equals(item.path("type").asText()) || !"user".equals(item.path("role").asText())) {
+            return;
+        }
+        // Check if there's a transcript in the content
+        for (JsonNode contentPart : item.path("content")) {
+            if ("input_audio".equals(contentPart.path("type").asText())) {
+                String transcript = contentPart.path("transcript").asText();
+                if (!transcript.isEmpty()) {
+                    log.info("=== USER INPUT TRANSCRIPT (from {}) ===", type);
+                    log.info("You said: {}", transcript);
+                    commitTranscriptionEvent(transcript);
+                    transcriptFuture.complete(transcript);
+                    onFinalTranscript.accept(transcript);
+                }
+            }
+        }
+    }
+
+    // The server answers response.create requests in order, so this names the oldest one not named yet
+    private void onResponseCreated(String type, JsonNode n, CharSequence raw) {
+        String id = n.path("response").path("id").asText();
+        SpokenResponse response = unnamed.poll();
+        if (response == null) {
+            log.debug("Ignoring response {}, which was not requested here", id);
+            audioOutput = null;
+            return;
+        }
+        response.id = id;
+        if (response.done.isDone()) {
+            // Cancelled before it had an id to cancel by
+            audioOutput = null;
+            RealtimeUplink writer = this.uplink;
+            if (writer != null && ws != null) {
+                writer.sendControl(mapper.createObjectNode()
+                        .put("type", "response.cancel")
+                        .put("response_id", id)
+                        .toString());
+            }
+            log.debug("Response {} was cancelled before it was created", id);
+            return;
+        }
+        responses.put(id, response);
+        audioOutput = response == current ? response.output : null;
+    }
+
+    // Events that name a response only count for the current one, not for the late tail of a cancelled one
+    private boolean isCurrent(JsonNode n) {
+        String id = n.path("response_id").asText(null);
+        SpokenResponse response = current;
+        return id == null || response != null && id.equals(response.id) && !response.done.isDone();
+    }
+
+    private void onResponseItem(String type, JsonNode n, CharSequence raw) {
+        JsonNode item = n.path("item");
+        if ("assistant".equals(item.path("role").asText()) && isCurrent(n)) {
+            responseItemId = item.path("id").asText(null);
+        }
+    }
+
+    /**
+     * Stops the response being played when the user barges in: the server stops generating, and the reply
+     * in the server-side conversation is cut to the {@code heardMs} the user actually heard. The future from
+     * {@link #requestSpokenResponse} completes right away.
+     */
+    public void cancelResponse(long heardMs) {
+        audioOutput = null;
+        SpokenResponse response = current;
+        if (response == null) {
+            return;
+        }
+        RealtimeUplink writer = this.uplink;
+        // Not created yet: nothing to cancel by id, it is cancelled when response.created names it
+        String id = response.id;
+        if (writer != null && ws != null) {
+            if (id != null && !response.done.isDone()) {
+                writer.sendControl(mapper.createObjectNode()
+                        .put("type", "response.cancel")
+                        .put("response_id", id)
+                        .toString());
+            }
+            String itemId = responseItemId;
+            if (itemId != null) {
+                writer.sendControl(mapper.createObjectNode()
+                        .put("type", "conversation.item.truncate")
+                        .put("item_id", itemId)
+                        .put("content_index", 0)
+                        .put("audio_end_ms", heardMs)
+                        .toString());
+            }
+            log.info("Cancelled realtime response after {} ms of audio", heardMs);
+        }
+        // Its response.done is dropped as late from here on; a barge-in is not a failed response
+        commitResponseEvent(true);
+        response.done.complete(null);
+    }
+
+    private void onResponseDone(String type, JsonNode n, CharSequence raw) {
+        String id = n.path("response").path("id").asText();
+        String status = n.path("response").path("status").asText();
+        SpokenResponse response = responses.get(id);
+        if (response == null) {
+            log.debug("Ignoring {} of response {} ({}), which is no longer current", type, id, status);
+            return;
+        }
+        log.info("Realtime response done: {}", status);
+        if (response == current) {
+            // Cancelled means the user barged in, not that the response failed
+            commitResponseEvent("completed".equals(status) || "cancelled".equals(status));
+        }
+        response.done.complete(null);
+    }
+
+    // AI response transcript (what the AI is saying back)
+    private void onResponseTranscript(String type, JsonNode n, CharSequence raw) {
+        String transcript = n.path("transcript").asText();
+        if (!transcript.isEmpty() && isCurrent(n)) {
+            log.info("=== AI RESPONSE TRANSCRIPT ===");
+            log.info("AI said: {}", transcript);
+            replyChars = transcript.length();
+        }
+    }
+
+    private void onSession(String type, JsonNode n, CharSequence raw) {
+        // Log the session config to verify transcription is enabled
+        JsonNode transcription = n.path("session").path("audio").path("input").path("transcription");
+        log.info("Session {}: transcription enabled = {}", type, transcription.path("model").asText("none"));
+    }
+
+    private void onErrorEvent(String type, JsonNode n, CharSequence raw) {
+        if ("response_cancel_not_active".equals(n.path("error").path("code").asText())) {
+            // The cancelled response had already finished; nothing the next one has to fail for
+            log.debug("Cancelled realtime response was no longer active");
+            return;
+        }
+        log.error("OpenAI error: {} - {} | Full event: {}", n.path("code").asText(), n.path("message").asText(), raw);
+        commitResponseEvent(false);
+        SpokenResponse response = current;
+        if (response != null) {
+            response.done.completeExceptionally(new IllegalStateException("Realtime error: " + n.path("error").path("message").asText(n.path("message").asText())));
+        }
+    }
+
+    // The socket is gone, and with it every response asked for on it
+    private void failResponses(Throwable error) {
+        audioOutput = null;
+        SpokenResponse response;
+        while ((response = unnamed.poll()) != null) {
+            response.done.completeExceptionally(error);
+        }
+        for (SpokenResponse named : responses.values()) {
+            named.done.completeExceptionally(error);
+        }
+        responses.clear();
+    }
+
+    private void writeAudio(byte[] pcm, int offset, int length) {
+        PcmStreamPlayer output = audioOutput;
+        if (output == null) {
+            return;
+        }
+        if (firstAudioNanos < 0) {
+            firstAudioNanos = System.nanoTime();
+        }
+        try {
+            output.write(pcm, offset, length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public void setOnFinalTranscript(Consumer<String> consumer) {
         this.onFinalTranscript = consumer != null ? consumer : (s) -> {};
     }
 
     public void appendPcm16(byte[] buffer, int length) {
-        WebSocket socket = this.ws;
-        if (socket == null) {
+        RealtimeUplink writer = this.uplink;
+        if (writer == null || ws == null) {
             log.warn("WebSocket is null, cannot send audio");
             return;
         }
-        byte[] copy = new byte[length];
-        System.arraycopy(buffer, 0, copy, 0, length);
-        String b64 = Base64.getEncoder().encodeToString(copy);
-        try {
-            String msg = mapper.createObjectNode()
-                    .put("type", "input_audio_buffer.append")
-                    .put("audio", b64)
-                    .toString();
-            
-            // Log first message to verify format
-            if (audioChunkCount == 0) {
-                log.info("First audio chunk message (truncated): {}", msg.substring(0, Math.min(200, msg.length())));
-                log.info("First 10 audio bytes: {}", java.util.Arrays.toString(java.util.Arrays.copyOf(copy, Math.min(10, length))));
-            }
-            audioChunkCount++;
-            
-            socket.sendText(msg, true);
-            log.info("Sent {} bytes of audio (chunk #{})", length, audioChunkCount);
-        } catch (Exception e) {
-            log.warn("Failed to send audio chunk", e);
-        }
+        writer.append(buffer, 0, length);
     }
 
-    public void commitAndCreateResponse() {
-        WebSocket socket = this.ws;
-        if (socket == null) return;
+    // False if the response could not be asked for, so no response.created will name it
+    private boolean commitAndCreateResponse(SpokenResponse response) {
+        RealtimeUplink writer = this.uplink;
+        if (writer == null || ws == null) return false;
         try {
             // Reset the future for new recording
             transcriptFuture = new CompletableFuture<>();
             
-            // First commit the audio buffer
-            String commit = mapper.createObjectNode().put("type", "input_audio_buffer.commit").toString();
-            socket.sendText(commit, true);
-            
-            // Wait a bit for the commit to process, then create response
+            beginTurnEvents(writer);
+
+            // Send the last partial frame, then commit; the uplink keeps these in order behind the audio
             // The conversation.item.added event will include transcription
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            
-            String create = mapper.createObjectNode().put("type", "response.create").toString();
-            socket.sendText(create, true);
+            writer.flush();
+            TurnEvents.Turn current = turn;
+            long bytes = writer.appendedBytes() - committedBytes;
+            committedBytes = writer.appendedBytes();
+            TurnEvents.UploadEvent upload = new TurnEvents.UploadEvent();
+            upload.begin();
+            long commitNanos = System.nanoTime();
+            writer.sendControl(mapper.createObjectNode().put("type", "input_audio_buffer.commit").toString())
+                    .thenRun(() -> {
+                        uploadedNanos = System.nanoTime();
+                        metrics.upload("realtime", "pcm16", bytes, uploadedNanos - commitNanos);
+                        upload.end();
+                        if (upload.shouldCommit()) {
+                            upload.turnId = current.id;
+                            upload.format = "pcm16";
+                            upload.bytes = bytes;
+                            upload.commit();
+                        }
+                    });
+            // Queued before it is sent, so response.created cannot arrive first
+            unnamed.add(response);
+            writer.sendControl(mapper.createObjectNode().put("type", "response.create").toString());
             
-            log.info("Committed audio and requested response, waiting for transcription...");
+            log.info("Committed audio and requested response, waiting for transcription... (uplink: {} sent, {} dropped, max queue depth {})",
+                    writer.sentFrames(), writer.droppedFrames(), writer.maxQueueDepth());
+            return true;
         } catch (Exception e) {
             log.warn("Failed to commit/create response", e);
+            unnamed.remove(response);
+            return false;
         }
     }
     
+    // The remaining audio is still being sent: transcription and the response are measured from the commit
+    private void beginTurnEvents(RealtimeUplink writer) {
+        turn = TurnEvents.current();
+        uploadedNanos = 0;
+        TurnEvents.TranscriptionEvent transcription = new TurnEvents.TranscriptionEvent();
+        transcription.begin();
+        transcriptionEvent = transcription;
+        TurnEvents.LlmResponseEvent response = new TurnEvents.LlmResponseEvent();
+        response.begin();
+        responseStartNanos = System.nanoTime();
+        firstAudioNanos = -1;
+        replyChars = 0;
+        responseItemId = null;
+        responseEvent = response;
+    }
+
+    private void commitTranscriptionEvent(String transcript) {
+        TurnEvents.TranscriptionEvent event = transcriptionEvent;
+        transcriptionEvent = null;
+        if (event == null) {
+            return;
+        }
+        metrics.transcription("realtime", System.nanoTime() - responseStartNanos, true);
+        event.end();
+        if (event.shouldCommit()) {
+            long uploaded = uploadedNanos;
+            event.turnId = turn.id;
+            event.afterUpload = uploaded > 0 ? System.nanoTime() - uploaded : 0;
+            event.transcriptChars = transcript.length();
+            event.succeeded = true;
+            event.commit();
+        }
+    }
+
+    // Both a barge-in and the socket's events may get here for the same response
+    private synchronized void commitResponseEvent(boolean succeeded) {
+        TurnEvents.LlmResponseEvent event = responseEvent;
+        responseEvent = null;
+        if (event == null) {
+            return;
+        }
+        long firstAudio = firstAudioNanos;
+        long timeToFirstAudio = firstAudio > 0 ? firstAudio - responseStartNanos : 0;
+        metrics.llm("realtime", true, false, timeToFirstAudio, System.nanoTime() - responseStartNanos,
+                replyChars, succeeded);
+        event.end();
+        if (event.shouldCommit()) {
+            event.turnId = turn.id;
+            event.model = "realtime";
+            event.streaming = true;
+            event.timeToFirstToken = timeToFirstAudio;
+            event.replyChars = replyChars;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    /**
+     * Discards the audio appended since the last commit, e.g. when the recording held no speech.
+     */
+    public void clearInputBuffer() {
+        RealtimeUplink writer = this.uplink;
+        if (writer == null || ws == null) return;
+        writer.flush();
+        committedBytes = writer.appendedBytes();
+        writer.sendControl(mapper.createObjectNode().put("type", "input_audio_buffer.clear").toString());
+        log.info("Cleared realtime input buffer");
+    }
+
     public CompletableFuture<String> waitForTranscript() {
         return transcriptFuture;
     }
@@ -287,6 +576,18 @@ public class RealtimeOpenAIClient {
                 socket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
             } catch (Exception ignored) {}
             this.ws = null;
+            this.uplink = null;
+        }
+    }
+
+    private static final class SpokenResponse {
+        final PcmStreamPlayer output;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        // From response.created
+        volatile String id;
+
+        SpokenResponse(PcmStreamPlayer output) {
+            this.output = output;
         }
     }
 }
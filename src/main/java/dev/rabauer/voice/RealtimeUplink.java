@@ -0,0 +1,239 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.WebSocket;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Single writer for a Realtime WebSocket. Coalesces captured PCM into fixed-duration
+ * {@code input_audio_buffer.append} frames that are Base64-encoded straight into pre-allocated
+ * char buffers, and sends one message at a time (the JDK WebSocket forbids overlapping sends).
+ * When the socket cannot keep up, the oldest queued audio frame is dropped; control messages never are.
+ */
+public class RealtimeUplink {
+    private static final Logger log = LoggerFactory.getLogger(RealtimeUplink.class);
+
+    private static final char[] PREFIX = "{\"type\":\"input_audio_buffer.append\",\"audio\":\"".toCharArray();
+    private static final char[] SUFFIX = "\"}".toCharArray();
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final WebSocket socket;
+    private final byte[] pending;
+    private int pendingLength = 0;
+
+    // Audio frame slots are allocated once and recycled after their send completes
+    private final ArrayDeque<Frame> free = new ArrayDeque<>();
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private Frame inFlight;
+    private final BiConsumer<Object, Throwable> onSent = this::onSent;
+
+    private long appendedBytes = 0;
+    private long sentFrames = 0;
+    private long droppedFrames = 0;
+    private long failedSends = 0;
+    private int maxQueueDepth = 0;
+
+    private static final class Frame {
+        final char[] chars;
+        final CharBuffer view;
+        final String control;
+        final CompletableFuture<Void> sent;
+
+        Frame(int capacity) {
+            this.chars = new char[capacity];
+            this.view = CharBuffer.wrap(chars);
+            this.control = null;
+            this.sent = null;
+            System.arraycopy(PREFIX, 0, chars, 0, PREFIX.length);
+        }
+
+        Frame(String control) {
+            this.chars = null;
+            this.view = null;
+            this.control = control;
+            this.sent = new CompletableFuture<>();
+        }
+
+        CharSequence message() {
+            return control != null ? control : view;
+        }
+    }
+
+    /**
+     * @param frameBytes  PCM bytes per append message (e.g. 100 ms of 24 kHz PCM16 = 4800)
+     * @param queueFrames audio frames that may wait for the socket before the oldest is dropped
+     */
+    public RealtimeUplink(WebSocket socket, int frameBytes, int queueFrames) {
+        this.socket = socket;
+        this.pending = new byte[frameBytes - frameBytes % 2];
+        int capacity = PREFIX.length + (pending.length + 2) / 3 * 4 + SUFFIX.length;
+        // One extra slot for the frame currently on the wire
+        for (int i = 0; i < queueFrames + 1; i++) {
+            free.add(new Frame(capacity));
+        }
+    }
+
+    /**
+     * Adds captured PCM; full frames are queued for sending. Copies the data, so the buffer may be reused.
+     */
+    public synchronized void append(byte[] pcm, int offset, int length) {
+        appendedBytes += Math.max(0, length);
+        while (length > 0) {
+            int n = Math.min(length, pending.length - pendingLength);
+            System.arraycopy(pcm, offset, pending, pendingLength, n);
+            pendingLength += n;
+            offset += n;
+            length -= n;
+            if (pendingLength == pending.length) {
+                queueAudioFrame();
+            }
+        }
+    }
+
+    /**
+     * Queues the partially filled frame, if any, e.g. before committing the input buffer.
+     */
+    public synchronized void flush() {
+        if (pendingLength > 0) {
+            queueAudioFrame();
+        }
+    }
+
+    /**
+     * Queues a non-audio message behind all audio appended so far. The returned future completes once it
+     * has been handed to the socket, i.e. after all audio before it.
+     */
+    public synchronized CompletableFuture<Void> sendControl(String json) {
+        Frame frame = new Frame(json);
+        queue.add(frame);
+        sendNext();
+        return frame.sent;
+    }
+
+    /**
+     * PCM bytes appended since the uplink was opened, including any later dropped.
+     */
+    public synchronized long appendedBytes() {
+        return appendedBytes;
+    }
+
+    public synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    public synchronized long droppedFrames() {
+        return droppedFrames;
+    }
+
+    public synchronized long sentFrames() {
+        return sentFrames;
+    }
+
+    public synchronized int maxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    private void queueAudioFrame() {
+        Frame frame = free.poll();
+        if (frame == null) {
+            frame = dropOldestAudio();
+            if (frame == null) {
+                // Only control messages are waiting; drop the new audio instead
+                droppedFrames++;
+                pendingLength = 0;
+                return;
+            }
+        }
+        int len = encode(pending, pendingLength, frame.chars);
+        frame.view.clear().limit(len);
+        pendingLength = 0;
+        queue.add(frame);
+        maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        sendNext();
+    }
+
+    private Frame dropOldestAudio() {
+        for (var it = queue.iterator(); it.hasNext(); ) {
+            Frame queued = it.next();
+            if (queued.control == null) {
+                it.remove();
+                droppedFrames++;
+                if (droppedFrames == 1 || droppedFrames % 50 == 0) {
+                    log.warn("Realtime uplink is behind: {} audio frames dropped, queue depth {}", droppedFrames, queue.size());
+                }
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    // Chains the next send on the completion of the previous one
+    private void sendNext() {
+        if (inFlight != null || queue.isEmpty()) {
+            return;
+        }
+        inFlight = queue.poll();
+        try {
+            socket.sendText(inFlight.message(), true).whenComplete(onSent);
+        } catch (RuntimeException e) {
+            onSent(null, e);
+        }
+    }
+
+    private synchronized void onSent(Object ignored, Throwable error) {
+        Frame sent = inFlight;
+        inFlight = null;
+        if (error != null) {
+            failedSends++;
+            if (failedSends == 1) {
+                log.warn("Failed to send to realtime socket", error);
+            }
+        } else {
+            sentFrames++;
+        }
+        if (sent != null && sent.control == null) {
+            free.add(sent);
+        } else if (sent != null) {
+            if (error != null) {
+                sent.sent.completeExceptionally(error);
+            } else {
+                sent.sent.complete(null);
+            }
+        }
+        sendNext();
+    }
+
+    // Writes the append message for pcm[0, length) into out (after the pre-filled prefix); returns its length
+    static int encode(byte[] pcm, int length, char[] out) {
+        int o = PREFIX.length;
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (pcm[i] & 0xff) << 16 | (pcm[i + 1] & 0xff) << 8 | (pcm[i + 2] & 0xff);
+            out[o++] = BASE64[bits >>> 18];
+            out[o++] = BASE64[(bits >>> 12) & 0x3f];
+            out[o++] = BASE64[(bits >>> 6) & 0x3f];
+            out[o++] = BASE64[bits & 0x3f];
+        }
+        int rest = length - i;
+        if (rest == 1) {
+            int bits = (pcm[i] & 0xff) << 16;
+            out[o++] = BASE64[bits >>> 18];
+            out[o++] = BASE64[(bits >>> 12) & 0x3f];
+            out[o++] = '=';
+            out[o++] = '=';
+        } else if (rest == 2) {
+            int bits = (pcm[i] & 0xff) << 16 | (pcm[i + 1] & 0xff) << 8;
+            out[o++] = BASE64[bits >>> 18];
+            out[o++] = BASE64[(bits >>> 12) & 0x3f];
+            out[o++] = BASE64[(bits >>> 6) & 0x3f];
+            out[o++] = '=';
+        }
+        System.arraycopy(SUFFIX, 0, out, o, SUFFIX.length);
+        return o + SUFFIX.length;
+    }
+}
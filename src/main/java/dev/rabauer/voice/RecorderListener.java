@@ -1,10 +1,29 @@
 package dev.rabauer.voice;
 
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
+import java.io.IOException;
 
 public interface RecorderListener {
     void onRecordingStarted();
-    void onRecordingStopped(File wavFile);
+
+    // Called with the audio still in memory; override this instead of the File variant to avoid a disk write
+    default void onRecordingStopped(PcmRecording recording) {
+        try {
+            onRecordingStopped(recording.writeTempWav());
+        } catch (IOException e) {
+            LoggerFactory.getLogger(RecorderListener.class).error("Failed to write recording for listener", e);
+        }
+    }
+
+    /**
+     * @deprecated forces the recording onto disk before the listener runs;
+     * override {@link #onRecordingStopped(PcmRecording)} instead.
+     */
+    @Deprecated
+    default void onRecordingStopped(File wavFile) {}
+
     void onProcessingStarted(); // Transcribing, generating, or playing
     void onProcessingFinished();
 }
@@ -0,0 +1,70 @@
+package dev.rabauer.voice;
+
+import java.util.function.Consumer;
+
+/**
+ * Splits streamed LLM tokens into sentence or clause sized chunks that can be synthesized independently.
+ */
+public class SentenceChunker {
+    private final Consumer<String> onChunk;
+    private final int minChars;
+    private final int maxChars;
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * @param minChars sentences shorter than this are merged with the following one
+     * @param maxChars beyond this length a clause break (comma, semicolon, colon) also ends a chunk
+     */
+    public SentenceChunker(Consumer<String> onChunk, int minChars, int maxChars) {
+        this.onChunk = onChunk;
+        this.minChars = minChars;
+        this.maxChars = maxChars;
+    }
+
+    public void accept(String token) {
+        pending.append(token);
+        int cut;
+        while ((cut = findCut()) > 0) {
+            emit(pending.substring(0, cut));
+            pending.delete(0, cut);
+        }
+    }
+
+    /**
+     * Emits whatever is left once the LLM stream has completed.
+     */
+    public void flush() {
+        emit(pending.toString());
+        pending.setLength(0);
+    }
+
+    // Returns the end index of the first complete chunk in the pending text, or -1
+    private int findCut() {
+        // Only cut at punctuation that is followed by whitespace, so "3.5" or "e.g." mid-token is not split
+        for (int i = 0; i + 1 < pending.length(); i++) {
+            char c = pending.charAt(i);
+            if (c == '\n') {
+                if (i + 1 >= minChars) {
+                    return i + 1;
+                }
+                continue;
+            }
+            if (!Character.isWhitespace(pending.charAt(i + 1))) {
+                continue;
+            }
+            boolean sentenceEnd = c == '.' || c == '!' || c == '?' || c == '…';
+            boolean clauseEnd = c == ',' || c == ';' || c == ':';
+            if ((sentenceEnd && i + 1 >= minChars) || (clauseEnd && i + 1 >= maxChars)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void emit(String chunk) {
+        String text = chunk.strip();
+        if (!text.isEmpty()) {
+            onChunk.accept(text);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Synthesizes text chunks with up to N concurrent TTS requests and plays the results strictly in order,
+ * back to back on one output line, so the first sentence is audible while later ones are still generated.
+ * Requests start as soon as chunks are queued; playback starts once the speaker is handed a player, which
+ * may be later if an earlier reply is still playing. Chunks found in the TTS cache are played from it without
+ * a request; the others are cached as they play. Cancelling the turn aborts the outstanding requests and
+ * ends playback, and {@link #heardText()} tells how much of the reply got through.
+ */
+public class SentenceSpeaker {
+    private static final Logger log = LoggerFactory.getLogger(SentenceSpeaker.class);
+    private static final Chunk END = new Chunk(-1, null);
+
+    private final TtsPlayer tts;
+    private final String ttsUrl;
+    private final String apiKey;
+    private final String voice;
+    private final int parallelism;
+    private final TurnEvents.Turn turn = TurnEvents.current();
+
+    // Guards the fields below; not synchronized, as sending may wait for the TTS stage on a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
+    // Chunks not yet sent, and sent chunks in playback order
+    private final Deque<Chunk> waiting = new ArrayDeque<>();
+    private final BlockingQueue<Chunk> playOrder = new LinkedBlockingQueue<>();
+    private int inFlight = 0;
+    private int nextIndex = 0;
+    private boolean finished = false;
+    private boolean endQueued = false;
+    // Chunks that reached the player, in order; only touched by the thread playing them
+    private final List<Chunk> played = new ArrayList<>();
+    private volatile PcmStreamPlayer player;
+
+    private static final class Chunk {
+        final int index;
+        final String text;
+        CompletableFuture<HttpResponse<InputStream>> response;
+        ByteBuffer cached;
+        final TurnEvents.TtsRequestEvent event = new TurnEvents.TtsRequestEvent();
+        long sentNanos;
+        long headersNanos;
+        // Where the chunk's audio ends in the player's stream
+        long endByte;
+
+        Chunk(int index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+
+    SentenceSpeaker(TtsPlayer tts, String ttsUrl, String apiKey, String voice, int parallelism) {
+        this.tts = tts;
+        this.ttsUrl = ttsUrl;
+        this.apiKey = apiKey;
+        this.voice = voice;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Queues one chunk of text. Only waits if the TTS pipeline stage is full, so it is safe to call from the
+     * LLM streaming callback.
+     */
+    public void speak(String text) {
+        lock.lock();
+        try {
+            if (finished) {
+                throw new IllegalStateException("SentenceSpeaker already finished");
+            }
+            if (turn.cancellation.isCancelled()) {
+                return;
+            }
+            waiting.add(new Chunk(nextIndex++, text));
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signals that no more chunks will follow.
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Plays the chunks on {@code player} as their audio arrives and returns once every chunk has been played,
+     * which needs {@link #finish()}, or as soon as the turn is cancelled. The player is finished afterwards.
+     */
+    public void playOn(PcmStreamPlayer player) throws InterruptedException {
+        this.player = player;
+        // Wakes the feed up wherever it waits: for the next chunk, for response headers or in a body read
+        TurnCancellation.Registration interrupt = turn.cancellation.onCancel(Thread.currentThread()::interrupt);
+        try {
+            feed(player);
+        } catch (InterruptedException e) {
+            if (!turn.cancellation.isCancelled()) {
+                throw e;
+            }
+        } finally {
+            interrupt.close();
+        }
+        if (turn.cancellation.isCancelled()) {
+            Thread.interrupted();
+            log.info("Pipelined TTS interrupted after {} ms of audio", player.playedMs());
+            return;
+        }
+        player.awaitCompletion();
+        if (player.firstSoundNanos() > 0) {
+            log.info("Pipelined TTS: {} chunks, first sound {} ms after the player was opened", nextIndex,
+                    (player.firstSoundNanos() - player.createdNanos()) / 1_000_000);
+        }
+    }
+
+    /**
+     * The text whose audio the player actually played, in full for whole chunks and cut back to a word for the
+     * chunk playback ended in. Call once {@link #playOn} has returned.
+     */
+    public String heardText() {
+        PcmStreamPlayer output = player;
+        if (output == null) {
+            return "";
+        }
+        long heard = output.playedBytes();
+        StringBuilder text = new StringBuilder();
+        long start = 0;
+        for (Chunk chunk : played) {
+            if (heard <= start) {
+                break;
+            }
+            String part = heard >= chunk.endByte ? chunk.text
+                    : TtsPlayer.heardPart(chunk.text, (heard - start) / (double) (chunk.endByte - start));
+            if (!part.isBlank()) {
+                text.append(text.isEmpty() ? "" : " ").append(part.strip());
+            }
+            start = chunk.endByte;
+        }
+        return text.toString();
+    }
+
+    // Starts requests in chunk order while fewer than `parallelism` responses are outstanding
+    private void dispatch() {
+        if (turn.cancellation.isCancelled()) {
+            waiting.clear();
+        }
+        while (inFlight < parallelism && !waiting.isEmpty()) {
+            Chunk chunk = waiting.poll();
+            chunk.event.begin();
+            chunk.cached = tts.cachedAudio(chunk.text, voice, "pcm");
+            chunk.sentNanos = System.nanoTime();
+            if (chunk.cached == null) {
+                // Responses may wait for earlier chunks to play; note when the headers actually arrived
+                chunk.response = turn.cancellation.cancelling(tts.sendPcmRequest(ttsUrl, apiKey, chunk.text, voice))
+                        .whenComplete((resp, error) -> chunk.headersNanos = System.nanoTime());
+                inFlight++;
+                log.debug("TTS request for chunk #{} started ({} in flight): {}", chunk.index, inFlight, chunk.text);
+            } else {
+                log.debug("TTS chunk #{} cached: {}", chunk.index, chunk.text);
+            }
+            playOrder.add(chunk);
+        }
+        if (finished && waiting.isEmpty() && !endQueued) {
+            endQueued = true;
+            playOrder.add(END);
+        }
+    }
+
+    private void completed(Chunk chunk) {
+        lock.lock();
+        try {
+            if (chunk.response != null) {
+                inFlight--;
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void feed(PcmStreamPlayer player) throws InterruptedException {
+        byte[] buffer = new byte[4096];
+        try {
+            Chunk chunk;
+            while (!turn.cancellation.isCancelled() && (chunk = playOrder.take()) != END) {
+                TtsCache.Writer cacheWriter = null;
+                try {
+                    if (chunk.cached != null) {
+                        tts.commitTtsEvent(chunk.event, turn, "pcm", true, chunk.sentNanos, 0, chunk.text,
+                                chunk.cached.remaining());
+                        TtsPlayer.play(player, chunk.cached);
+                        chunk.endByte = player.queuedBytes();
+                        played.add(chunk);
+                        continue;
+                    }
+                    HttpResponse<InputStream> resp = chunk.response.join();
+                    try (InputStream body = resp.body()) {
+                        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+                            log.error("TTS request for chunk #{} failed: HTTP {}", chunk.index, resp.statusCode());
+                            tts.metrics.error("tts");
+                            continue;
+                        }
+                        cacheWriter = tts.cacheWriter(chunk.text, voice, "pcm");
+                        chunk.endByte = player.queuedBytes();
+                        played.add(chunk);
+                        long bytes = 0;
+                        int n;
+                        while ((n = body.read(buffer)) > 0) {
+                            player.write(buffer, 0, n);
+                            if (cacheWriter != null) {
+                                cacheWriter.write(buffer, 0, n);
+                            }
+                            bytes += n;
+                            chunk.endByte = player.queuedBytes();
+                        }
+                        if (turn.cancellation.isCancelled()) {
+                            // Cut off: not worth caching
+                            break;
+                        }
+                        if (cacheWriter != null) {
+                            cacheWriter.commit();
+                            cacheWriter = null;
+                        }
+                        tts.commitTtsEvent(chunk.event, turn, "pcm", false, chunk.sentNanos,
+                                chunk.headersNanos - chunk.sentNanos, chunk.text, bytes);
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    if (turn.cancellation.isCancelled()) {
+                        break;
+                    }
+                    log.error("TTS for chunk #{} failed, skipping it", chunk.index, e);
+                    tts.metrics.error("tts");
+                } finally {
+                    if (cacheWriter != null) {
+                        cacheWriter.abort();
+                    }
+                    completed(chunk);
+                }
+            }
+        } finally {
+            player.finish();
+            if (turn.cancellation.isCancelled()) {
+                discardUnplayed();
+            }
+        }
+    }
+
+    // Responses that arrived before the cancel would otherwise hold their connection streams open
+    private void discardUnplayed() {
+        Chunk chunk;
+        while ((chunk = playOrder.poll()) != null) {
+            if (chunk.response != null) {
+                chunk.response.thenAccept(resp -> {
+                    try {
+                        resp.body().close();
+                    } catch (Exception ignored) {
+                    }
+                });
+            }
+        }
+    }
+}
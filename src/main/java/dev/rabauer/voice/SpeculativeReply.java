@@ -0,0 +1,193 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Starts the chat reply from the stable part of the transcript while the user is still recording. Each time
+ * the stable transcript grows, the reply for the shorter one is cancelled and a new one started. When the
+ * final transcript is known, the reply is {@link #adopt adopted} if it was asked the same question (ignoring
+ * case and punctuation), with the tokens that arrived meanwhile replayed first; otherwise it is dropped and
+ * the turn asks again as usual.
+ */
+final class SpeculativeReply {
+    private static final Logger log = LoggerFactory.getLogger(SpeculativeReply.class);
+
+    private final LangchainAdapter llm;
+    private final VoiceMetrics metrics;
+    private final TurnEvents.Turn turn;
+    // Not synchronized: adopting replays tokens into the speaker, which may wait for room in the TTS stage
+    private final ReentrantLock lock = new ReentrantLock();
+    private Attempt attempt;
+    private boolean closed = false;
+
+    SpeculativeReply(LangchainAdapter llm, VoiceMetrics metrics, TurnEvents.Turn turn) {
+        this.llm = llm;
+        this.metrics = metrics;
+        this.turn = turn;
+    }
+
+    /**
+     * Asks for a reply to {@code transcript}, unless the running speculation already did.
+     */
+    void speculate(String transcript) {
+        lock.lock();
+        try {
+            if (closed || turn.cancellation.isCancelled()) {
+                return;
+            }
+            if (attempt != null) {
+                if (attempt.normalized.equals(normalize(transcript))) {
+                    return;
+                }
+                log.info("Stable transcript grew, restarting speculative reply");
+                attempt.cancel();
+            }
+            log.info("Speculative reply for: {}", transcript);
+            attempt = new Attempt(transcript);
+            attempt.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the speculative reply as the answer to {@code transcript} if it was asked the same question,
+     * passing its tokens to {@code onToken} (which may be null) in order, and records the turn in the history
+     * once it is complete. Returns null, cancelling any speculation, if the turn has to ask itself.
+     */
+    CompletableFuture<String> adopt(String transcript, Consumer<String> onToken) {
+        lock.lock();
+        try {
+            closed = true;
+            Attempt current = attempt;
+            attempt = null;
+            if (current == null) {
+                record("none", -1);
+                return null;
+            }
+            CompletableFuture<String> reply = current.reply;
+            boolean failed = reply.isDone() && LangchainAdapter.ERROR_REPLY.equals(reply.getNow(null));
+            if (failed || !current.normalized.equals(normalize(transcript))) {
+                log.info("Speculative reply {}, asking again", failed ? "failed" : "was for: " + current.transcript);
+                current.cancel();
+                record("miss", -1);
+                return null;
+            }
+            long saved = current.adopt(onToken);
+            log.info("Speculative reply adopted, {} ms ahead", saved / 1_000_000);
+            record("hit", saved);
+            // The history keeps the final transcript, which may differ in case and punctuation
+            return reply.whenComplete((text, error) -> {
+                current.withTurn.close();
+                if (text != null && !turn.cancellation.isCancelled()) {
+                    llm.remember(turn, transcript, text);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops whatever is still speculating; nothing more is started afterwards.
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            closed = true;
+            if (attempt != null) {
+                attempt.cancel();
+                attempt = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(String outcome, long savedNanos) {
+        metrics.speculation(outcome, savedNanos);
+        TurnEvents.SpeculationEvent event = new TurnEvents.SpeculationEvent();
+        if (event.shouldCommit()) {
+            event.turnId = turn.id;
+            event.outcome = outcome;
+            event.saved = Math.max(0, savedNanos);
+            event.commit();
+        }
+    }
+
+    // Whisper's segments may differ from the whole in case, punctuation and spacing only
+    static String normalize(String transcript) {
+        return transcript.toLowerCase(Locale.ROOT).replaceAll("[\\p{Punct}\\s]+", " ").strip();
+    }
+
+    /** One speculative request; tokens are held back until it is adopted. */
+    private final class Attempt {
+        final String transcript;
+        final String normalized;
+        // Its own cancellation, so a restart leaves the turn's alone; a barge-in cancels it too
+        final TurnCancellation cancellation = new TurnCancellation();
+        final TurnCancellation.Registration withTurn;
+        final ReentrantLock tokens = new ReentrantLock();
+        final List<String> held = new ArrayList<>();
+        Consumer<String> sink;
+        long startedNanos;
+        volatile long firstTokenNanos = -1;
+        CompletableFuture<String> reply;
+
+        Attempt(String transcript) {
+            this.transcript = transcript;
+            this.normalized = normalize(transcript);
+            this.withTurn = turn.cancellation.onCancel(cancellation::cancel);
+        }
+
+        void start() {
+            startedNanos = System.nanoTime();
+            reply = llm.streamTranscript(turn, transcript, this::accept, cancellation, false);
+        }
+
+        // Called on the LLM stream's thread, one token at a time
+        void accept(String token) {
+            if (firstTokenNanos < 0) {
+                firstTokenNanos = System.nanoTime();
+            }
+            tokens.lock();
+            try {
+                if (sink == null) {
+                    held.add(token);
+                } else {
+                    sink.accept(token);
+                }
+            } finally {
+                tokens.unlock();
+            }
+        }
+
+        // Returns how much earlier the first token came (or will come) than if the request started now
+        long adopt(Consumer<String> onToken) {
+            long now = System.nanoTime();
+            long first = firstTokenNanos;
+            tokens.lock();
+            try {
+                sink = onToken != null ? onToken : token -> {};
+                held.forEach(sink);
+                held.clear();
+            } finally {
+                tokens.unlock();
+            }
+            return (first > 0 ? Math.min(first, now) : now) - startedNanos;
+        }
+
+        void cancel() {
+            cancellation.cancel();
+            withTurn.close();
+        }
+    }
+}
@@ -7,9 +7,6 @@ import jakarta.inject.Inject;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Mixer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,8 +27,13 @@ public class TrayService implements RecorderListener {
     @Inject
     TtsPlayer ttsPlayer;
 
+    @Inject
+    AudioDeviceRegistry audioDevices;
+
     private TrayIcon trayIcon;
     private MenuItem recordMenuItem;
+    private Menu inputDeviceMenu;
+    private Menu outputDeviceMenu;
     private Image idleIcon;
     private Image recordingIcon;
     private Image busyIcon;
@@ -73,11 +75,11 @@ public class TrayService implements RecorderListener {
             });
 
             // Input device selection menu
-            Menu inputDeviceMenu = new Menu("Input Device");
+            inputDeviceMenu = new Menu("Input Device");
             addInputDeviceMenuItems(inputDeviceMenu);
 
             // Output device selection menu
-            Menu outputDeviceMenu = new Menu("Output Device");
+            outputDeviceMenu = new Menu("Output Device");
             addOutputDeviceMenuItems(outputDeviceMenu);
 
             MenuItem clearHistory = new MenuItem("Clear History");
@@ -105,6 +107,9 @@ public class TrayService implements RecorderListener {
             trayIcon.setImageAutoSize(true);
             tray.add(trayIcon);
 
+            // Rebuild the device menus when devices are plugged in or removed
+            audioDevices.addListener(devices -> EventQueue.invokeLater(this::rebuildDeviceMenus));
+
             audioCaptureService.setListener(this);
             hotkeyManager.start();
 
@@ -142,18 +147,25 @@ public class TrayService implements RecorderListener {
     }
 
     @Override
-    public void onRecordingStopped(File wavFile) {
+    public void onRecordingStopped(PcmRecording recording) {
         EventQueue.invokeLater(() -> {
             if (recordMenuItem != null) {
                 recordMenuItem.setLabel("Record");
             }
-            // Don't change icon here - processing will start immediately
+            // Don't change icon here - processing will start immediately, unless an earlier turn still is
+            if (trayIcon != null && audioCaptureService.isProcessing()) {
+                trayIcon.setImage(busyIcon);
+                trayIcon.setToolTip("OnDemand AI Voice - Processing...");
+            }
         });
     }
 
     @Override
     public void onProcessingStarted() {
         EventQueue.invokeLater(() -> {
+            if (audioCaptureService.isRecording()) {
+                return;
+            }
             if (trayIcon != null) {
                 log.info("Switching to busy icon");
                 trayIcon.setImage(busyIcon);
@@ -165,6 +177,10 @@ public class TrayService implements RecorderListener {
     @Override
     public void onProcessingFinished() {
         EventQueue.invokeLater(() -> {
+            // Turns overlap: the next one may already be recording or processing
+            if (audioCaptureService.isRecording() || audioCaptureService.isProcessing()) {
+                return;
+            }
             if (trayIcon != null) {
                 log.info("Switching to idle icon");
                 trayIcon.setImage(idleIcon);
@@ -203,6 +219,13 @@ public class TrayService implements RecorderListener {
         }
     }
 
+    private void rebuildDeviceMenus() {
+        inputDeviceMenu.removeAll();
+        addInputDeviceMenuItems(inputDeviceMenu);
+        outputDeviceMenu.removeAll();
+        addOutputDeviceMenuItems(outputDeviceMenu);
+    }
+
     private void addInputDeviceMenuItems(Menu menu) {
         // Add "System Default" option
         CheckboxMenuItem defaultItem = new CheckboxMenuItem("System Default");
@@ -215,25 +238,20 @@ public class TrayService implements RecorderListener {
         menu.addSeparator();
 
         // List all available input devices
-        Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-        for (Mixer.Info mixerInfo : mixers) {
-            Mixer mixer = AudioSystem.getMixer(mixerInfo);
-            // Check if this mixer supports recording (has target lines)
-            if (mixer.getTargetLineInfo().length > 0) {
-                String deviceName = mixerInfo.getName();
-                CheckboxMenuItem item = new CheckboxMenuItem(deviceName);
-                
-                // Check if this is the currently selected device
-                item.setState(audioCaptureService.getInputDevice()
-                    .map(current -> deviceName.contains(current))
-                    .orElse(false));
-                
-                item.addItemListener(e -> {
-                    audioCaptureService.setInputDevice(deviceName);
-                    trayIcon.displayMessage("Input Device Changed", deviceName, TrayIcon.MessageType.INFO);
-                });
-                menu.add(item);
-            }
+        for (AudioDeviceRegistry.AudioDevice device : audioDevices.captureDevices()) {
+            String deviceName = device.name();
+            CheckboxMenuItem item = new CheckboxMenuItem(deviceName);
+            
+            // Check if this is the currently selected device
+            item.setState(audioCaptureService.getInputDevice()
+                .map(current -> deviceName.contains(current))
+                .orElse(false));
+            
+            item.addItemListener(e -> {
+                audioCaptureService.setInputDevice(deviceName);
+                trayIcon.displayMessage("Input Device Changed", deviceName, TrayIcon.MessageType.INFO);
+            });
+            menu.add(item);
         }
     }
 
@@ -249,25 +267,20 @@ public class TrayService implements RecorderListener {
         menu.addSeparator();
 
         // List all available output devices
-        Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-        for (Mixer.Info mixerInfo : mixers) {
-            Mixer mixer = AudioSystem.getMixer(mixerInfo);
-            // Check if this mixer supports playback (has source lines)
-            if (mixer.getSourceLineInfo().length > 0) {
-                String deviceName = mixerInfo.getName();
-                CheckboxMenuItem item = new CheckboxMenuItem(deviceName);
-                
-                // Check if this is the currently selected device
-                item.setState(ttsPlayer.getOutputDevice()
-                    .map(current -> deviceName.contains(current))
-                    .orElse(false));
-                
-                item.addItemListener(e -> {
-                    ttsPlayer.setOutputDevice(deviceName);
-                    trayIcon.displayMessage("Output Device Changed", deviceName, TrayIcon.MessageType.INFO);
-                });
-                menu.add(item);
-            }
+        for (AudioDeviceRegistry.AudioDevice device : audioDevices.playbackDevices()) {
+            String deviceName = device.name();
+            CheckboxMenuItem item = new CheckboxMenuItem(deviceName);
+            
+            // Check if this is the currently selected device
+            item.setState(ttsPlayer.getOutputDevice()
+                .map(current -> deviceName.contains(current))
+                .orElse(false));
+            
+            item.addItemListener(e -> {
+                ttsPlayer.setOutputDevice(deviceName);
+                trayIcon.displayMessage("Output Device Changed", deviceName, TrayIcon.MessageType.INFO);
+            });
+            menu.add(item);
         }
     }
 } 
@@ -0,0 +1,319 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of synthesized speech. Entries are keyed by a hash of text, voice, model and
+ * response format and live in two tiers: files in a directory, memory-mapped on read and evicted least
+ * recently used once the directory exceeds its size bound, and a small heap tier for the hottest short
+ * phrases. Audio is streamed into a temporary file while it plays and only becomes visible once complete.
+ */
+public class TtsCache {
+    private static final Logger log = LoggerFactory.getLogger(TtsCache.class);
+    private static final String SUFFIX = ".audio";
+    // Heap hits refresh the file's modification time at most this often, it only orders entries across restarts
+    private static final long TOUCH_INTERVAL_MS = 60_000;
+
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final long maxHeapBytes;
+
+    // Access-ordered: first entry is the least recently used
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> heap = new LinkedHashMap<>(16, 0.75f, true);
+    // When each heap entry's file was last touched
+    private final Map<String, Long> touched = new HashMap<>();
+    // Evicted files Windows would not delete while still mapped; retried on the next eviction
+    private final List<Path> pendingDeletes = new ArrayList<>();
+    private long diskBytes = 0;
+    private long heapBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public TtsCache(Path directory, long maxDiskBytes, long maxHeapBytes) throws IOException {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxHeapBytes = maxHeapBytes;
+        Files.createDirectories(directory);
+        // Rebuild the LRU order from modification times, which hits keep current
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> entries = files.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(TtsCache::lastModified))
+                    .toList();
+            for (Path file : entries) {
+                long size = Files.size(file);
+                disk.put(keyOf(file), size);
+                diskBytes += size;
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().endsWith(".tmp")).forEach(TtsCache::deleteQuietly);
+        }
+        evict();
+        log.info("TTS cache at {}: {} entries, {} KB", directory, disk.size(), diskBytes / 1024);
+    }
+
+    /**
+     * Cache key for a synthesis request.
+     */
+    public static String key(String text, String voice, String model, String format) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{model, voice, format, text.strip()}) {
+                sha.update(part.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The cached audio as a read-only buffer, or null on a miss.
+     */
+    public ByteBuffer get(String key) {
+        Path file;
+        byte[] hot;
+        long now = System.currentTimeMillis();
+        boolean touch = false;
+        synchronized (this) {
+            hot = heap.get(key);
+            if (hot != null) {
+                hits++;
+                disk.get(key);
+                Long last = touched.get(key);
+                if (last == null || now - last >= TOUCH_INTERVAL_MS) {
+                    touched.put(key, now);
+                    touch = true;
+                }
+            } else if (disk.get(key) == null) {
+                misses++;
+                return null;
+            } else {
+                hits++;
+            }
+            file = fileOf(key);
+        }
+        if (hot != null) {
+            if (touch) {
+                touch(file, now);
+            }
+            return ByteBuffer.wrap(hot).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            promote(key, mapped, now);
+            return mapped;
+        } catch (IOException e) {
+            log.warn("Dropping unreadable TTS cache entry {}", file, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a complete response.
+     */
+    public void put(String key, byte[] audio) {
+        Writer writer = writer(key);
+        if (writer != null) {
+            writer.write(audio, 0, audio.length);
+            writer.commit();
+        }
+    }
+
+    /**
+     * Starts streaming a response into the cache, or returns null if it cannot be written.
+     */
+    public Writer writer(String key) {
+        try {
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            return new Writer(key, temp, Files.newOutputStream(temp));
+        } catch (IOException e) {
+            log.warn("Cannot write TTS cache entry {}", key, e);
+            return null;
+        }
+    }
+
+    public synchronized String stats() {
+        return String.format("%d hits, %d misses, %d entries, %d KB on disk, %d KB in memory",
+                hits, misses, disk.size(), diskBytes / 1024, heapBytes / 1024);
+    }
+
+    /** Receives audio as it is played; the entry appears only on {@link #commit()}. */
+    public final class Writer {
+        private final String key;
+        private final Path temp;
+        private final OutputStream out;
+        private long length = 0;
+        private boolean failed = false;
+
+        private Writer(String key, Path temp, OutputStream out) {
+            this.key = key;
+            this.temp = temp;
+            this.out = out;
+        }
+
+        public void write(byte[] data, int offset, int length) {
+            if (failed) {
+                return;
+            }
+            try {
+                out.write(data, offset, length);
+                this.length += length;
+            } catch (IOException e) {
+                log.warn("Writing TTS cache entry {} failed", key, e);
+                abort();
+            }
+        }
+
+        /**
+         * Publishes the entry; empty responses are not cached.
+         */
+        public void commit() {
+            if (failed) {
+                return;
+            }
+            try {
+                out.close();
+                if (length == 0) {
+                    abort();
+                    return;
+                }
+                Files.move(temp, fileOf(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                added(key, length);
+            } catch (IOException e) {
+                log.warn("Storing TTS cache entry {} failed", key, e);
+                abort();
+            }
+        }
+
+        /**
+         * Drops a partial or failed response.
+         */
+        public void abort() {
+            failed = true;
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Deleted below either way
+            }
+            deleteQuietly(temp);
+        }
+    }
+
+    private synchronized void added(String key, long length) {
+        pendingDeletes.remove(fileOf(key));
+        Long previous = disk.put(key, length);
+        diskBytes += length - (previous != null ? previous : 0);
+        evict();
+    }
+
+    // Keeps short entries in memory as well, within the heap bound
+    private void promote(String key, ByteBuffer mapped, long touchedMillis) {
+        if (mapped.remaining() > maxHeapBytes / 4) {
+            return;
+        }
+        byte[] copy = new byte[mapped.remaining()];
+        mapped.get(mapped.position(), copy);
+        synchronized (this) {
+            if (heap.put(key, copy) == null) {
+                heapBytes += copy.length;
+            }
+            touched.put(key, touchedMillis);
+            for (Iterator<Map.Entry<String, byte[]>> it = heap.entrySet().iterator(); heapBytes > maxHeapBytes && it.hasNext(); ) {
+                Map.Entry<String, byte[]> eldest = it.next();
+                heapBytes -= eldest.getValue().length;
+                touched.remove(eldest.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = disk.remove(key);
+        if (size != null) {
+            diskBytes -= size;
+        }
+        byte[] hot = heap.remove(key);
+        if (hot != null) {
+            heapBytes -= hot.length;
+        }
+        touched.remove(key);
+        pendingDeletes.add(fileOf(key));
+    }
+
+    private synchronized void evict() {
+        for (Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator(); diskBytes > maxDiskBytes && it.hasNext(); ) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            diskBytes -= eldest.getValue();
+            byte[] hot = heap.remove(eldest.getKey());
+            if (hot != null) {
+                heapBytes -= hot.length;
+            }
+            touched.remove(eldest.getKey());
+            pendingDeletes.add(fileOf(eldest.getKey()));
+        }
+        pendingDeletes.removeIf(TtsCache::deleteQuietly);
+    }
+
+    private Path fileOf(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static String keyOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    // Keeps the disk order of entries served from memory, which would otherwise look unused after a restart
+    private static void touch(Path file, long millis) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(millis));
+        } catch (IOException e) {
+            log.debug("Cannot touch TTS cache entry {}", file, e);
+        }
+    }
+
+    private static boolean deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
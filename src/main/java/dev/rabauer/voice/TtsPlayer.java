@@ -1,5 +1,10 @@
 package dev.rabauer.voice;
 
+import jakarta.annotation.PostConstruct;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
@@ -7,21 +12,145 @@ import org.slf4j.LoggerFactory;
 
 import javax.sound.sampled.*;
 import java.io.ByteArrayInputStream;
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.io.InputStream;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Singleton
 public class TtsPlayer {
     private static final Logger log = LoggerFactory.getLogger(TtsPlayer.class);
 
+    // OpenAI's "pcm" response format: 24 kHz, 16-bit signed little-endian, mono, no header
+    static final AudioFormat TTS_PCM_FORMAT = new AudioFormat(24000f, 16, 1, true, false);
+    private static final String TTS_MODEL = "tts-1";
+
+    @Inject
+    OpenAiHttpClient http;
+
+    @Inject
+    AudioDeviceRegistry devices;
+
+    @Inject
+    VoiceMetrics metrics;
+
+    @Inject
+    TurnPipeline pipeline;
+
     @ConfigProperty(name = "app.audio.outputDevice")
     Optional<String> outputDeviceName;
 
+    @ConfigProperty(name = "app.tts.prebufferMs", defaultValue = "60")
+    int prebufferMs;
+
+    @ConfigProperty(name = "app.tts.jitterBufferMs", defaultValue = "2000")
+    int jitterBufferMs;
+
+    @ConfigProperty(name = "app.tts.parallelism", defaultValue = "3")
+    int parallelism;
+
+    @ConfigProperty(name = "app.tts.outputLine.idleTimeoutMs", defaultValue = "30000")
+    long outputLineIdleTimeoutMs;
+
+    @ConfigProperty(name = "app.audio.resampler.quality", defaultValue = "balanced")
+    PolyphaseResampler.Quality resamplerQuality;
+
+    @ConfigProperty(name = "app.tts.cache.enabled", defaultValue = "true")
+    boolean cacheEnabled;
+
+    @ConfigProperty(name = "app.tts.cache.dir", defaultValue = "${user.home}/.on-demand-ai-voice-chat/tts-cache")
+    String cacheDir;
+
+    @ConfigProperty(name = "app.tts.cache.maxDiskMb", defaultValue = "256")
+    long cacheMaxDiskMb;
+
+    @ConfigProperty(name = "app.tts.cache.maxHeapKb", defaultValue = "4096")
+    long cacheMaxHeapKb;
+
+    @ConfigProperty(name = "app.tts.cache.prewarm")
+    Optional<List<String>> prewarmPhrases;
+
+    // Only needed to pre-warm the cache at startup; replies pass these in
+    @ConfigProperty(name = "app.tts.url", defaultValue = "https://api.openai.com/v1/audio/speech")
+    String ttsUrl;
+
+    @ConfigProperty(name = "openai.api.key")
+    Optional<String> apiKey;
+
+    @ConfigProperty(name = "app.voice", defaultValue = "alloy")
+    String voice;
+
+    @ConfigProperty(name = "app.tts.streaming", defaultValue = "true")
+    boolean ttsStreaming;
+
+    @ConfigProperty(name = "app.llm.streaming", defaultValue = "true")
+    boolean llmStreaming;
+
+    private OutputLinePool outputLines;
+    private TtsCache cache;
+
+    @PostConstruct
+    void init() {
+        outputLines = new OutputLinePool(devices, outputLineIdleTimeoutMs, resamplerQuality);
+        // Pooled lines may belong to a device that just went away
+        devices.addListener(changed -> outputLines.closeIdle());
+        if (cacheEnabled) {
+            try {
+                cache = new TtsCache(Path.of(cacheDir), cacheMaxDiskMb * 1024 * 1024, cacheMaxHeapKb * 1024);
+            } catch (Exception e) {
+                log.warn("Cannot open TTS cache at {}, synthesizing everything", cacheDir, e);
+            }
+        }
+    }
+
+    /**
+     * Synthesizes the fixed phrases (the error reply plus app.tts.cache.prewarm) in the background, so the
+     * first time they are needed they play from the cache.
+     */
+    void onStart(@Observes StartupEvent ev) {
+        if (cache == null || apiKey.isEmpty()) {
+            return;
+        }
+        List<String> phrases = new ArrayList<>(List.of(LangchainAdapter.ERROR_REPLY));
+        prewarmPhrases.ifPresent(phrases::addAll);
+        // Only the formats the configured pipeline actually plays
+        String format = ttsStreaming || llmStreaming ? "pcm" : "wav";
+        http.executor().execute(() -> {
+            int fetched = 0;
+            for (String phrase : phrases) {
+                if (phrase.isBlank() || cachedAudio(phrase, voice, format) != null) {
+                    continue;
+                }
+                try {
+                    if (format.equals("pcm")) {
+                        fetchPcmIntoCache(phrase);
+                    } else {
+                        requestTtsWav(ttsUrl, apiKey.get(), phrase, voice);
+                    }
+                    fetched++;
+                } catch (Exception e) {
+                    log.warn("Pre-warming TTS cache for \"{}\" failed", phrase, e);
+                }
+            }
+            log.info("TTS cache pre-warmed: {} phrases synthesized, {} already cached ({})",
+                    fetched, phrases.size() - fetched, cache.stats());
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        outputLines.close();
+    }
+
     public void setOutputDevice(String deviceName) {
         this.outputDeviceName = Optional.ofNullable(deviceName);
+        outputLines.closeIdle();
         log.info("Output device changed to: {}", deviceName != null ? deviceName : "system default");
     }
 
@@ -30,71 +159,320 @@ public class TtsPlayer {
     }
 
     public byte[] requestTtsWav(String ttsUrl, String apiKey, String text, String voice) throws Exception {
-        HttpClient client = HttpClient.newHttpClient();
+        TurnEvents.Turn turn = TurnEvents.current();
+        TurnEvents.TtsRequestEvent event = new TurnEvents.TtsRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        ByteBuffer cached = cachedAudio(text, voice, "wav");
+        if (cached != null) {
+            byte[] wav = new byte[cached.remaining()];
+            cached.get(wav);
+            commitTtsEvent(event, turn, "wav", true, start, 0, text, wav.length);
+            return wav;
+        }
+        // Read as a stream so the response headers mark the time to first byte
+        HttpResponse<InputStream> resp = turn.cancellation.cancelling(http.client().sendAsync(
+                ttsRequest(ttsUrl, apiKey, text, voice, "wav"), HttpResponse.BodyHandlers.ofInputStream())).join();
+        long timeToFirstByte = System.nanoTime() - start;
+        byte[] wav;
+        try (InputStream body = resp.body()) {
+            wav = body.readAllBytes();
+        }
+        if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
+            if (cache != null) {
+                cache.put(TtsCache.key(text, voice, TTS_MODEL, "wav"), wav);
+            }
+            commitTtsEvent(event, turn, "wav", false, start, timeToFirstByte, text, wav.length);
+            return wav;
+        }
+        metrics.error("tts");
+        throw new RuntimeException("TTS request failed: HTTP " + resp.statusCode());
+    }
+
+    /**
+     * Requests raw PCM and plays it while it is still downloading. Returns the time to first sound in ms.
+     */
+    public long streamTts(String ttsUrl, String apiKey, String text, String voice) throws Exception {
+        long start = System.nanoTime();
+        TurnEvents.Turn turn = TurnEvents.current();
+        TurnEvents.TtsRequestEvent event = new TurnEvents.TtsRequestEvent();
+        event.begin();
+        ByteBuffer cached = cachedAudio(text, voice, "pcm");
+        if (cached != null) {
+            commitTtsEvent(event, turn, "pcm", true, start, 0, text, cached.remaining());
+            PcmStreamPlayer player = openStreamPlayer(jitterBufferMs);
+            play(player, cached);
+            player.finish();
+            player.awaitCompletion();
+            long timeToFirstSoundMs = (player.firstSoundNanos() - start) / 1_000_000;
+            log.info("TTS time to first sound: {} ms (cached)", timeToFirstSoundMs);
+            return timeToFirstSoundMs;
+        }
+        CompletableFuture<HttpResponse<InputStream>> pending = sendPcmRequest(ttsUrl, apiKey, text, voice);
+
+        // Open the output device while the request is in flight
+        PcmStreamPlayer player;
+        try {
+            player = openStreamPlayer(jitterBufferMs);
+        } catch (Exception e) {
+            pending.cancel(true);
+            throw e;
+        }
+        try {
+            HttpResponse<InputStream> resp = pending.join();
+            try (InputStream body = resp.body()) {
+                if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+                    throw new RuntimeException("TTS request failed: HTTP " + resp.statusCode() + " - "
+                            + new String(body.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
+                }
+                long firstByte = System.nanoTime();
+                TtsCache.Writer cacheWriter = cacheWriter(text, voice, "pcm");
+                byte[] buffer = new byte[4096];
+                long bytes = 0;
+                int n;
+                try {
+                    while ((n = body.read(buffer)) > 0) {
+                        player.write(buffer, 0, n);
+                        if (cacheWriter != null) {
+                            cacheWriter.write(buffer, 0, n);
+                        }
+                        bytes += n;
+                    }
+                } catch (Exception e) {
+                    if (cacheWriter != null) {
+                        cacheWriter.abort();
+                    }
+                    throw e;
+                }
+                if (cacheWriter != null) {
+                    cacheWriter.commit();
+                }
+                commitTtsEvent(event, turn, "pcm", false, start, firstByte - start, text, bytes);
+                player.finish();
+                player.awaitCompletion();
+
+                if (player.firstSoundNanos() < 0) {
+                    log.warn("TTS stream contained no audio");
+                    return -1;
+                }
+                long timeToFirstSoundMs = (player.firstSoundNanos() - start) / 1_000_000;
+                log.info("TTS time to first sound: {} ms (first byte after {} ms, total {} ms)",
+                        timeToFirstSoundMs, (firstByte - start) / 1_000_000, (System.nanoTime() - start) / 1_000_000);
+                return timeToFirstSoundMs;
+            }
+        } catch (Exception e) {
+            metrics.error("tts");
+            player.stop();
+            player.finish();
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows an output line for 24 kHz PCM and wraps it in a streaming player that returns the line when done.
+     */
+    public PcmStreamPlayer openStreamPlayer(int bufferMs) throws LineUnavailableException {
+        PooledOutputLine line = outputLines.acquire(outputDeviceName.orElse(null), TTS_PCM_FORMAT);
+        return PcmStreamPlayer.start(line, prebufferMs, bufferMs, line::release);
+    }
+
+    /**
+     * Opens the output line for the next reply in the background, so playback does not wait for the device.
+     */
+    public void prepareOutput() {
+        outputLines.prepareAsync(outputDeviceName.orElse(null), TTS_PCM_FORMAT);
+    }
+
+    /**
+     * Returns a speaker that synthesizes text chunks right away and plays them in order once given a player.
+     */
+    public SentenceSpeaker newSentenceSpeaker(String ttsUrl, String apiKey, String voice) {
+        return new SentenceSpeaker(this, ttsUrl, apiKey, voice, parallelism);
+    }
+
+    /**
+     * Borrows an output line with the jitter buffer used for streamed replies.
+     */
+    public PcmStreamPlayer openStreamPlayer() throws LineUnavailableException {
+        return openStreamPlayer(jitterBufferMs);
+    }
+
+    /**
+     * Cached audio for this text in the given response format ("pcm" or "wav"), or null.
+     */
+    ByteBuffer cachedAudio(String text, String voice, String format) {
+        return cache != null ? cache.get(TtsCache.key(text, voice, TTS_MODEL, format)) : null;
+    }
+
+    /**
+     * Writer that caches a response while it is played, or null if caching is off.
+     */
+    TtsCache.Writer cacheWriter(String text, String voice, String format) {
+        return cache != null ? cache.writer(TtsCache.key(text, voice, TTS_MODEL, format)) : null;
+    }
+
+    /**
+     * Records a finished synthesis request; {@code startNanos} is when it was sent.
+     */
+    void commitTtsEvent(TurnEvents.TtsRequestEvent event, TurnEvents.Turn turn, String format, boolean cached,
+                        long startNanos, long timeToFirstByte, String text, long bytes) {
+        metrics.tts(format, cached, timeToFirstByte, System.nanoTime() - startNanos, bytes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.turnId = turn.id;
+            event.format = format;
+            event.cached = cached;
+            event.timeToFirstByte = timeToFirstByte;
+            event.textChars = text.length();
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Queues cached PCM on a player.
+     */
+    static void play(PcmStreamPlayer player, ByteBuffer pcm) throws InterruptedException {
+        byte[] buffer = new byte[4096];
+        for (int position = pcm.position(); position < pcm.limit(); ) {
+            int n = Math.min(buffer.length, pcm.limit() - position);
+            pcm.get(position, buffer, 0, n);
+            player.write(buffer, 0, n);
+            position += n;
+        }
+    }
+
+    private void fetchPcmIntoCache(String text) throws Exception {
+        HttpResponse<InputStream> resp = sendPcmRequest(ttsUrl, apiKey.get(), text, voice).join();
+        try (InputStream body = resp.body()) {
+            if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+                throw new RuntimeException("TTS request failed: HTTP " + resp.statusCode());
+            }
+            TtsCache.Writer writer = cacheWriter(text, voice, "pcm");
+            if (writer != null) {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = body.read(buffer)) > 0) {
+                    writer.write(buffer, 0, n);
+                }
+                writer.commit();
+            }
+        }
+    }
+
+    // Sent from the TTS pipeline stage, which limits the requests waiting for a response across all replies.
+    // Cancelling the returned future aborts the exchange, or drops the request if it has not left the stage yet.
+    CompletableFuture<HttpResponse<InputStream>> sendPcmRequest(String ttsUrl, String apiKey, String text, String voice) {
+        try {
+            HttpRequest request = ttsRequest(ttsUrl, apiKey, text, voice, "pcm");
+            CompletableFuture<HttpResponse<InputStream>> response = new CompletableFuture<>();
+            pipeline.tts().execute(() -> {
+                if (response.isDone()) {
+                    return;
+                }
+                CompletableFuture<HttpResponse<InputStream>> exchange = http.client().sendAsync(request,
+                        HttpResponse.BodyHandlers.ofInputStream());
+                response.whenComplete((resp, error) -> {
+                    if (response.isCancelled()) {
+                        exchange.cancel(true);
+                    }
+                });
+                try {
+                    HttpResponse<InputStream> resp = exchange.join();
+                    if (!response.complete(resp)) {
+                        // Cancelled just as the headers arrived: nobody will read the body
+                        resp.body().close();
+                    }
+                } catch (Exception e) {
+                    response.completeExceptionally(e);
+                }
+            });
+            return response;
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private HttpRequest ttsRequest(String ttsUrl, String apiKey, String text, String voice, String responseFormat) throws Exception {
         // OpenAI TTS API requires: model, input, voice, and optionally response_format
         // Use Jackson ObjectMapper for proper JSON encoding to handle newlines, quotes, and special characters
         var mapper = new com.fasterxml.jackson.databind.ObjectMapper();
         var payloadNode = mapper.createObjectNode();
-        payloadNode.put("model", "tts-1");
+        payloadNode.put("model", TTS_MODEL);
         payloadNode.put("input", text);
         payloadNode.put("voice", voice);
-        payloadNode.put("response_format", "wav");
+        payloadNode.put("response_format", responseFormat);
         String payload = mapper.writeValueAsString(payloadNode);
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(ttsUrl))
+        return http.newRequest(ttsUrl)
                 .header("Authorization", "Bearer " + apiKey)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
                 .build();
-        HttpResponse<byte[]> resp = client.send(req, HttpResponse.BodyHandlers.ofByteArray());
-        if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
-            return resp.body();
-        }
-        throw new RuntimeException("TTS request failed: HTTP " + resp.statusCode());
     }
 
-    public void playWav(byte[] wavBytes) throws Exception {
+    /**
+     * Plays a WAV reply to the end, or until the current turn is cancelled.
+     *
+     * @return the share of the audio that was heard: 1 unless the turn was interrupted
+     */
+    public double playWav(byte[] wavBytes) throws Exception {
         try (ByteArrayInputStream bais = new ByteArrayInputStream(wavBytes);
-             AudioInputStream ais = AudioSystem.getAudioInputStream(bais)) {
-            AudioFormat format = ais.getFormat();
-            DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
-            
-            // Find configured output device or use default
-            Mixer selectedMixer = null;
-            if (outputDeviceName.isPresent()) {
-                Mixer.Info[] mixers = AudioSystem.getMixerInfo();
-                for (Mixer.Info mixerInfo : mixers) {
-                    if (mixerInfo.getName().contains(outputDeviceName.get())) {
-                        Mixer mixer = AudioSystem.getMixer(mixerInfo);
-                        if (mixer.isLineSupported(info)) {
-                            selectedMixer = mixer;
-                            log.info("Using configured audio output device: {}", mixerInfo.getName());
-                            break;
+             AudioInputStream wav = AudioSystem.getAudioInputStream(bais)) {
+            AudioInputStream ais = wav;
+            AudioFormat format = wav.getFormat();
+            if (!PcmFormatConverter.isPcm16le(format) && format.getChannels() <= 2) {
+                // Decode other sample encodings up front so the pooled line can take it
+                format = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+                ais = AudioSystem.getAudioInputStream(format, wav);
+            }
+            TurnEvents.Turn turn = TurnEvents.current();
+            PooledOutputLine line = outputLines.acquire(outputDeviceName.orElse(null), format);
+            long startMicros = line.microsecondPosition();
+            AtomicLong heardMicros = new AtomicLong(-1);
+            try {
+                // Stopping and flushing the line also returns the write it is blocked in
+                TurnCancellation.Registration stop = turn.cancellation.onCancel(() -> {
+                    heardMicros.set(line.microsecondPosition() - startMicros);
+                    line.stop();
+                    line.flush();
+                });
+                try {
+                    line.start();
+                    byte[] buffer = new byte[4096];
+                    boolean first = true;
+                    int n;
+                    while (!turn.cancellation.isCancelled() && (n = ais.read(buffer)) > 0) {
+                        if (first) {
+                            first = false;
+                            TurnEvents.playbackStarted(turn, "wav");
                         }
+                        line.write(buffer, 0, n);
                     }
+                    if (!turn.cancellation.isCancelled()) {
+                        line.drain();
+                    }
+                } finally {
+                    stop.close();
                 }
-                if (selectedMixer == null) {
-                    log.warn("Configured output device '{}' not found or not supported, using system default", outputDeviceName.get());
-                }
-            }
-            
-            SourceDataLine line;
-            if (selectedMixer != null) {
-                line = (SourceDataLine) selectedMixer.getLine(info);
-            } else {
-                line = (SourceDataLine) AudioSystem.getLine(info);
-            }
-            
-            try (line) {
-                line.open(format);
-                line.start();
-                byte[] buffer = new byte[4096];
-                int n;
-                while ((n = ais.read(buffer)) > 0) {
-                    line.write(buffer, 0, n);
-                }
-                line.drain();
+                line.release();
+            } catch (Exception e) {
+                line.discard();
+                throw e;
             }
+            long totalMicros = (long) (wav.getFrameLength() / (double) wav.getFormat().getFrameRate() * 1_000_000);
+            return heardMicros.get() < 0 || totalMicros <= 0 ? 1 : Math.min(1, heardMicros.get() / (double) totalMicros);
+        }
+    }
+
+    /**
+     * The beginning of {@code text} that a listener heard of its speech, cut back to a whole word.
+     */
+    static String heardPart(String text, double fraction) {
+        int end = (int) Math.round(text.length() * Math.max(0, fraction));
+        if (end >= text.length()) {
+            return text;
         }
+        int space = Character.isWhitespace(text.charAt(end)) ? end : text.lastIndexOf(' ', end);
+        return space <= 0 ? "" : text.substring(0, space).strip();
     }
 }
@@ -0,0 +1,78 @@
+package dev.rabauer.voice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stops what one turn still has in flight when the user barges in. Anything a turn starts that can end
+ * early (an HTTP exchange, the LLM stream, playback) registers a hook; {@link #cancel()} runs them once,
+ * newest first, so the output line goes quiet before the requests feeding it are torn down. Hooks registered
+ * after the cancel run right away.
+ */
+public class TurnCancellation {
+    private static final Logger log = LoggerFactory.getLogger(TurnCancellation.class);
+
+    /** Unregisters a hook once what it would stop has finished. */
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final List<Runnable> hooks = new ArrayList<>();
+    private boolean cancelled = false;
+
+    public Registration onCancel(Runnable hook) {
+        synchronized (this) {
+            if (!cancelled) {
+                hooks.add(hook);
+                return () -> remove(hook);
+            }
+        }
+        hook.run();
+        return () -> {};
+    }
+
+    /**
+     * Cancels {@code future} with the turn; the hook goes away when the future completes.
+     */
+    public <T> CompletableFuture<T> cancelling(CompletableFuture<T> future) {
+        Registration registration = onCancel(() -> future.cancel(true));
+        future.whenComplete((result, error) -> registration.close());
+        return future;
+    }
+
+    /**
+     * Runs the hooks on the calling thread. Only the first call does anything; returns whether it was this one.
+     */
+    public boolean cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(hooks);
+            hooks.clear();
+        }
+        for (int i = toRun.size() - 1; i >= 0; i--) {
+            try {
+                toRun.get(i).run();
+            } catch (RuntimeException e) {
+                log.warn("Cancelling a turn's work failed", e);
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private synchronized void remove(Runnable hook) {
+        hooks.remove(hook);
+    }
+}
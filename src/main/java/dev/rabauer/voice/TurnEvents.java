@@ -0,0 +1,351 @@
+package dev.rabauer.voice;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.MetadataDefinition;
+import jdk.jfr.Name;
+import jdk.jfr.Relational;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * JDK Flight Recorder events for the stages of a voice turn, from the hotkey to the first sound of the
+ * reply. Every event carries the id of the turn it belongs to, so a recording can be broken down per turn
+ * in JMC (category "Voice Chat"). A turn produces only a handful of events and nothing is recorded unless
+ * a recording is running, e.g. {@code java -XX:StartFlightRecording=filename=voice.jfr -jar ...}.
+ * Pipeline stages run {@link #runAs} the turn they work on, so stages of overlapping turns keep their ids;
+ * anything else belongs to the turn that was current when it started.
+ */
+final class TurnEvents {
+    private static final String CATEGORY = "Voice Chat";
+    private static final AtomicLong turnIds = new AtomicLong();
+    private static final Turn NONE = new Turn(0, System.nanoTime(), "none");
+    private static volatile Turn current = NONE;
+    private static final ThreadLocal<Turn> running = new ThreadLocal<>();
+
+    private TurnEvents() {
+    }
+
+    /** Links the events of one turn in JMC. */
+    @MetadataDefinition
+    @Relational
+    @Name("dev.rabauer.voice.TurnId")
+    @Label("Turn Id")
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    @interface TurnId {}
+
+    /** One hotkey-to-reply cycle; stages look it up with {@link #current()} when they start. */
+    static final class Turn {
+        final long id;
+        final long triggerNanos;
+        final TurnEvent event = new TurnEvent();
+        volatile long recordingStoppedNanos = -1;
+        volatile long firstSoundNanos = -1;
+        // What the turn has in flight, stopped if the user barges in
+        final TurnCancellation cancellation = new TurnCancellation();
+
+        private Turn(long id, long triggerNanos, String pipeline) {
+            this.id = id;
+            this.triggerNanos = triggerNanos;
+            event.begin();
+            event.turnId = id;
+            event.pipeline = pipeline;
+        }
+    }
+
+    /**
+     * Starts a new turn when recording is requested; {@code triggerNanos} is when (e.g. the hotkey press).
+     */
+    static Turn begin(long triggerNanos, PipelineMode pipeline) {
+        Turn turn = new Turn(turnIds.incrementAndGet(), triggerNanos, pipeline.name());
+        current = turn;
+        return turn;
+    }
+
+    /**
+     * The turn this thread is working on, else the latest turn, or a placeholder with id 0 before the first one.
+     */
+    static Turn current() {
+        Turn turn = running.get();
+        return turn != null ? turn : current;
+    }
+
+    /**
+     * Runs a pipeline task with {@link #current()} returning its turn.
+     */
+    static void runAs(Turn turn, Runnable task) {
+        callAs(turn, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    static <T> T callAs(Turn turn, Supplier<T> task) {
+        running.set(turn);
+        try {
+            return task.get();
+        } finally {
+            running.remove();
+        }
+    }
+
+    static void recordingStopped(Turn turn) {
+        turn.recordingStoppedNanos = System.nanoTime();
+    }
+
+    static void end(Turn turn, String outcome) {
+        turn.event.end();
+        if (turn.event.shouldCommit()) {
+            turn.event.outcome = outcome;
+            turn.event.commit();
+        }
+    }
+
+    /**
+     * Marks the first sound of a reply reaching the output line.
+     */
+    static void playbackStarted(Turn turn, String source) {
+        long now = System.nanoTime();
+        if (turn.firstSoundNanos < 0) {
+            turn.firstSoundNanos = now;
+        }
+        PlaybackStartEvent event = new PlaybackStartEvent();
+        if (event.shouldCommit()) {
+            event.turnId = turn.id;
+            event.source = source;
+            event.sinceRecordingStopped = turn.recordingStoppedNanos > 0 ? now - turn.recordingStoppedNanos : 0;
+            event.sinceHotkey = now - turn.triggerNanos;
+            event.commit();
+        }
+    }
+
+    @Name("dev.rabauer.voice.Turn")
+    @Label("Voice Turn")
+    @Description("From the recording request to the end of the reply")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TurnEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Pipeline")
+        String pipeline;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("dev.rabauer.voice.FirstSample")
+    @Label("Hotkey to First Sample")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class FirstSampleEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Latency")
+        @Description("From the recording request to the first captured audio")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+        @Label("Pre-Roll")
+        @Description("Audio from before the request that the armed ring contributed")
+        @Timespan(Timespan.MILLISECONDS)
+        long preRoll;
+    }
+
+    @Name("dev.rabauer.voice.Recording")
+    @Label("Recording")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class RecordingEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Audio")
+        @Timespan(Timespan.MILLISECONDS)
+        long audio;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Speech")
+        @Description("Audio the voice activity detector kept, if it ran")
+        @Timespan(Timespan.MILLISECONDS)
+        long speech;
+    }
+
+    @Name("dev.rabauer.voice.Upload")
+    @Label("Audio Upload")
+    @Description("Until the last byte of the audio has been handed to the connection")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class UploadEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Format")
+        String format;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("dev.rabauer.voice.Transcription")
+    @Label("Speech to Text")
+    @Description("From the transcription request to the transcript")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TranscriptionEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("After Upload")
+        @Description("Time from the end of the upload to the transcript")
+        @Timespan(Timespan.NANOSECONDS)
+        long afterUpload;
+
+        @Label("Transcript Length")
+        int transcriptChars;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("dev.rabauer.voice.LlmResponse")
+    @Label("LLM Response")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class LlmResponseEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Model")
+        String model;
+
+        @Label("Streaming")
+        boolean streaming;
+
+        @Label("Cached")
+        @Description("Answered from the semantic response cache")
+        boolean cached;
+
+        @Label("Time to First Token")
+        @Timespan(Timespan.NANOSECONDS)
+        long timeToFirstToken;
+
+        @Label("Reply Length")
+        int replyChars;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("dev.rabauer.voice.TtsRequest")
+    @Label("Text to Speech")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TtsRequestEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Format")
+        String format;
+
+        @Label("Cached")
+        boolean cached;
+
+        @Label("Time to First Byte")
+        @Timespan(Timespan.NANOSECONDS)
+        long timeToFirstByte;
+
+        @Label("Text Length")
+        int textChars;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("dev.rabauer.voice.PlaybackStart")
+    @Label("Playback Start")
+    @Description("The first sound of the reply reached the output line")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class PlaybackStartEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Source")
+        String source;
+
+        @Label("Since Recording Stopped")
+        @Timespan(Timespan.NANOSECONDS)
+        long sinceRecordingStopped;
+
+        @Label("Since Hotkey")
+        @Timespan(Timespan.NANOSECONDS)
+        long sinceHotkey;
+    }
+
+    @Name("dev.rabauer.voice.BargeIn")
+    @Label("Barge-In")
+    @Description("A turn interrupted by the next hotkey press")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class BargeInEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Stage")
+        @Description("playback if the reply was already audible, else processing")
+        String stage;
+
+        @Label("Cancel to Silence")
+        @Description("From the hotkey press until the reply's output line was stopped")
+        @Timespan(Timespan.NANOSECONDS)
+        long cancelToSilence;
+    }
+
+    @Name("dev.rabauer.voice.Speculation")
+    @Label("Speculative Reply")
+    @Description("Whether the reply started while recording answered the final transcript")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class SpeculationEvent extends Event {
+        @TurnId
+        @Label("Turn Id")
+        long turnId;
+
+        @Label("Outcome")
+        @Description("hit, miss or none")
+        String outcome;
+
+        @Label("Time Saved")
+        @Description("How much earlier the first token came than with a request started after transcription")
+        @Timespan(Timespan.NANOSECONDS)
+        long saved;
+    }
+}
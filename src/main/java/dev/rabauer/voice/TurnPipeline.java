@@ -0,0 +1,176 @@
+package dev.rabauer.voice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The stages a turn passes through after capture: encode (VAD, resampling, FLAC, realtime uplink), speech to
+ * text, LLM, text to speech and playback. Each stage has its own concurrency limit and bounded queue, so the
+ * next turn can be recorded and transcribed while the previous reply is still playing. Replies are handed to
+ * playback in the order their turns were recorded, whichever got through the earlier stages first.
+ */
+@Singleton
+public class TurnPipeline {
+    private static final Logger log = LoggerFactory.getLogger(TurnPipeline.class);
+
+    @Inject
+    VoiceMetrics metrics;
+
+    @ConfigProperty(name = "app.pipeline.encode.concurrency", defaultValue = "2")
+    int encodeConcurrency;
+    @ConfigProperty(name = "app.pipeline.stt.concurrency", defaultValue = "2")
+    int sttConcurrency;
+    @ConfigProperty(name = "app.pipeline.llm.concurrency", defaultValue = "2")
+    int llmConcurrency;
+    @ConfigProperty(name = "app.pipeline.tts.concurrency", defaultValue = "6")
+    int ttsConcurrency;
+    @ConfigProperty(name = "app.pipeline.queueSize", defaultValue = "8")
+    int queueSize;
+
+    private PipelineStage encode;
+    private PipelineStage stt;
+    private PipelineStage llm;
+    private PipelineStage tts;
+    // One reply at a time: there is one speaker
+    private PipelineStage playback;
+
+    // Guards the fields below; never held while handing over, which may wait for room in the playback queue
+    private final ReentrantLock order = new ReentrantLock();
+    // Turns whose reply (or lack of one) is known, by sequence number, until the turns before them are done
+    private final TreeMap<Long, Runnable> readyToPlay = new TreeMap<>();
+    // Replies whose turn has come, in order, and whether a caller is already handing them to playback
+    private final ArrayDeque<Runnable> due = new ArrayDeque<>();
+    private boolean handingOver = false;
+    private long nextSequence = 0;
+    private long nextToPlay = 0;
+
+    @PostConstruct
+    public void init() {
+        encode = new PipelineStage("encode", encodeConcurrency, queueSize);
+        stt = new PipelineStage("stt", sttConcurrency, queueSize);
+        llm = new PipelineStage("llm", llmConcurrency, queueSize);
+        tts = new PipelineStage("tts", ttsConcurrency, queueSize);
+        playback = new PipelineStage("playback", 1, queueSize);
+        for (PipelineStage stage : stages()) {
+            metrics.bindPipelineStage(stage);
+        }
+        log.info("Turn pipeline: {}", this);
+    }
+
+    @PreDestroy
+    public void close() {
+        stages().forEach(PipelineStage::close);
+    }
+
+    public PipelineStage encode() {
+        return encode;
+    }
+
+    public PipelineStage stt() {
+        return stt;
+    }
+
+    public PipelineStage llm() {
+        return llm;
+    }
+
+    public PipelineStage tts() {
+        return tts;
+    }
+
+    /**
+     * Reserves the turn's place in the playback order; every sequence number must be passed to
+     * {@link #play} exactly once, or later replies wait for it forever.
+     */
+    public long nextSequence() {
+        order.lock();
+        try {
+            return nextSequence++;
+        } finally {
+            order.unlock();
+        }
+    }
+
+    /**
+     * Plays a turn's reply once every earlier turn has played or been dropped. {@code reply} may be null for
+     * a turn without one; {@code after} runs in its place in the order either way, after the reply.
+     */
+    public void play(long sequence, Runnable reply, Runnable after) {
+        order.lock();
+        try {
+            readyToPlay.put(sequence, () -> {
+                try {
+                    if (reply != null) {
+                        reply.run();
+                    }
+                } finally {
+                    after.run();
+                }
+            });
+            Runnable next;
+            while ((next = readyToPlay.remove(nextToPlay)) != null) {
+                nextToPlay++;
+                due.add(next);
+            }
+            if (handingOver) {
+                // The caller handing over will pick these up, in order
+                return;
+            }
+            handingOver = true;
+        } finally {
+            order.unlock();
+        }
+        handOver();
+    }
+
+    // One caller at a time, so replies reach the playback queue in order without holding the lock while it is full
+    private void handOver() {
+        while (true) {
+            Runnable next;
+            order.lock();
+            try {
+                next = due.poll();
+                if (next == null) {
+                    handingOver = false;
+                    return;
+                }
+            } finally {
+                order.unlock();
+            }
+            try {
+                playback.execute(next);
+            } catch (RuntimeException e) {
+                order.lock();
+                try {
+                    handingOver = false;
+                } finally {
+                    order.unlock();
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (PipelineStage stage : stages()) {
+            text.append(text.isEmpty() ? "" : "; ").append(stage);
+        }
+        return text.toString();
+    }
+
+    private List<PipelineStage> stages() {
+        return List.of(encode, stt, llm, tts, playback);
+    }
+}
@@ -0,0 +1,255 @@
+package dev.rabauer.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Energy and zero-crossing based voice activity detection over PCM16 little-endian mono audio.
+ * Frames loud enough are voiced speech; quieter frames with a high zero-crossing rate (fricatives
+ * like "s" or "f") only count when they directly border voiced speech, so hiss alone is not speech.
+ * <p>
+ * Fed from the capture loop, it passes on only the speech: leading and trailing silence beyond the
+ * padding is cut and long pauses are shortened. Each frame is decided as soon as the frames after it
+ * that could still change its label have arrived, so the output trails the input by about 200 ms.
+ */
+public class VoiceActivityDetector {
+    private static final int FRAME_MS = 20;
+    // Unvoiced frames may extend a voiced run by at most this much on either side
+    private static final int MAX_UNVOICED_EXTENSION_MS = 200;
+
+    private static final byte SILENCE = 0;
+    private static final byte UNVOICED = 1;
+    private static final byte VOICED = 2;
+
+    private final int frameBytes;
+    private final int bytesPerMs;
+    private final int energyThreshold;
+    private final double zcrThreshold;
+    private final int paddingMs;
+    private final int maxPauseMs;
+    private final int minSpeechMs;
+    private final PcmRecording.ChunkConsumer speechOut;
+
+    // One classification per complete frame
+    private byte[] frames = new byte[512];
+    private int frameCount = 0;
+    private int voicedFrames = 0;
+    private double peakRms = 0;
+
+    // Running sums for the frame being filled; samples may straddle capture buffers
+    private long sumSquares = 0;
+    private int zeroCrossings = 0;
+    private int samplesInFrame = 0;
+    private int previousSample = 0;
+    private int pendingLowByte = -1;
+
+    // Audio not yet passed on or dropped, starting at byte position cursor
+    private record Chunk(byte[] data, int offset, int length) {}
+    private final ArrayDeque<Chunk> held = new ArrayDeque<>();
+    private long cursor = 0;
+    private long received = 0;
+
+    // Output decisions: next frame to decide, and where the current pause after speech began
+    private int decided = 0;
+    private boolean speechSeen = false;
+    private int pauseStart = 0;
+    private boolean finished = false;
+
+    /**
+     * @param energyThreshold RMS amplitude (0-32767) above which a frame is voiced speech
+     * @param zcrThreshold    zero crossings per sample above which a quieter frame may be unvoiced speech
+     * @param paddingMs       audio kept before the first and after the last speech
+     * @param maxPauseMs      longest pause kept between two stretches of speech
+     * @param minSpeechMs     voiced audio needed before the recording counts as containing speech
+     * @param speechOut       receives the trimmed audio, as slices of the buffers passed to {@link #accept}
+     */
+    public VoiceActivityDetector(AudioFormat format, int energyThreshold, double zcrThreshold,
+                                 int paddingMs, int maxPauseMs, int minSpeechMs, PcmRecording.ChunkConsumer speechOut) {
+        this.bytesPerMs = Math.max(1, (int) (format.getFrameRate() * format.getFrameSize() / 1000));
+        this.frameBytes = FRAME_MS * bytesPerMs;
+        this.energyThreshold = energyThreshold;
+        this.zcrThreshold = zcrThreshold;
+        this.paddingMs = paddingMs;
+        this.maxPauseMs = maxPauseMs;
+        this.minSpeechMs = minSpeechMs;
+        this.speechOut = speechOut;
+    }
+
+    /**
+     * Classifies a captured buffer and passes on whatever audio is now known to be kept. Called on the
+     * capture thread; the buffer is referenced until decided, not copied, so it must not be reused.
+     */
+    public void accept(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        held.add(new Chunk(buffer, offset, length));
+        received += length;
+        int samplesPerFrame = frameBytes / 2;
+        int i = offset;
+        int end = offset + length;
+        if (pendingLowByte >= 0 && i < end) {
+            addSample((short) (pendingLowByte | (buffer[i++] << 8)), samplesPerFrame);
+            pendingLowByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            addSample((short) ((buffer[i] & 0xff) | (buffer[i + 1] << 8)), samplesPerFrame);
+        }
+        if (i < end) {
+            pendingLowByte = buffer[i] & 0xff;
+        }
+    }
+
+    public void accept(PcmRecording recording) {
+        recording.forEachChunk(this::accept);
+    }
+
+    /**
+     * Decides the remaining frames once capture has ended and passes on the trailing padding.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        while (decided < frameCount) {
+            decide(decided++);
+        }
+        // The incomplete last frame counts as silence
+        if (speechSeen && frameCount - pauseStart < paddingFrames()) {
+            emitTo(received);
+        }
+        held.clear();
+    }
+
+    /**
+     * Whether enough voiced audio was seen for the recording to be worth transcribing.
+     */
+    public boolean hasSpeech() {
+        return voicedFrames * FRAME_MS >= minSpeechMs;
+    }
+
+    public long speechMs() {
+        return (long) voicedFrames * FRAME_MS;
+    }
+
+    /**
+     * RMS amplitude of the loudest complete frame, to compare with the energy threshold.
+     */
+    public int peakRms() {
+        return (int) peakRms;
+    }
+
+    private void addSample(short sample, int samplesPerFrame) {
+        sumSquares += (long) sample * sample;
+        if ((sample < 0) != (previousSample < 0)) {
+            zeroCrossings++;
+        }
+        previousSample = sample;
+        if (++samplesInFrame == samplesPerFrame) {
+            double rms = Math.sqrt((double) sumSquares / samplesInFrame);
+            double zcr = (double) zeroCrossings / samplesInFrame;
+            peakRms = Math.max(peakRms, rms);
+            byte type = SILENCE;
+            if (rms >= energyThreshold) {
+                type = VOICED;
+                voicedFrames++;
+            } else if (rms >= energyThreshold / 4.0 && zcr >= zcrThreshold) {
+                type = UNVOICED;
+            }
+            if (frameCount == frames.length) {
+                frames = Arrays.copyOf(frames, frames.length * 2);
+            }
+            frames[frameCount++] = type;
+            sumSquares = 0;
+            zeroCrossings = 0;
+            samplesInFrame = 0;
+            // A frame's label is final once every frame that could extend speech onto it has arrived
+            while (decided + MAX_UNVOICED_EXTENSION_MS / FRAME_MS < frameCount) {
+                decide(decided++);
+            }
+        }
+    }
+
+    private void decide(int frame) {
+        int paddingFrames = paddingFrames();
+        if (!isSpeech(frame)) {
+            if (!speechSeen) {
+                // Before the first speech only the padding that may precede it is held
+                dropTo((long) Math.max(0, frame + 1 - paddingFrames) * frameBytes);
+            } else if (frame - pauseStart < paddingFrames) {
+                // The start of every pause is kept, whether it turns out to be trailing silence or not
+                emitTo((long) (frame + 1) * frameBytes);
+            }
+            return;
+        }
+        if (!speechSeen) {
+            speechSeen = true;
+            dropTo((long) Math.max(0, frame - paddingFrames) * frameBytes);
+        } else {
+            int maxPauseFrames = Math.max(maxPauseMs / FRAME_MS, 2 * paddingFrames);
+            if (frame - pauseStart > maxPauseFrames) {
+                // Keep half of the allowed pause after the speech before it and half before this speech
+                emitTo((long) (pauseStart + maxPauseFrames / 2) * frameBytes);
+                dropTo((long) (frame - (maxPauseFrames - maxPauseFrames / 2)) * frameBytes);
+            }
+        }
+        emitTo((long) (frame + 1) * frameBytes);
+        pauseStart = frame + 1;
+    }
+
+    // Voiced frames plus unvoiced frames connected to voiced ones within the extension limit
+    private boolean isSpeech(int frame) {
+        if (frames[frame] == VOICED) {
+            return true;
+        }
+        if (frames[frame] != UNVOICED) {
+            return false;
+        }
+        int maxExtension = MAX_UNVOICED_EXTENSION_MS / FRAME_MS;
+        for (int b = frame - 1; b >= 0 && b >= frame - maxExtension; b--) {
+            if (frames[b] != UNVOICED) {
+                if (frames[b] == VOICED) {
+                    return true;
+                }
+                break;
+            }
+        }
+        for (int a = frame + 1; a < frameCount && a <= frame + maxExtension; a++) {
+            if (frames[a] != UNVOICED) {
+                return frames[a] == VOICED;
+            }
+        }
+        return false;
+    }
+
+    private int paddingFrames() {
+        return (paddingMs + FRAME_MS - 1) / FRAME_MS;
+    }
+
+    private void emitTo(long position) {
+        advanceTo(position, true);
+    }
+
+    private void dropTo(long position) {
+        advanceTo(position, false);
+    }
+
+    // Moves the cursor forward through the held audio, passing it on or discarding it
+    private void advanceTo(long position, boolean emit) {
+        position = Math.min(position, received);
+        while (cursor < position) {
+            Chunk chunk = held.peek();
+            int n = (int) Math.min(chunk.length(), position - cursor);
+            if (emit) {
+                speechOut.accept(chunk.data(), chunk.offset(), n);
+            }
+            held.poll();
+            if (n < chunk.length()) {
+                held.push(new Chunk(chunk.data(), chunk.offset() + n, chunk.length() - n));
+            }
+            cursor += n;
+        }
+    }
+}
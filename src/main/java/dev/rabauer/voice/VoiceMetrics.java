@@ -0,0 +1,267 @@
+package dev.rabauer.voice;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters for the voice pipeline: per-stage latency timers with percentile histograms,
+ * payload size distributions, error and retry counters and the Realtime uplink gauges. The end-to-end
+ * turn latency (recording stopped to first sound of the reply) also publishes p50/p95/p99 directly.
+ * Meters are served by the Prometheus endpoint configured with {@code quarkus.http.*}.
+ */
+@Singleton
+public class VoiceMetrics {
+    private static final Duration MIN_LATENCY = Duration.ofMillis(10);
+    private static final Duration MAX_LATENCY = Duration.ofSeconds(60);
+    // Stopping playback takes a line stop and flush, far below the pipeline latencies
+    private static final Duration MIN_SILENCE = Duration.ofNanos(100_000);
+    private static final Duration MAX_SILENCE = Duration.ofSeconds(1);
+    // A semantic cache lookup is one local embedding plus a few dot products
+    private static final Duration MIN_LOOKUP = Duration.ofNanos(100_000);
+    private static final Duration MAX_LOOKUP = Duration.ofSeconds(1);
+
+    @Inject
+    MeterRegistry registry;
+
+    private Counter realtimeMessages;
+    private DistributionSummary realtimeMessageChars;
+
+    @PostConstruct
+    void init() {
+        realtimeMessages = Counter.builder("voice.realtime.messages")
+                .description("Messages received on the Realtime WebSocket")
+                .register(registry);
+        realtimeMessageChars = DistributionSummary.builder("voice.realtime.message.size")
+                .description("Size of received Realtime messages")
+                .baseUnit("chars")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Audio handed to the STT endpoint; {@code nanos} until its last byte left the application.
+     */
+    public void upload(String pipeline, String format, long bytes, long nanos) {
+        latency("voice.stt.upload", "Audio upload to the speech-to-text endpoint", nanos,
+                "pipeline", pipeline, "format", format);
+        DistributionSummary.builder("voice.stt.upload.size")
+                .description("Audio uploaded per transcription")
+                .baseUnit("bytes")
+                .tags("pipeline", pipeline, "format", format)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void transcription(String pipeline, long nanos, boolean succeeded) {
+        latency("voice.stt", "Speech-to-text request until the transcript", nanos,
+                "pipeline", pipeline, "outcome", outcome(succeeded));
+        if (!succeeded) {
+            error("stt");
+        }
+    }
+
+    /**
+     * A reply from the chat model; {@code timeToFirstTokenNanos} is 0 when not streamed.
+     */
+    public void llm(String model, boolean streaming, boolean cached, long timeToFirstTokenNanos, long nanos,
+                    int replyChars, boolean succeeded) {
+        String[] tags = {"model", model, "streaming", String.valueOf(streaming), "cached", String.valueOf(cached)};
+        if (timeToFirstTokenNanos > 0) {
+            latency("voice.llm.first_token", "Chat request until the first token", timeToFirstTokenNanos, tags);
+        }
+        latency("voice.llm", "Chat request until the complete reply", nanos,
+                "model", model, "streaming", String.valueOf(streaming), "cached", String.valueOf(cached),
+                "outcome", outcome(succeeded));
+        if (succeeded) {
+            DistributionSummary.builder("voice.llm.reply.size")
+                    .description("Length of chat replies")
+                    .baseUnit("chars")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(replyChars);
+        } else {
+            error("llm");
+        }
+    }
+
+    public void tts(String format, boolean cached, long timeToFirstByteNanos, long nanos, long bytes) {
+        latency("voice.tts.first_byte", "Speech synthesis request until the first audio byte", timeToFirstByteNanos,
+                "format", format, "cached", String.valueOf(cached));
+        latency("voice.tts", "Speech synthesis request until the last audio byte", nanos,
+                "format", format, "cached", String.valueOf(cached));
+        DistributionSummary.builder("voice.tts.response.size")
+                .description("Synthesized audio per request")
+                .baseUnit("bytes")
+                .tags("format", format, "cached", String.valueOf(cached))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    /**
+     * Records a finished turn: its duration from the hotkey, and the latency the user hears from the
+     * end of the recording to the first sound of the reply.
+     */
+    public void turn(TurnEvents.Turn turn, String pipeline, String outcome) {
+        long now = System.nanoTime();
+        Timer.builder("voice.turn")
+                .description("Hotkey until the reply has finished")
+                .tags("pipeline", pipeline, "outcome", outcome)
+                .register(registry)
+                .record(now - turn.triggerNanos, TimeUnit.NANOSECONDS);
+        if (turn.recordingStoppedNanos > 0 && turn.firstSoundNanos > turn.recordingStoppedNanos) {
+            Timer.builder("voice.turn.latency")
+                    .description("End of the recording until the first sound of the reply")
+                    .tags("pipeline", pipeline)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_LATENCY)
+                    .maximumExpectedValue(MAX_LATENCY)
+                    .register(registry)
+                    .record(turn.firstSoundNanos - turn.recordingStoppedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * A turn interrupted by the next hotkey press, in {@code stage} "playback" or "processing". Only a reply
+     * that was already audible has a {@code silenceNanos}, from the press until its output line was stopped.
+     */
+    public void bargeIn(String stage, long silenceNanos) {
+        Counter.builder("voice.bargein")
+                .description("Turns interrupted by the next hotkey press")
+                .tags("stage", stage)
+                .register(registry)
+                .increment();
+        if (silenceNanos >= 0) {
+            Timer.builder("voice.bargein.silence")
+                    .description("Hotkey press until the interrupted reply went silent")
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_SILENCE)
+                    .maximumExpectedValue(MAX_SILENCE)
+                    .register(registry)
+                    .record(silenceNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * How a turn's speculative reply turned out: "hit" if it was adopted, "miss" if the final transcript asked
+     * something else, "none" if nothing was speculated. A hit has {@code savedNanos}, how much earlier its first
+     * token came than a request started with the final transcript would have got it.
+     */
+    public void speculation(String outcome, long savedNanos) {
+        Counter.builder("voice.llm.speculation")
+                .description("Turns by outcome of the reply speculated while recording")
+                .tags("outcome", outcome)
+                .register(registry)
+                .increment();
+        if (savedNanos >= 0) {
+            latency("voice.llm.speculation.saved", "Time to first token saved by an adopted speculative reply",
+                    savedNanos);
+        }
+    }
+
+    /**
+     * A semantic response cache lookup, embedding included, and whether it found a reply to reuse.
+     */
+    public void semanticCacheLookup(boolean hit, long nanos) {
+        String result = hit ? "hit" : "miss";
+        Counter.builder("voice.llm.semantic_cache")
+                .description("Semantic response cache lookups by result")
+                .tags("result", result)
+                .register(registry)
+                .increment();
+        Timer.builder("voice.llm.semantic_cache.lookup")
+                .description("Embedding a transcript and searching the semantic response cache")
+                .tags("result", result)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(MIN_LOOKUP)
+                .maximumExpectedValue(MAX_LOOKUP)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void error(String stage) {
+        Counter.builder("voice.errors")
+                .description("Failed pipeline stages")
+                .tags("stage", stage)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * A stage attempted again, e.g. the Realtime socket reconnecting after it dropped.
+     */
+    public void retry(String stage) {
+        Counter.builder("voice.retries")
+                .description("Pipeline stages attempted again")
+                .tags("stage", stage)
+                .register(registry)
+                .increment();
+    }
+
+    public void realtimeMessage(int chars) {
+        realtimeMessages.increment();
+        realtimeMessageChars.record(chars);
+    }
+
+    /**
+     * Gauges over whichever uplink is current; zero while the socket is closed.
+     */
+    public void bindRealtimeUplink(Supplier<RealtimeUplink> uplink) {
+        Gauge.builder("voice.realtime.uplink.queue.depth", uplink, u -> u.get() != null ? u.get().queueDepth() : 0)
+                .description("Audio and control frames waiting for the Realtime socket")
+                .register(registry);
+        Gauge.builder("voice.realtime.uplink.queue.depth.max", uplink, u -> u.get() != null ? u.get().maxQueueDepth() : 0)
+                .description("Deepest the uplink queue has been on the current socket")
+                .register(registry);
+        // Per socket: these start over when the socket reconnects
+        Gauge.builder("voice.realtime.uplink.frames.dropped", uplink, u -> u.get() != null ? u.get().droppedFrames() : 0)
+                .description("Audio frames dropped because the socket fell behind, on the current socket")
+                .register(registry);
+        Gauge.builder("voice.realtime.uplink.frames.sent", uplink, u -> u.get() != null ? u.get().sentFrames() : 0)
+                .description("Frames sent on the current Realtime socket")
+                .register(registry);
+    }
+
+    /**
+     * Queue depth and running tasks of a turn pipeline stage.
+     */
+    public void bindPipelineStage(PipelineStage stage) {
+        Gauge.builder("voice.pipeline.queue.depth", stage, PipelineStage::queueDepth)
+                .description("Tasks waiting for a turn pipeline stage")
+                .tags("stage", stage.name())
+                .register(registry);
+        Gauge.builder("voice.pipeline.running", stage, PipelineStage::running)
+                .description("Tasks running in a turn pipeline stage")
+                .tags("stage", stage.name())
+                .register(registry);
+    }
+
+    private void latency(String name, String description, long nanos, String... tags) {
+        Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(MIN_LATENCY)
+                .maximumExpectedValue(MAX_LATENCY)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static String outcome(boolean succeeded) {
+        return succeeded ? "success" : "failure";
+    }
+}
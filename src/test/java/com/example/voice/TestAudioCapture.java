@@ -1,13 +1,26 @@
 package dev.rabauer.voice;
 
+import io.quarkus.runtime.Quarkus;
+import io.quarkus.runtime.QuarkusApplication;
+import io.quarkus.runtime.annotations.QuarkusMain;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
- * Manual test for AudioCaptureService (record for 3 seconds)
+ * Manual test for AudioCaptureService (record for 3 seconds). The service comes fully wired from CDI with
+ * the settings in application.properties, so it keeps working as the service gains dependencies.
  */
-public class TestAudioCapture {
-    public static void main(String[] args) throws InterruptedException {
-        AudioCaptureService service = new AudioCaptureService();
-        service.init();
+@QuarkusMain(name = "audio-capture")
+public class TestAudioCapture implements QuarkusApplication {
+
+    @Inject
+    AudioCaptureService service;
 
+    @Override
+    public int run(String... args) throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
         RecorderListener listener = new RecorderListener() {
             @Override
             public void onRecordingStarted() {
@@ -15,8 +28,9 @@ public class TestAudioCapture {
             }
 
             @Override
-            public void onRecordingStopped(java.io.File wavFile) {
-                System.out.println("[TEST] Recording stopped, saved to: " + wavFile.getAbsolutePath());
+            public void onRecordingStopped(PcmRecording recording) {
+                System.out.println("[TEST] Recording stopped, captured " + recording.byteLength() + " bytes ("
+                        + recording.durationMs() + " ms)");
             }
 
             @Override
@@ -27,6 +41,7 @@ public class TestAudioCapture {
             @Override
             public void onProcessingFinished() {
                 System.out.println("[TEST] Processing finished");
+                finished.countDown();
             }
         };
 
@@ -36,7 +51,16 @@ public class TestAudioCapture {
         service.startRecording();
         Thread.sleep(3000);
         service.stopRecording();
+        if (!finished.await(60, TimeUnit.SECONDS)) {
+            System.out.println("Processing did not finish within 60 seconds");
+            return 1;
+        }
 
         System.out.println("Test complete!");
+        return 0;
+    }
+
+    public static void main(String[] args) {
+        Quarkus.run(TestAudioCapture.class, args);
     }
 }